@@ -27,6 +27,7 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Duration;
 
 /**
  * Autonomous SQL (AtSQL)
@@ -35,17 +36,58 @@ import java.sql.SQLException;
  * on {@link AutoCloseable} and {@link com.zaxxer.hikari.pool.HikariPool} most
  * of the resource management and query creation details are abstracted away.
  */
-public class AtSQL
+public class AtSQL implements AutoCloseable
 {
     private static final Logger LOG = LoggerFactory.getLogger(AtSQL.class);
 
     private HikariDataSource hikariDataSource;
+    private AtSQLWarmUp      warmUp;
+    private AtSQLLeakTracker leakTracker;
 
     AtSQL(HikariConfig config)
+    {
+        this(config, null, null);
+    }
+
+    AtSQL(HikariConfig config, AtSQLWarmUp warmUp, AtSQLLeakTracker leakTracker)
     {
         LOG.trace(LogPattern.ENTER, "Connection Pool Constructor");
 
         hikariDataSource = new HikariDataSource(config);
+
+        this.leakTracker = leakTracker;
+        this.warmUp      = warmUp;
+        if (warmUp != null)
+            warmUp.start(hikariDataSource, hikariDataSource.getPoolName());
+    }
+
+    /**
+     * @return true if no warm up was requested or the warm up has finished
+     * @see AtSQLFactory#withWarmUp(String...)
+     */
+    public boolean isReady()
+    {
+        return warmUp == null || warmUp.isReady();
+    }
+
+    /**
+     * @return the warm up of this connection pool, or null if none was
+     * requested
+     * @see AtSQLFactory#withWarmUp(String...)
+     */
+    public AtSQLWarmUp getWarmUp()
+    {
+        return warmUp;
+    }
+
+    /**
+     * @return the tracker of open results, or null if leak detection was not
+     * requested
+     * @see AtSQLFactory#withLeakDetection(Duration)
+     */
+    public AtSQLLeakTracker getLeakTracker()
+    {
+        return leakTracker;
     }
 
     public AtSQLMultiBatch createMultiBatch()
@@ -63,6 +105,33 @@ public class AtSQL
         return new AtSQLQuery(query, this);
     }
 
+    /**
+     * Creates a buffer coalescing single row writes of the given statement
+     * into batches.
+     *
+     * @param query         statement executed for every buffered write
+     * @param maxBatchSize  number of pending keys that triggers a flush
+     * @param flushInterval maximum time a write waits before being flushed
+     * @return an instance of AtSQLWriteBehind, which should be closed
+     * @see AtSQLWriteBehind
+     */
+    public AtSQLWriteBehind createWriteBehind(@Nonnull String query, int maxBatchSize, @Nonnull Duration flushInterval)
+    {
+        return new AtSQLWriteBehind(query, this, maxBatchSize, flushInterval);
+    }
+
+    /**
+     * Closes every connection of the pool and stops the leak tracker.
+     */
+    @Override
+    public void close()
+    {
+        if (leakTracker != null)
+            leakTracker.close();
+
+        hikariDataSource.close();
+    }
+
 
     AtSQLConnection newConnection()
             throws SQLException
@@ -19,12 +19,20 @@ package com.skanders.jbel.atsql;
 import com.skanders.jbel.def.Verify;
 import com.zaxxer.hikari.HikariConfig;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 public class AtSQLFactory
 {
     private HikariConfig hikariConfig;
     private boolean      driverOrUrlSet;
+    private boolean      warmUp;
+    private List<String> warmUpQueries;
+    private List<String> warmUpPreparedStatements;
+    private Duration     leakHoldThreshold;
 
     private AtSQLFactory(
             String username, String password, long maxLifetime, int maxPoolSize)
@@ -37,6 +45,11 @@ public class AtSQLFactory
         this.hikariConfig.setMaximumPoolSize(maxPoolSize);
 
         this.driverOrUrlSet = false;
+
+        this.warmUp                   = false;
+        this.warmUpQueries            = new ArrayList<>();
+        this.warmUpPreparedStatements = new ArrayList<>();
+        this.leakHoldThreshold        = null;
     }
 
     public static AtSQLFactory newInstance(
@@ -89,11 +102,72 @@ public class AtSQLFactory
         return this;
     }
 
+    public AtSQLFactory withMinimumIdle(int minimumIdle)
+    {
+        hikariConfig.setMinimumIdle(minimumIdle);
+
+        return this;
+    }
+
+    /**
+     * Warms connections up to the minimum idle size of the pool, kept below
+     * its maximum size, in parallel once built, executing the given queries
+     * on every connection.
+     *
+     * @param queries parameterless queries used to prime server side caches
+     * @return this instance of AtSQLFactory
+     * @see AtSQLWarmUp
+     */
+    public AtSQLFactory withWarmUp(String... queries)
+    {
+        this.warmUp = true;
+        this.warmUpQueries.addAll(Arrays.asList(queries));
+
+        return this;
+    }
+
+    /**
+     * Prepares the given statements on every connection filled by the warm up,
+     * priming the prepared statement cache of each connection.
+     *
+     * @param preparedStatements statements to prepare
+     * @return this instance of AtSQLFactory
+     * @see AtSQLWarmUp
+     */
+    public AtSQLFactory withWarmUpPreparedStatements(String... preparedStatements)
+    {
+        this.warmUp = true;
+        this.warmUpPreparedStatements.addAll(Arrays.asList(preparedStatements));
+
+        return this;
+    }
+
+    /**
+     * Tracks every open {@link AtSQLResult}, warning about results held longer
+     * than the threshold and reclaiming the connection of results that are
+     * never closed.
+     *
+     * @param holdThreshold hold time after which a result is reported
+     * @return this instance of AtSQLFactory
+     * @see AtSQLLeakTracker
+     */
+    public AtSQLFactory withLeakDetection(Duration holdThreshold)
+    {
+        Verify.notNull(holdThreshold, "holdThreshold cannot be null.");
+
+        this.leakHoldThreshold = holdThreshold;
+
+        return this;
+    }
+
     public AtSQL build()
     {
         Verify.isTrue(driverOrUrlSet, "Driver or URL must be set.");
 
-        return new AtSQL(hikariConfig);
+        AtSQLWarmUp      atSQLWarmUp = warmUp ? new AtSQLWarmUp(warmUpQueries, warmUpPreparedStatements) : null;
+        AtSQLLeakTracker leakTracker = leakHoldThreshold != null ? new AtSQLLeakTracker(leakHoldThreshold) : null;
+
+        return new AtSQL(hikariConfig, atSQLWarmUp, leakTracker);
     }
 
 }
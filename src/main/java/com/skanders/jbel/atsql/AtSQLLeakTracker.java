@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.atsql;
+
+import com.skanders.jbel.def.Verify;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks every open {@link AtSQLResult} of an {@link AtSQL}, each of which
+ * holds a pooled connection until closed.
+ * <p>
+ * The thread, time and stack trace of every acquisition is recorded. Results
+ * held longer than the hold threshold are logged once as possible leaks, and
+ * {@link #getHolders()} reports every current holder on demand. Results which
+ * become unreachable without being closed have their connection closed by the
+ * tracker, returning it to the pool.
+ */
+public class AtSQLLeakTracker
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AtSQLLeakTracker.class);
+
+    private static final long MIN_CHECK_PERIOD = 100L;
+
+    private final Duration                    holdThreshold;
+    private final ReferenceQueue<AtSQLResult> abandoned;
+    private final Set<Holder>                 holders;
+    private final ScheduledExecutorService    monitor;
+    private final AtomicLong                  reclaimed;
+
+    AtSQLLeakTracker(@Nonnull Duration holdThreshold)
+    {
+        Verify.notNull(holdThreshold, "holdThreshold cannot be null");
+
+        this.holdThreshold = holdThreshold;
+        this.abandoned     = new ReferenceQueue<>();
+        this.holders       = ConcurrentHashMap.newKeySet();
+        this.reclaimed     = new AtomicLong();
+
+        this.monitor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AtSQL Leak Tracker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long period = Math.max(MIN_CHECK_PERIOD, holdThreshold.toMillis() / 2);
+        monitor.scheduleWithFixedDelay(this::check, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    Holder track(AtSQLResult result, AtSQLConnection connection)
+    {
+        Holder holder = new Holder(result, connection, abandoned);
+        holders.add(holder);
+
+        return holder;
+    }
+
+    void release(Holder holder)
+    {
+        holders.remove(holder);
+        holder.clear();
+    }
+
+    /**
+     * @return a snapshot of every result currently holding a connection
+     */
+    public List<Holder> getHolders()
+    {
+        return Collections.unmodifiableList(new ArrayList<>(holders));
+    }
+
+    /**
+     * @return the hold time after which a result is reported as a leak
+     */
+    public Duration getHoldThreshold()
+    {
+        return holdThreshold;
+    }
+
+    /**
+     * @return number of results reclaimed after becoming unreachable without
+     * being closed
+     */
+    public long getReclaimedCount()
+    {
+        return reclaimed.get();
+    }
+
+    /**
+     * Logs every current holder along with the stack trace of its acquisition.
+     */
+    public void logHolders()
+    {
+        List<Holder> current = getHolders();
+
+        LOG.info("AtSQL has {} open results", current.size());
+
+        for (Holder holder : current)
+            LOG.info("AtSQLResult held for {}ms by {}", holder.getHeldFor().toMillis(), holder.getThreadName(),
+                    holder.acquisition);
+    }
+
+    void close()
+    {
+        monitor.shutdownNow();
+    }
+
+    private void check()
+    {
+        Reference<? extends AtSQLResult> reference;
+
+        while ((reference = abandoned.poll()) != null) {
+            Holder holder = (Holder) reference;
+
+            if (holders.remove(holder)) {
+                LOG.error("AtSQLResult was never closed, reclaiming its connection", holder.acquisition);
+                holder.connection.close();
+                reclaimed.incrementAndGet();
+            }
+        }
+
+        for (Holder holder : holders) {
+            if (holder.warned || holder.getHeldFor().compareTo(holdThreshold) < 0)
+                continue;
+
+            holder.warned = true;
+            LOG.warn("AtSQLResult held for {}ms by {}, possible leak", holder.getHeldFor().toMillis(),
+                    holder.getThreadName(), holder.acquisition);
+        }
+    }
+
+    /**
+     * An open AtSQLResult and where it was acquired. Only the result's
+     * connection is strongly referenced, the result itself staying
+     * collectable.
+     */
+    public static class Holder extends PhantomReference<AtSQLResult>
+    {
+        private final AtSQLConnection connection;
+        private final Throwable       acquisition;
+        private final String          threadName;
+        private final Instant         acquiredAt;
+        private final long            acquiredNanos;
+
+        private volatile boolean warned;
+
+        private Holder(AtSQLResult result, AtSQLConnection connection, ReferenceQueue<AtSQLResult> queue)
+        {
+            super(result, queue);
+
+            this.connection    = connection;
+            this.acquisition   = new Throwable("AtSQLResult acquisition");
+            this.threadName    = Thread.currentThread().getName();
+            this.acquiredAt    = Instant.now();
+            this.acquiredNanos = System.nanoTime();
+            this.warned        = false;
+        }
+
+        public String getThreadName()
+        {
+            return threadName;
+        }
+
+        public Instant getAcquiredAt()
+        {
+            return acquiredAt;
+        }
+
+        public Duration getHeldFor()
+        {
+            return Duration.ofNanos(System.nanoTime() - acquiredNanos);
+        }
+
+        public StackTraceElement[] getStackTrace()
+        {
+            return acquisition.getStackTrace();
+        }
+    }
+}
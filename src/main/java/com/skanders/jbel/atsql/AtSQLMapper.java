@@ -0,0 +1,622 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.atsql;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.skanders.jbel.def.SkandersException;
+import com.skanders.jbel.def.Verify;
+
+import javax.annotation.Nonnull;
+import java.beans.ConstructorProperties;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Builds and caches {@link AtSQLRowMapper}s which map rows into instances of a
+ * target class.
+ * <p>
+ * A target class is introspected once and its members are resolved into
+ * {@link MethodHandle}s. The class is created through a constructor annotated
+ * with {@link JsonCreator} or {@link ConstructorProperties}, otherwise through
+ * its no-args constructor followed by its setters and fields. Columns are
+ * matched to properties ignoring case and underscores, so {@code user_id}
+ * matches {@code userId}. A property may be renamed with {@link JsonProperty}
+ * and skipped with {@link JsonIgnore}.
+ * <p>
+ * Mappers are cached per class and column layout, each column being read by
+ * index through the typed getter of its target property.
+ */
+public final class AtSQLMapper
+{
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType OBJECT_SETTER  = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType INT_SETTER     = MethodType.methodType(void.class, Object.class, int.class);
+    private static final MethodType LONG_SETTER    = MethodType.methodType(void.class, Object.class, long.class);
+    private static final MethodType DOUBLE_SETTER  = MethodType.methodType(void.class, Object.class, double.class);
+    private static final MethodType BOOLEAN_SETTER = MethodType.methodType(void.class, Object.class, boolean.class);
+    private static final MethodType NEW_INSTANCE   = MethodType.methodType(Object.class);
+    private static final MethodType NEW_WITH_ARGS  = MethodType.methodType(Object.class, Object[].class);
+
+    private static final ConcurrentMap<Class<?>, ClassProfile>     PROFILES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<LayoutKey, AtSQLRowMapper<?>> MAPPERS  = new ConcurrentHashMap<>();
+
+    private AtSQLMapper()
+    {
+    }
+
+    /**
+     * Retrieves the mapper for the given class and the column layout of the
+     * given ResultSet, creating it on first use.
+     *
+     * @param type      class each row is mapped into
+     * @param resultSet ResultSet whose columns describe the layout
+     * @return a cached instance of {@link AtSQLRowMapper}
+     * @throws SQLException if the ResultSet metadata cannot be read
+     */
+    public static <T> AtSQLRowMapper<T> forResultSet(@Nonnull Class<T> type, @Nonnull ResultSet resultSet)
+            throws SQLException
+    {
+        Verify.notNull(type, "type cannot be null.");
+        Verify.notNull(resultSet, "resultSet cannot be null.");
+
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        String[]          columns  = new String[metaData.getColumnCount()];
+
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = metaData.getColumnLabel(i + 1);
+
+        return forColumns(type, columns);
+    }
+
+    /**
+     * Retrieves the mapper for the given class and column labels, creating it
+     * on first use.
+     *
+     * @param type    class each row is mapped into
+     * @param columns column labels in ResultSet order
+     * @return a cached instance of {@link AtSQLRowMapper}
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> AtSQLRowMapper<T> forColumns(@Nonnull Class<T> type, @Nonnull String... columns)
+    {
+        Verify.notNull(type, "type cannot be null.");
+        Verify.notNull(columns, "columns cannot be null.");
+
+        LayoutKey key = new LayoutKey(type, columns.clone());
+
+        AtSQLRowMapper<?> mapper = MAPPERS.get(key);
+        if (mapper == null)
+            mapper = MAPPERS.computeIfAbsent(key, k -> profileOf(type).newMapper(k.columns));
+
+        return (AtSQLRowMapper<T>) mapper;
+    }
+
+    private static ClassProfile profileOf(Class<?> type)
+    {
+        return PROFILES.computeIfAbsent(type, ClassProfile::new);
+    }
+
+    private static String normalize(String name)
+    {
+        return name.replace("_", "").toLowerCase(Locale.ROOT);
+    }
+
+    private static SkandersException mappingFailure(Class<?> type, Throwable cause)
+    {
+        return new SkandersException("Could not map row into " + type.getName(), cause);
+    }
+
+    /**
+     * Reflection results for a single class, resolved once and shared by every
+     * column layout of that class.
+     */
+    private static final class ClassProfile
+    {
+        private final Class<?>                  type;
+        private final MethodHandle              creator;
+        private final String[]                  creatorNames;
+        private final Class<?>[]                creatorTypes;
+        private final Map<String, MethodHandle> setters;
+        private final Map<String, Class<?>>     setterTypes;
+
+        ClassProfile(Class<?> type)
+        {
+            this.type        = type;
+            this.setters     = new HashMap<>();
+            this.setterTypes = new HashMap<>();
+
+            Constructor<?> constructor = findCreator(type);
+
+            try {
+                if (constructor != null) {
+                    this.creatorNames = creatorNames(constructor);
+                    this.creatorTypes = constructor.getParameterTypes();
+
+                    constructor.setAccessible(true);
+                    this.creator = LOOKUP.unreflectConstructor(constructor)
+                            .asSpreader(Object[].class, creatorTypes.length)
+                            .asType(NEW_WITH_ARGS);
+
+                } else {
+                    Constructor<?> noArgs = type.getDeclaredConstructor();
+
+                    noArgs.setAccessible(true);
+                    this.creator      = LOOKUP.unreflectConstructor(noArgs).asType(NEW_INSTANCE);
+                    this.creatorNames = null;
+                    this.creatorTypes = null;
+
+                    resolveFields(type);
+                    resolveSetters(type);
+                }
+
+            } catch (NoSuchMethodException e) {
+                throw new SkandersException(
+                        type.getName() + " requires a no-args, @JsonCreator or @ConstructorProperties constructor", e);
+
+            } catch (IllegalAccessException e) {
+                throw mappingFailure(type, e);
+
+            }
+        }
+
+        private static Constructor<?> findCreator(Class<?> type)
+        {
+            for (Constructor<?> constructor : type.getDeclaredConstructors())
+                if (constructor.isAnnotationPresent(JsonCreator.class) ||
+                        constructor.isAnnotationPresent(ConstructorProperties.class))
+                    return constructor;
+
+            return null;
+        }
+
+        private static String[] creatorNames(Constructor<?> constructor)
+        {
+            ConstructorProperties properties = constructor.getAnnotation(ConstructorProperties.class);
+            if (properties != null)
+                return properties.value();
+
+            Parameter[] parameters = constructor.getParameters();
+            String[]    names      = new String[parameters.length];
+
+            for (int i = 0; i < parameters.length; i++) {
+                JsonProperty property = parameters[i].getAnnotation(JsonProperty.class);
+
+                Verify.isTrue(property != null || parameters[i].isNamePresent(),
+                        "@JsonCreator parameters of " + constructor.getDeclaringClass().getName() +
+                                " require @JsonProperty names");
+
+                names[i] = property != null ? property.value() : parameters[i].getName();
+            }
+
+            return names;
+        }
+
+        private void resolveFields(Class<?> type)
+                throws IllegalAccessException
+        {
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+
+                    if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) || field.isSynthetic())
+                        continue;
+
+                    if (field.isAnnotationPresent(JsonIgnore.class))
+                        continue;
+
+                    JsonProperty property = field.getAnnotation(JsonProperty.class);
+                    String       name     = normalize(property != null ? property.value() : field.getName());
+
+                    if (setters.containsKey(name))
+                        continue;
+
+                    field.setAccessible(true);
+                    setters.put(name, LOOKUP.unreflectSetter(field));
+                    setterTypes.put(name, field.getType());
+                }
+            }
+        }
+
+        private void resolveSetters(Class<?> type)
+                throws IllegalAccessException
+        {
+            for (Method method : type.getMethods()) {
+                String methodName = method.getName();
+
+                if (Modifier.isStatic(method.getModifiers()) || method.getParameterCount() != 1)
+                    continue;
+
+                if (methodName.length() < 4 || !methodName.startsWith("set"))
+                    continue;
+
+                if (method.isAnnotationPresent(JsonIgnore.class))
+                    continue;
+
+                JsonProperty property = method.getAnnotation(JsonProperty.class);
+                String       name     = normalize(property != null ? property.value() : methodName.substring(3));
+
+                method.setAccessible(true);
+                setters.put(name, LOOKUP.unreflect(method));
+                setterTypes.put(name, method.getParameterTypes()[0]);
+            }
+        }
+
+        AtSQLRowMapper<?> newMapper(String[] columns)
+        {
+            Map<String, Integer> indexes = new HashMap<>();
+
+            for (int i = 0; i < columns.length; i++)
+                indexes.putIfAbsent(normalize(columns[i]), i + 1);
+
+            return creatorNames != null ? newCreatorMapper(indexes) : newSetterMapper(indexes);
+        }
+
+        private AtSQLRowMapper<?> newCreatorMapper(Map<String, Integer> indexes)
+        {
+            ColumnReader[] readers = new ColumnReader[creatorNames.length];
+
+            for (int i = 0; i < readers.length; i++) {
+                Integer index = indexes.get(normalize(creatorNames[i]));
+
+                readers[i] = index == null ? defaultReader(creatorTypes[i]) : reader(creatorTypes[i], index);
+            }
+
+            return new CreatorMapper(type, creator, readers);
+        }
+
+        private AtSQLRowMapper<?> newSetterMapper(Map<String, Integer> indexes)
+        {
+            ColumnBinder[] binders = new ColumnBinder[indexes.size()];
+            int            count   = 0;
+
+            for (Map.Entry<String, Integer> column : indexes.entrySet()) {
+                MethodHandle setter = setters.get(column.getKey());
+
+                if (setter != null)
+                    binders[count++] = binder(setterTypes.get(column.getKey()), setter, column.getValue());
+            }
+
+            return new SetterMapper(type, creator, Arrays.copyOf(binders, count));
+        }
+    }
+
+    private static ColumnBinder binder(Class<?> type, MethodHandle setter, int index)
+    {
+        if (type == int.class)
+            return new IntBinder(setter.asType(INT_SETTER), index);
+
+        if (type == long.class)
+            return new LongBinder(setter.asType(LONG_SETTER), index);
+
+        if (type == double.class)
+            return new DoubleBinder(setter.asType(DOUBLE_SETTER), index);
+
+        if (type == boolean.class)
+            return new BooleanBinder(setter.asType(BOOLEAN_SETTER), index);
+
+        return new ObjectBinder(setter.asType(OBJECT_SETTER), reader(type, index));
+    }
+
+    private static ColumnReader defaultReader(Class<?> type)
+    {
+        if (!type.isPrimitive())
+            return rs -> null;
+
+        Object zero = Array.get(Array.newInstance(type, 1), 0);
+
+        return rs -> zero;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ColumnReader reader(Class<?> type, int index)
+    {
+        if (type == String.class)
+            return rs -> rs.getString(index);
+
+        if (type == int.class)
+            return rs -> rs.getInt(index);
+
+        if (type == Integer.class)
+            return rs -> { int v = rs.getInt(index); return rs.wasNull() ? null : v; };
+
+        if (type == long.class)
+            return rs -> rs.getLong(index);
+
+        if (type == Long.class)
+            return rs -> { long v = rs.getLong(index); return rs.wasNull() ? null : v; };
+
+        if (type == double.class)
+            return rs -> rs.getDouble(index);
+
+        if (type == Double.class)
+            return rs -> { double v = rs.getDouble(index); return rs.wasNull() ? null : v; };
+
+        if (type == float.class)
+            return rs -> rs.getFloat(index);
+
+        if (type == Float.class)
+            return rs -> { float v = rs.getFloat(index); return rs.wasNull() ? null : v; };
+
+        if (type == short.class)
+            return rs -> rs.getShort(index);
+
+        if (type == Short.class)
+            return rs -> { short v = rs.getShort(index); return rs.wasNull() ? null : v; };
+
+        if (type == byte.class)
+            return rs -> rs.getByte(index);
+
+        if (type == Byte.class)
+            return rs -> { byte v = rs.getByte(index); return rs.wasNull() ? null : v; };
+
+        if (type == boolean.class)
+            return rs -> rs.getBoolean(index);
+
+        if (type == Boolean.class)
+            return rs -> { boolean v = rs.getBoolean(index); return rs.wasNull() ? null : v; };
+
+        if (type == BigDecimal.class)
+            return rs -> rs.getBigDecimal(index);
+
+        if (type == byte[].class)
+            return rs -> rs.getBytes(index);
+
+        if (type == Timestamp.class || type == java.util.Date.class)
+            return rs -> rs.getTimestamp(index);
+
+        if (type == java.sql.Date.class)
+            return rs -> rs.getDate(index);
+
+        if (type == Time.class)
+            return rs -> rs.getTime(index);
+
+        if (type == Instant.class)
+            return rs -> { Timestamp v = rs.getTimestamp(index); return v == null ? null : v.toInstant(); };
+
+        if (type.isEnum())
+            return rs -> { String v = rs.getString(index); return v == null ? null : Enum.valueOf((Class) type, v); };
+
+        return rs -> rs.getObject(index, type);
+    }
+
+    @FunctionalInterface
+    private interface ColumnReader
+    {
+        Object read(ResultSet resultSet) throws SQLException;
+    }
+
+    private interface ColumnBinder
+    {
+        void bind(Object target, ResultSet resultSet) throws Throwable;
+    }
+
+    private static final class ObjectBinder implements ColumnBinder
+    {
+        private final MethodHandle setter;
+        private final ColumnReader reader;
+
+        ObjectBinder(MethodHandle setter, ColumnReader reader)
+        {
+            this.setter = setter;
+            this.reader = reader;
+        }
+
+        @Override
+        public void bind(Object target, ResultSet resultSet) throws Throwable
+        {
+            setter.invokeExact(target, reader.read(resultSet));
+        }
+    }
+
+    private static final class IntBinder implements ColumnBinder
+    {
+        private final MethodHandle setter;
+        private final int          index;
+
+        IntBinder(MethodHandle setter, int index)
+        {
+            this.setter = setter;
+            this.index  = index;
+        }
+
+        @Override
+        public void bind(Object target, ResultSet resultSet) throws Throwable
+        {
+            setter.invokeExact(target, resultSet.getInt(index));
+        }
+    }
+
+    private static final class LongBinder implements ColumnBinder
+    {
+        private final MethodHandle setter;
+        private final int          index;
+
+        LongBinder(MethodHandle setter, int index)
+        {
+            this.setter = setter;
+            this.index  = index;
+        }
+
+        @Override
+        public void bind(Object target, ResultSet resultSet) throws Throwable
+        {
+            setter.invokeExact(target, resultSet.getLong(index));
+        }
+    }
+
+    private static final class DoubleBinder implements ColumnBinder
+    {
+        private final MethodHandle setter;
+        private final int          index;
+
+        DoubleBinder(MethodHandle setter, int index)
+        {
+            this.setter = setter;
+            this.index  = index;
+        }
+
+        @Override
+        public void bind(Object target, ResultSet resultSet) throws Throwable
+        {
+            setter.invokeExact(target, resultSet.getDouble(index));
+        }
+    }
+
+    private static final class BooleanBinder implements ColumnBinder
+    {
+        private final MethodHandle setter;
+        private final int          index;
+
+        BooleanBinder(MethodHandle setter, int index)
+        {
+            this.setter = setter;
+            this.index  = index;
+        }
+
+        @Override
+        public void bind(Object target, ResultSet resultSet) throws Throwable
+        {
+            setter.invokeExact(target, resultSet.getBoolean(index));
+        }
+    }
+
+    private static final class SetterMapper implements AtSQLRowMapper<Object>
+    {
+        private final Class<?>       type;
+        private final MethodHandle   creator;
+        private final ColumnBinder[] binders;
+
+        SetterMapper(Class<?> type, MethodHandle creator, ColumnBinder[] binders)
+        {
+            this.type    = type;
+            this.creator = creator;
+            this.binders = binders;
+        }
+
+        @Override
+        public Object map(ResultSet resultSet) throws SQLException
+        {
+            try {
+                Object target = (Object) creator.invokeExact();
+
+                for (ColumnBinder binder : binders)
+                    binder.bind(target, resultSet);
+
+                return target;
+
+            } catch (SQLException | RuntimeException | Error e) {
+                throw e;
+
+            } catch (Throwable e) {
+                throw mappingFailure(type, e);
+
+            }
+        }
+    }
+
+    private static final class CreatorMapper implements AtSQLRowMapper<Object>
+    {
+        private final Class<?>       type;
+        private final MethodHandle   creator;
+        private final ColumnReader[] readers;
+
+        CreatorMapper(Class<?> type, MethodHandle creator, ColumnReader[] readers)
+        {
+            this.type    = type;
+            this.creator = creator;
+            this.readers = readers;
+        }
+
+        @Override
+        public Object map(ResultSet resultSet) throws SQLException
+        {
+            Object[] args = new Object[readers.length];
+
+            for (int i = 0; i < readers.length; i++)
+                args[i] = readers[i].read(resultSet);
+
+            try {
+                return (Object) creator.invokeExact(args);
+
+            } catch (RuntimeException | Error e) {
+                throw e;
+
+            } catch (Throwable e) {
+                throw mappingFailure(type, e);
+
+            }
+        }
+    }
+
+    private static final class LayoutKey
+    {
+        private final Class<?> type;
+        private final String[] columns;
+        private final int      hash;
+
+        LayoutKey(Class<?> type, String[] columns)
+        {
+            this.type    = type;
+            this.columns = columns;
+            this.hash    = 31 * type.hashCode() + Arrays.hashCode(columns);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+
+            if (o == null || getClass() != o.getClass())
+                return false;
+
+            LayoutKey that = (LayoutKey) o;
+
+            return type == that.type && Arrays.equals(columns, that.columns);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
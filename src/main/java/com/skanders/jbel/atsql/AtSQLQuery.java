@@ -26,6 +26,7 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 
 public class AtSQLQuery
 {
@@ -103,7 +104,7 @@ public class AtSQLQuery
                     .setParams(atSQLParamList)
                     .executeQuery();
 
-            return Resulted.inValue(AtSQLResult.newInstance(atSQLConnection, rs));
+            return Resulted.inValue(AtSQLResult.newInstance(atSQLConnection, rs, atSQL.getLeakTracker()));
 
         } catch (SQLException e) {
             LOG.error(LogPattern.EXIT_FAIL, "Prepare Database Query Execution", e.getClass(), e.getMessage());
@@ -114,4 +115,22 @@ public class AtSQLQuery
 
         }
     }
+
+    /**
+     * Executes the query and maps every row into an instance of the given
+     * class, releasing the connection before returning.
+     *
+     * @param type class each row is mapped into
+     * @return a Resulted containing the mapped rows
+     * @see AtSQLMapper
+     */
+    public <T> Resulted<List<T>> executeQuery(@Nonnull Class<T> type)
+    {
+        try (Resulted<AtSQLResult> resulted = executeQuery()) {
+            if (resulted.notValid())
+                return Resulted.inResulted(resulted);
+
+            return resulted.value().toList(type);
+        }
+    }
 }
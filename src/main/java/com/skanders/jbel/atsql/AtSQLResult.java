@@ -17,28 +17,53 @@
 
 package com.skanders.jbel.atsql;
 
+import com.skanders.jbel.def.LogPattern;
+import com.skanders.jbel.def.SkandersException;
 import com.skanders.jbel.def.Verify;
+import com.skanders.jbel.result.Resulted;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class AtSQLResult implements AutoCloseable
 {
-    private AtSQLConnection atSQLConnection;
-    private ResultSet       resultSet;
+    private static final Logger LOG = LoggerFactory.getLogger(AtSQLResult.class);
 
-    private AtSQLResult(AtSQLConnection atSQLConnection, ResultSet resultSet)
+    private AtSQLConnection         atSQLConnection;
+    private ResultSet               resultSet;
+    private AtSQLLeakTracker        leakTracker;
+    private AtSQLLeakTracker.Holder holder;
+
+    private AtSQLResult(AtSQLConnection atSQLConnection, ResultSet resultSet, AtSQLLeakTracker leakTracker)
     {
         Verify.notNull(atSQLConnection, "query cannot be null.");
         Verify.notNull(resultSet, "atSQL cannot be null.");
 
         this.atSQLConnection = atSQLConnection;
         this.resultSet       = resultSet;
+        this.leakTracker     = leakTracker;
+        this.holder          = leakTracker == null ? null : leakTracker.track(this, atSQLConnection);
     }
 
     static AtSQLResult newInstance(@Nonnull AtSQLConnection atSQLConnection, @Nonnull ResultSet resultSet)
     {
-        return new AtSQLResult(atSQLConnection, resultSet);
+        return new AtSQLResult(atSQLConnection, resultSet, null);
+    }
+
+    static AtSQLResult newInstance(
+            @Nonnull AtSQLConnection atSQLConnection, @Nonnull ResultSet resultSet, AtSQLLeakTracker leakTracker)
+    {
+        return new AtSQLResult(atSQLConnection, resultSet, leakTracker);
     }
 
     public ResultSet getResultSet()
@@ -46,10 +71,93 @@ public class AtSQLResult implements AutoCloseable
         return resultSet;
     }
 
+    /**
+     * Maps every remaining row into an instance of the given class.
+     *
+     * @param type class each row is mapped into
+     * @return a Resulted containing the mapped rows
+     * @see AtSQLMapper
+     */
+    public <T> Resulted<List<T>> toList(@Nonnull Class<T> type)
+    {
+        try {
+            AtSQLRowMapper<T> mapper = AtSQLMapper.forResultSet(type, resultSet);
+            List<T>           rows   = new ArrayList<>();
+
+            while (resultSet.next())
+                rows.add(mapper.map(resultSet));
+
+            return Resulted.inValue(rows);
+
+        } catch (SQLException e) {
+            LOG.error(LogPattern.EXIT_FAIL, "Map Database Result", e.getClass(), e.getMessage());
+
+            return Resulted.inException(e);
+
+        }
+    }
+
+    /**
+     * Lazily maps the remaining rows into instances of the given class. Rows
+     * are read as the stream is consumed, the stream does not close this
+     * result.
+     *
+     * @param type class each row is mapped into
+     * @return a sequential Stream of mapped rows
+     * @throws SkandersException if the ResultSet cannot be read
+     * @see AtSQLMapper
+     */
+    public <T> Stream<T> stream(@Nonnull Class<T> type)
+    {
+        try {
+            AtSQLRowMapper<T> mapper = AtSQLMapper.forResultSet(type, resultSet);
+
+            return StreamSupport.stream(new RowSpliterator<>(resultSet, mapper), false);
+
+        } catch (SQLException e) {
+            throw new SkandersException(e);
+
+        }
+    }
+
     @Override
     public void close()
     {
+        if (holder != null) {
+            leakTracker.release(holder);
+            holder = null;
+        }
+
         atSQLConnection.close();
     }
-}
 
+    private static class RowSpliterator<T> extends Spliterators.AbstractSpliterator<T>
+    {
+        private final ResultSet         resultSet;
+        private final AtSQLRowMapper<T> mapper;
+
+        RowSpliterator(ResultSet resultSet, AtSQLRowMapper<T> mapper)
+        {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+
+            this.resultSet = resultSet;
+            this.mapper    = mapper;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action)
+        {
+            try {
+                if (!resultSet.next())
+                    return false;
+
+                action.accept(mapper.map(resultSet));
+                return true;
+
+            } catch (SQLException e) {
+                throw new SkandersException(e);
+
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.atsql;
+
+import com.skanders.jbel.def.LogPattern;
+import com.skanders.jbel.result.Result;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Eagerly opens connections of an {@link AtSQL} up to its minimum idle size,
+ * kept below its maximum pool size, on a few threads in parallel and runs a
+ * set of warm-up statements on each of them. Warmed connections stay checked
+ * out until every one of them is warmed, so each statement reaches distinct
+ * connections, and are then released together. At least one connection is
+ * always left to the application.
+ * <p>
+ * Queries are executed to prime server side caches while prepared statements
+ * are only prepared, priming the prepared statement cache of each connection.
+ * The warm-up runs in the background, {@link #isReady()} and {@link
+ * #awaitReady(Duration)} report when it has finished.
+ */
+public class AtSQLWarmUp
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AtSQLWarmUp.class);
+
+    private static final int MAX_OPENER_THREADS = 4;
+
+    private final List<String>   queries;
+    private final List<String>   preparedStatements;
+    private final CountDownLatch ready;
+    private final AtomicInteger  connectionCount;
+
+    private volatile Duration duration;
+    private volatile Result   result;
+
+    AtSQLWarmUp(@Nonnull List<String> queries, @Nonnull List<String> preparedStatements)
+    {
+        this.queries            = new ArrayList<>(queries);
+        this.preparedStatements = new ArrayList<>(preparedStatements);
+        this.ready              = new CountDownLatch(1);
+        this.connectionCount    = new AtomicInteger();
+
+        this.duration = null;
+        this.result   = Result.UNDECLARED;
+    }
+
+    void start(HikariDataSource dataSource, String poolName)
+    {
+        Thread warmUp = new Thread(() -> warmUp(dataSource), poolName + " Warm Up");
+        warmUp.setDaemon(true);
+        warmUp.start();
+    }
+
+    private void warmUp(HikariDataSource dataSource)
+    {
+        LOG.info(LogPattern.INIT, "Connection Pool Warm Up");
+
+        long            start    = System.nanoTime();
+        int              count    = warmUpCount(dataSource);
+        ExecutorService  openers  = newOpeners(Math.min(count, MAX_OPENER_THREADS));
+        List<Result>     failures = new ArrayList<>();
+        List<Connection> held     = Collections.synchronizedList(new ArrayList<>(count));
+
+        List<Future<Result>> opened = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++)
+            opened.add(openers.submit(() -> warmConnection(dataSource, held)));
+
+        try {
+            for (Future<Result> future : opened) {
+                Result result = future.get();
+                if (result.notValid())
+                    failures.add(result);
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failures.add(Result.exception(e));
+
+        } catch (ExecutionException e) {
+            failures.add(Result.exception(e));
+
+        } finally {
+            openers.shutdownNow();
+            release(openers, held);
+
+        }
+
+        this.duration = Duration.ofNanos(System.nanoTime() - start);
+        this.result   = failures.isEmpty() ? Result.VALID : failures.get(0);
+        this.ready.countDown();
+
+        LOG.info("Connection Pool Warm Up finished in {}ms with {} connections and {} failures",
+                duration.toMillis(), connectionCount.get(), failures.size());
+    }
+
+    /**
+     * @return the minimum idle size, kept below the maximum pool size so the
+     * warm up never checks out the whole pool
+     */
+    private static int warmUpCount(HikariDataSource dataSource)
+    {
+        int minIdle = Math.max(1, dataSource.getMinimumIdle());
+
+        return Math.max(1, Math.min(minIdle, dataSource.getMaximumPoolSize() - 1));
+    }
+
+    private static ExecutorService newOpeners(int threads)
+    {
+        String name = Thread.currentThread().getName();
+
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name + " Opener");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens a connection and runs the warm up statements on it. The connection
+     * is kept in held, as releasing it would hand the same connection back to
+     * the next warm up on this thread.
+     */
+    private Result warmConnection(HikariDataSource dataSource, List<Connection> held)
+    {
+        try {
+            Connection connection = dataSource.getConnection();
+            held.add(connection);
+            connectionCount.incrementAndGet();
+
+            for (String query : queries)
+                try (PreparedStatement statement = connection.prepareStatement(query)) {
+                    statement.execute();
+                }
+
+            for (String preparedStatement : preparedStatements)
+                connection.prepareStatement(preparedStatement).close();
+
+            return Result.VALID;
+
+        } catch (SQLException e) {
+            LOG.error(LogPattern.EXIT_FAIL, "Connection Warm Up", e.getClass(), e.getMessage());
+
+            return Result.exception(e);
+
+        }
+    }
+
+    /**
+     * Releases the held connections back to the pool once no opener is left
+     * to add to them.
+     */
+    private static void release(ExecutorService openers, List<Connection> held)
+    {
+        try {
+            openers.awaitTermination(1, TimeUnit.MINUTES);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+        }
+
+        synchronized (held) {
+            for (Connection connection : held)
+                try {
+                    connection.close();
+
+                } catch (SQLException e) {
+                    LOG.error(LogPattern.EXIT_FAIL, "Connection Warm Up Release", e.getClass(), e.getMessage());
+
+                }
+        }
+    }
+
+    /**
+     * @return true once the warm up has finished, successfully or not
+     */
+    public boolean isReady()
+    {
+        return ready.getCount() == 0;
+    }
+
+    /**
+     * Blocks until the warm up has finished or the timeout elapses.
+     *
+     * @param timeout maximum time to wait
+     * @return true if the warm up finished within the timeout
+     */
+    public boolean awaitReady(@Nonnull Duration timeout)
+    {
+        try {
+            return ready.await(timeout.toNanos(), TimeUnit.NANOSECONDS);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+
+        }
+    }
+
+    /**
+     * @return time taken by the warm up, or null if it has not finished
+     */
+    public Duration getDuration()
+    {
+        return duration;
+    }
+
+    /**
+     * @return Result.VALID if every connection warmed up, UNDECLARED while
+     * running, otherwise the first failure
+     */
+    public Result getResult()
+    {
+        return result;
+    }
+
+    /**
+     * @return number of connections opened by the warm up so far
+     */
+    public int getConnectionCount()
+    {
+        return connectionCount.get();
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.atsql;
+
+import com.skanders.jbel.def.LogPattern;
+import com.skanders.jbel.def.Verify;
+import com.skanders.jbel.result.Result;
+import com.skanders.jbel.result.Resulted;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BinaryOperator;
+
+/**
+ * Buffers single row writes of one statement and flushes them as an {@link
+ * AtSQLBatch}, once the buffer holds maxBatchSize keys or every flush
+ * interval, whichever comes first.
+ * <p>
+ * Writes to a key already waiting in the buffer are coalesced into the
+ * pending write, by default the latest parameters replacing the previous
+ * ones. Counters would rather sum them, see {@link #withMerge(BinaryOperator)}.
+ * The future returned by {@link #write(Object, Object...)} completes with the
+ * Result of the batch once it has been committed. Closing flushes every
+ * write accepted before the close, later writes being refused.
+ */
+public class AtSQLWriteBehind implements AutoCloseable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AtSQLWriteBehind.class);
+
+    private static final BinaryOperator<Object[]> LAST_WRITE_WINS = (previous, latest) -> latest;
+
+    private final AtSQL                                   atSQL;
+    private final String                                  query;
+    private final int                                     maxBatchSize;
+    private final ConcurrentHashMap<Object, PendingWrite> buffer;
+    private final AtomicInteger                           bufferSize;
+    private final AtomicBoolean                           flushRequested;
+    private final ScheduledExecutorService                flusher;
+    private final ReadWriteLock                           closeLock;
+
+    private volatile BinaryOperator<Object[]> merge;
+    private volatile boolean                  closed;
+
+    AtSQLWriteBehind(@Nonnull String query, @Nonnull AtSQL atSQL, int maxBatchSize, @Nonnull Duration flushInterval)
+    {
+        Verify.notNull(query, "query cannot be null.");
+        Verify.notNull(atSQL, "atSQL cannot be null.");
+        Verify.notNull(flushInterval, "flushInterval cannot be null.");
+        Verify.isTrue(maxBatchSize > 0, "maxBatchSize must be greater than 0.");
+        Verify.isTrue(flushInterval.toMillis() > 0, "flushInterval must be at least 1 millisecond.");
+
+        this.atSQL          = atSQL;
+        this.query          = query;
+        this.maxBatchSize   = maxBatchSize;
+        this.buffer         = new ConcurrentHashMap<>();
+        this.bufferSize     = new AtomicInteger();
+        this.flushRequested = new AtomicBoolean();
+        this.closeLock      = new ReentrantReadWriteLock();
+        this.merge          = LAST_WRITE_WINS;
+        this.closed         = false;
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AtSQL Write Behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long interval = flushInterval.toMillis();
+        flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param merge combines the parameters of a pending write with the
+     *              parameters of a newer write to the same key
+     * @return this instance of AtSQLWriteBehind
+     */
+    public AtSQLWriteBehind withMerge(@Nonnull BinaryOperator<Object[]> merge)
+    {
+        Verify.notNull(merge, "merge cannot be null.");
+
+        this.merge = merge;
+
+        return this;
+    }
+
+    /**
+     * Buffers a write, coalescing it with any pending write to the same key.
+     *
+     * @param key    key identifying the written row
+     * @param params parameters of the statement
+     * @return a future completed with the Result of the batch holding the write
+     */
+    public CompletableFuture<Result> write(@Nonnull Object key, Object... params)
+    {
+        Verify.notNull(key, "key cannot be null.");
+
+        // writes share the read lock so close() waits for every write that got past the closed check
+        closeLock.readLock().lock();
+
+        try {
+            Verify.notTrue(closed, "AtSQLWriteBehind cannot be written to after closed");
+
+            PendingWrite pending = buffer.compute(key, (k, existing) -> {
+                if (existing == null) {
+                    bufferSize.incrementAndGet();
+                    return new PendingWrite(params);
+                }
+
+                existing.params = merge.apply(existing.params, params);
+                return existing;
+            });
+
+            if (bufferSize.get() >= maxBatchSize && flushRequested.compareAndSet(false, true))
+                flusher.execute(this::flush);
+
+            return pending.future;
+
+        } finally {
+            closeLock.readLock().unlock();
+
+        }
+    }
+
+    /**
+     * @return number of keys currently waiting to be flushed
+     */
+    public int getPendingCount()
+    {
+        return bufferSize.get();
+    }
+
+    /**
+     * Flushes the writes pending at the time of the call, blocking until the
+     * batches are committed.
+     */
+    public synchronized void flush()
+    {
+        flushRequested.set(false);
+
+        int batches = (bufferSize.get() + maxBatchSize - 1) / maxBatchSize;
+
+        for (int i = 0; i < batches; i++)
+            flushBatch();
+    }
+
+    private void flushBatch()
+    {
+        List<PendingWrite> batch      = new ArrayList<>(Math.min(maxBatchSize, bufferSize.get()));
+        AtSQLBatch         atSQLBatch = atSQL.createBatch(query);
+
+        for (Object key : buffer.keySet()) {
+            if (batch.size() == maxBatchSize)
+                break;
+
+            PendingWrite pending = buffer.remove(key);
+            if (pending == null)
+                continue;
+
+            bufferSize.decrementAndGet();
+            batch.add(pending);
+            atSQLBatch.setList(pending.params);
+        }
+
+        if (batch.isEmpty())
+            return;
+
+        LOG.debug(LogPattern.ENTER, "Write Behind Flush");
+
+        Result result;
+
+        try {
+            Resulted<int[]> resulted = atSQLBatch.executeBatch();
+            result = resulted.result();
+
+        } catch (RuntimeException e) {
+            LOG.error(LogPattern.EXIT_FAIL, "Write Behind Flush", e.getClass(), e.getMessage());
+            result = Result.exception(e);
+
+        }
+
+        for (PendingWrite pending : batch)
+            pending.future.complete(result);
+    }
+
+    /**
+     * Stops the periodic flush after flushing every pending write. Writes
+     * that could not be flushed have their future completed with a failure.
+     */
+    @Override
+    public void close()
+    {
+        closeLock.writeLock().lock();
+
+        try {
+            if (closed)
+                return;
+
+            closed = true;
+
+        } finally {
+            closeLock.writeLock().unlock();
+
+        }
+
+        flush();
+        flusher.shutdown();
+
+        Result failure = Result.exception("AtSQLWriteBehind closed before the write was flushed");
+
+        for (Object key : buffer.keySet()) {
+            PendingWrite pending = buffer.remove(key);
+
+            if (pending != null) {
+                bufferSize.decrementAndGet();
+                pending.future.complete(failure);
+            }
+        }
+    }
+
+    private static class PendingWrite
+    {
+        private final CompletableFuture<Result> future;
+
+        private Object[] params;
+
+        PendingWrite(Object[] params)
+        {
+            this.params = params;
+            this.future = new CompletableFuture<>();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.atsql;
+
+import com.skanders.jbel.def.SkandersException;
+import com.skanders.jbel.def.Verify;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resolves the shard a shard key belongs to for a {@link ShardedAtSQL}.
+ */
+@FunctionalInterface
+public interface ShardFunction
+{
+    /**
+     * @param shardKey   key of the partitioned entity
+     * @param shardCount number of shards available
+     * @return index of the shard, between 0 and shardCount - 1
+     */
+    int shardOf(@Nonnull Object shardKey, int shardCount);
+
+    /**
+     * Spreads keys over the shards by their hash code. Numbers and Strings
+     * hash the same way on every JVM, making them stable shard keys.
+     *
+     * @return a hashing instance of ShardFunction
+     */
+    static ShardFunction hash()
+    {
+        return (shardKey, shardCount) -> {
+            int h = shardKey.hashCode();
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+
+            return Math.floorMod(h, shardCount);
+        };
+    }
+
+    /**
+     * Assigns numeric keys to shards by range, shard i holding the keys lower
+     * than upperBounds[i] and the last shard holding every remaining key.
+     *
+     * @param upperBounds exclusive upper bound of each shard in ascending order
+     * @return a range instance of ShardFunction
+     */
+    static ShardFunction range(long... upperBounds)
+    {
+        long[] bounds = upperBounds.clone();
+
+        for (int i = 1; i < bounds.length; i++)
+            Verify.isTrue(bounds[i - 1] < bounds[i], "upperBounds must be in ascending order");
+
+        return (shardKey, shardCount) -> {
+            if (!(shardKey instanceof Number))
+                throw new SkandersException("Range shard keys must be numbers, given: " + shardKey.getClass());
+
+            int index = Arrays.binarySearch(bounds, ((Number) shardKey).longValue());
+            int shard = index >= 0 ? index + 1 : -index - 1;
+
+            return Math.min(shard, shardCount - 1);
+        };
+    }
+
+    /**
+     * Assigns keys to shards through a lookup table, using the fallback for
+     * keys not present in the table.
+     *
+     * @param table    key to shard index mapping
+     * @param fallback ShardFunction used for unknown keys
+     * @return a lookup instance of ShardFunction
+     */
+    static ShardFunction lookup(@Nonnull Map<?, Integer> table, @Nonnull ShardFunction fallback)
+    {
+        Verify.notNull(table, "table cannot be null");
+        Verify.notNull(fallback, "fallback cannot be null");
+
+        Map<Object, Integer> copy = new HashMap<>(table);
+
+        return (shardKey, shardCount) -> {
+            Integer shard = copy.get(shardKey);
+
+            return shard != null ? shard : fallback.shardOf(shardKey, shardCount);
+        };
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.atsql;
+
+import com.skanders.jbel.def.LogPattern;
+import com.skanders.jbel.def.Verify;
+import com.skanders.jbel.result.Resulted;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Routes queries over horizontally partitioned databases, each shard being
+ * managed by its own {@link AtSQL}.
+ * <p>
+ * Single shard queries are routed by their shard key through a {@link
+ * ShardFunction}. Scatter queries run on every shard in parallel, their rows
+ * being merged into a single {@link ShardedAtSQLResult} which reports the
+ * shards that failed.
+ * <p>
+ * Closing a ShardedAtSQL stops its scatter threads and closes every shard.
+ */
+public class ShardedAtSQL implements AutoCloseable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedAtSQL.class);
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private final List<AtSQL>     shards;
+    private final ShardFunction   shardFunction;
+    private final ExecutorService scatterPool;
+
+    private ShardedAtSQL(@Nonnull ShardFunction shardFunction, @Nonnull List<AtSQL> shards)
+    {
+        Verify.notNull(shardFunction, "shardFunction cannot be null.");
+        Verify.notNull(shards, "shards cannot be null.");
+        Verify.notTrue(shards.isEmpty(), "At least one shard is required.");
+
+        String        poolName    = "Sharded AtSQL [" + POOL_COUNT.getAndIncrement() + "] ";
+        AtomicInteger threadCount = new AtomicInteger();
+
+        this.shards        = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.shardFunction = shardFunction;
+        this.scatterPool   = Executors.newFixedThreadPool(shards.size(), runnable -> {
+            Thread thread = new Thread(runnable, poolName + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Builds every factory, the index of each factory being its shard index.
+     *
+     * @param shardFunction function resolving shard keys to shard indexes
+     * @param factories     one AtSQLFactory per shard
+     * @return an instance of ShardedAtSQL
+     */
+    public static ShardedAtSQL build(@Nonnull ShardFunction shardFunction, @Nonnull List<AtSQLFactory> factories)
+    {
+        Verify.notNull(factories, "factories cannot be null.");
+
+        List<AtSQL> shards = new ArrayList<>(factories.size());
+
+        for (AtSQLFactory factory : factories)
+            shards.add(factory.build());
+
+        return new ShardedAtSQL(shardFunction, shards);
+    }
+
+    /**
+     * @param shardFunction function resolving shard keys to shard indexes
+     * @param shards        already built AtSQL instances, in shard order
+     * @return an instance of ShardedAtSQL
+     */
+    public static ShardedAtSQL of(@Nonnull ShardFunction shardFunction, @Nonnull List<AtSQL> shards)
+    {
+        return new ShardedAtSQL(shardFunction, shards);
+    }
+
+    public int getShardCount()
+    {
+        return shards.size();
+    }
+
+    public AtSQL getShard(int index)
+    {
+        return shards.get(index);
+    }
+
+    /**
+     * @param shardKey key of the partitioned entity
+     * @return the AtSQL managing the shard of the given key
+     */
+    public AtSQL shardOf(@Nonnull Object shardKey)
+    {
+        Verify.notNull(shardKey, "shardKey cannot be null.");
+
+        int index = shardFunction.shardOf(shardKey, shards.size());
+
+        Verify.isTrue(index >= 0 && index < shards.size(), "ShardFunction returned invalid shard: " + index);
+
+        return shards.get(index);
+    }
+
+    public AtSQLQuery createQuery(@Nonnull Object shardKey, @Nonnull String query)
+    {
+        return shardOf(shardKey).createQuery(query);
+    }
+
+    public AtSQLBatch createBatch(@Nonnull Object shardKey, @Nonnull String query)
+    {
+        return shardOf(shardKey).createBatch(query);
+    }
+
+    public AtSQLMultiBatch createMultiBatch(@Nonnull Object shardKey)
+    {
+        return shardOf(shardKey).createMultiBatch();
+    }
+
+    /**
+     * Executes the query on every shard in parallel. Shards that fail are
+     * reported by the returned result rather than failing the whole query.
+     *
+     * @param query  query to execute on every shard
+     * @param params parameters of the query
+     * @return an instance of ShardedAtSQLResult, which must be closed
+     */
+    public ShardedAtSQLResult scatterQuery(@Nonnull String query, Object... params)
+    {
+        LOG.debug(LogPattern.ENTER, "Sharded Database Execute Query");
+
+        List<Resulted<AtSQLResult>> results = scatter(atSQL -> atSQL.createQuery(query)
+                .setList(params)
+                .executeQuery());
+
+        return new ShardedAtSQLResult(results);
+    }
+
+    /**
+     * Executes the update on every shard in parallel.
+     *
+     * @param query  update to execute on every shard
+     * @param params parameters of the update
+     * @return the update count of each shard, in shard order
+     */
+    public List<Resulted<Integer>> scatterUpdate(@Nonnull String query, Object... params)
+    {
+        LOG.debug(LogPattern.ENTER, "Sharded Database Execute Update");
+
+        return scatter(atSQL -> atSQL.createQuery(query)
+                .setList(params)
+                .executeUpdate());
+    }
+
+    /**
+     * Stops the scatter threads and closes the AtSQL of every shard.
+     */
+    @Override
+    public void close()
+    {
+        scatterPool.shutdown();
+
+        for (AtSQL atSQL : shards)
+            atSQL.close();
+    }
+
+    private <T> List<Resulted<T>> scatter(Function<AtSQL, Resulted<T>> function)
+    {
+        List<CompletableFuture<Resulted<T>>> futures = new ArrayList<>(shards.size());
+
+        for (AtSQL atSQL : shards)
+            futures.add(CompletableFuture.supplyAsync(() -> function.apply(atSQL), scatterPool));
+
+        List<Resulted<T>> results = new ArrayList<>(shards.size());
+
+        for (CompletableFuture<Resulted<T>> future : futures) {
+            try {
+                results.add(future.join());
+
+            } catch (RuntimeException e) {
+                LOG.error(LogPattern.EXIT_FAIL, "Sharded Database Execution", e.getClass(), e.getMessage());
+                results.add(Resulted.inException(e));
+
+            }
+        }
+
+        return results;
+    }
+}
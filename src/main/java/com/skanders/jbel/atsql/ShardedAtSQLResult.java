@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.atsql;
+
+import com.skanders.jbel.result.Result;
+import com.skanders.jbel.result.Resulted;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Merged result of a scatter query over a {@link ShardedAtSQL}. Holds the
+ * open {@link AtSQLResult} of every shard that succeeded and the {@link
+ * Result} of every shard that failed.
+ */
+public class ShardedAtSQLResult implements AutoCloseable
+{
+    private final List<AtSQLResult>    results;
+    private final Map<Integer, Result> failures;
+
+    ShardedAtSQLResult(@Nonnull List<Resulted<AtSQLResult>> shardResults)
+    {
+        this.results  = new ArrayList<>(shardResults.size());
+        this.failures = new LinkedHashMap<>();
+
+        for (int i = 0; i < shardResults.size(); i++) {
+            Resulted<AtSQLResult> resulted = shardResults.get(i);
+
+            if (resulted.notValid())
+                failures.put(i, resulted.result());
+            else
+                results.add(resulted.value());
+        }
+    }
+
+    /**
+     * @return open results of the shards that succeeded, in shard order
+     */
+    public List<AtSQLResult> getResults()
+    {
+        return Collections.unmodifiableList(results);
+    }
+
+    /**
+     * @return failure Result of each shard that failed, keyed by shard index
+     */
+    public Map<Integer, Result> getFailures()
+    {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    public boolean hasFailures()
+    {
+        return !failures.isEmpty();
+    }
+
+    /**
+     * @return true if every shard failed
+     */
+    public boolean notValid()
+    {
+        return results.isEmpty();
+    }
+
+    /**
+     * Lazily maps the rows of every shard that succeeded, one shard after
+     * another.
+     *
+     * @param type class each row is mapped into
+     * @return a sequential Stream of mapped rows
+     * @see AtSQLResult#stream(Class)
+     */
+    public <T> Stream<T> stream(@Nonnull Class<T> type)
+    {
+        return results.stream().flatMap(result -> result.stream(type));
+    }
+
+    /**
+     * Maps the rows of every shard that succeeded into a single list.
+     *
+     * @param type class each row is mapped into
+     * @return a Resulted containing the rows, or the first mapping failure
+     */
+    public <T> Resulted<List<T>> toList(@Nonnull Class<T> type)
+    {
+        List<T> rows = new ArrayList<>();
+
+        for (AtSQLResult result : results) {
+            Resulted<List<T>> resulted = result.toList(type);
+
+            if (resulted.notValid())
+                return resulted;
+
+            rows.addAll(resulted.value());
+        }
+
+        return Resulted.inValue(rows);
+    }
+
+    @Override
+    public void close()
+    {
+        for (AtSQLResult result : results)
+            result.close();
+    }
+}
@@ -65,6 +65,15 @@ public final class SkandersResult
     public static final Result WORKER_STATUS_WORKING;
     public static final Result WORKER_STATUS_STOPPED;
 
+    public static final Result WORKER_ALREADY_RUNNING;
+
+    public static final Result TASK_REJECTED;
+    public static final Result TASK_QUEUE_TIMEOUT;
+    public static final Result TASK_POOL_SHUTDOWN;
+    public static final Result TASK_CANCELLED;
+    public static final Result TASK_SKIPPED;
+    public static final Result TASK_TIMEOUT;
+
     static {
         /* Three Main Result Values */
         VALID      = Result.VALID;
@@ -110,5 +119,14 @@ public final class SkandersResult
         WORKER_STATUS_NONE    = Result.declare(220, "Worker is currently uninitialized.");
         WORKER_STATUS_WORKING = Result.declare(221, "Worker is currently working.");
         WORKER_STATUS_STOPPED = Result.declare(223, "Worker is currently stopped.");
+
+        WORKER_ALREADY_RUNNING = Result.declare(224, "Worker cannot Invoke, already running.");
+
+        TASK_REJECTED      = Result.declare(-230, "Task rejected, task queue is full", Status.SERVICE_UNAVAILABLE);
+        TASK_QUEUE_TIMEOUT = Result.declare(-231, "Task rejected, task queue still full after timeout", Status.SERVICE_UNAVAILABLE);
+        TASK_POOL_SHUTDOWN = Result.declare(-232, "Task rejected, task worker pool is shut down", Status.SERVICE_UNAVAILABLE);
+        TASK_CANCELLED     = Result.declare(-233, "Task cancelled before it ran", Status.SERVICE_UNAVAILABLE);
+        TASK_SKIPPED       = Result.declare(-234, "Task skipped, a task it depends on failed", Status.INTERNAL_SERVER_ERROR);
+        TASK_TIMEOUT       = Result.declare(-235, "Task did not complete in time", Status.GATEWAY_TIMEOUT);
     }
 }
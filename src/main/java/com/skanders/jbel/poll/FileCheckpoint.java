@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.poll;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.skanders.jbel.convert.Mapper;
+import com.skanders.jbel.def.LogPattern;
+import com.skanders.jbel.def.SkandersException;
+import com.skanders.jbel.def.Verify;
+import com.skanders.jbel.result.Result;
+import com.skanders.jbel.result.Resulted;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Persists poll marks into a local JSON file, one entry per poller name. The
+ * file is rewritten atomically on every save.
+ */
+public class FileCheckpoint implements PollCheckpoint
+{
+    private static final Logger LOG = LoggerFactory.getLogger(FileCheckpoint.class);
+
+    private static final TypeReference<TreeMap<String, PollMark>> MARKS_TYPE =
+            new TypeReference<TreeMap<String, PollMark>>() {};
+
+    private final Path                  path;
+    private final Path                  tempPath;
+    private final Map<String, PollMark> marks;
+
+    private FileCheckpoint(@Nonnull Path path)
+    {
+        Verify.notNull(path, "path cannot be null");
+
+        this.path     = path;
+        this.tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        this.marks    = read(path);
+    }
+
+    public static FileCheckpoint at(@Nonnull Path path)
+    {
+        return new FileCheckpoint(path);
+    }
+
+    private static Map<String, PollMark> read(Path path)
+    {
+        if (!Files.exists(path))
+            return new TreeMap<>();
+
+        try {
+            return Mapper.forJson().readValue(path.toFile(), MARKS_TYPE);
+
+        } catch (IOException e) {
+            LOG.error(LogPattern.EXIT_FAIL, "Read Poll Checkpoint", e.getClass(), e.getMessage());
+            throw new SkandersException("Poll checkpoint file is unreadable: " + path, e);
+
+        }
+    }
+
+    @Override
+    public synchronized Resulted<PollMark> load(@Nonnull String name)
+    {
+        return Resulted.inValue(marks.get(name));
+    }
+
+    @Override
+    public synchronized Result save(@Nonnull String name, @Nonnull PollMark mark)
+    {
+        marks.put(name, mark);
+
+        try {
+            Mapper.forJson().writeValue(tempPath.toFile(), marks);
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            return Result.VALID;
+
+        } catch (IOException e) {
+            LOG.error(LogPattern.EXIT_FAIL, "Save Poll Checkpoint", e.getClass(), e.getMessage());
+
+            return Result.exception(e);
+
+        }
+    }
+}
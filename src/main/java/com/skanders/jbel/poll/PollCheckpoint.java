@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.poll;
+
+import com.skanders.jbel.result.Result;
+import com.skanders.jbel.result.Resulted;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Persists the high-water mark of every table polled by a {@link TablePoller}.
+ *
+ * @see FileCheckpoint
+ * @see TableCheckpoint
+ */
+public interface PollCheckpoint
+{
+    /**
+     * @param name name of the poller
+     * @return the last saved mark, a Resulted of null if none was saved
+     */
+    Resulted<PollMark> load(@Nonnull String name);
+
+    /**
+     * @param name name of the poller
+     * @param mark mark of the last handled row
+     * @return Result.VALID once the mark is persisted
+     */
+    Result save(@Nonnull String name, @Nonnull PollMark mark);
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.poll;
+
+import com.skanders.jbel.result.Result;
+
+/**
+ * Handles a single row fetched by a {@link TablePoller}.
+ *
+ * @param <T> type rows are mapped into
+ */
+@FunctionalInterface
+public interface PollHandler<T>
+{
+    /**
+     * @param row the new or changed row
+     * @return Result.VALID if the row was handled, otherwise the page holding
+     * the row is fetched again on the next poll
+     */
+    Result handle(T row);
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.poll;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.skanders.jbel.def.SkandersException;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.Objects;
+
+/**
+ * High-water mark of a polled table: the mark column value of the last handled
+ * row and, when marks are not unique, its tie breaker value.
+ * <p>
+ * Values are kept as text along with their type so they survive being
+ * persisted and can be bound back into the poll query.
+ */
+public class PollMark
+{
+    private static final String LONG      = "long";
+    private static final String DECIMAL   = "decimal";
+    private static final String TIMESTAMP = "timestamp";
+    private static final String STRING    = "string";
+
+    @JsonProperty("mark")
+    private final String mark;
+    @JsonProperty("markType")
+    private final String markType;
+    @JsonProperty("tie")
+    private final String tie;
+    @JsonProperty("tieType")
+    private final String tieType;
+
+    @JsonCreator
+    PollMark(
+            @JsonProperty("mark") String mark,
+            @JsonProperty("markType") String markType,
+            @JsonProperty("tie") String tie,
+            @JsonProperty("tieType") String tieType)
+    {
+        this.mark     = mark;
+        this.markType = markType;
+        this.tie      = tie;
+        this.tieType  = tieType;
+    }
+
+    /**
+     * @param mark mark column value of the last handled row
+     * @param tie  tie breaker value of the last handled row, or null
+     * @return an instance of PollMark
+     */
+    public static PollMark of(Object mark, Object tie)
+    {
+        return new PollMark(text(mark), type(mark), text(tie), type(tie));
+    }
+
+    @JsonIgnore
+    public Object getMark()
+    {
+        return value(mark, markType);
+    }
+
+    @JsonIgnore
+    public Object getTie()
+    {
+        return value(tie, tieType);
+    }
+
+    String markText()
+    {
+        return mark;
+    }
+
+    String markType()
+    {
+        return markType;
+    }
+
+    String tieText()
+    {
+        return tie;
+    }
+
+    String tieType()
+    {
+        return tieType;
+    }
+
+    @JsonIgnore
+    public boolean hasTie()
+    {
+        return tie != null;
+    }
+
+    private static String type(Object value)
+    {
+        if (value == null)
+            return null;
+
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+            return LONG;
+
+        if (value instanceof Number)
+            return DECIMAL;
+
+        if (value instanceof Date)
+            return TIMESTAMP;
+
+        return STRING;
+    }
+
+    private static String text(Object value)
+    {
+        if (value == null)
+            return null;
+
+        // a Timestamp keeps its nanos, which its millisecond time would drop
+        if (value instanceof Timestamp)
+            return value.toString();
+
+        if (value instanceof Date)
+            return new Timestamp(((Date) value).getTime()).toString();
+
+        return value.toString();
+    }
+
+    private static Object value(String text, String type)
+    {
+        if (text == null)
+            return null;
+
+        switch (type) {
+            case LONG:
+                return Long.parseLong(text);
+            case DECIMAL:
+                return new BigDecimal(text);
+            case TIMESTAMP:
+                return Timestamp.valueOf(text);
+            case STRING:
+                return text;
+            default:
+                throw new SkandersException("Unknown poll mark type: " + type);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+            return true;
+
+        if (o == null || getClass() != o.getClass())
+            return false;
+
+        PollMark that = (PollMark) o;
+
+        return Objects.equals(mark, that.mark) &&
+                Objects.equals(markType, that.markType) &&
+                Objects.equals(tie, that.tie) &&
+                Objects.equals(tieType, that.tieType);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(mark, markType, tie, tieType);
+    }
+
+    @Override
+    public String toString()
+    {
+        return tie == null ? mark : mark + "/" + tie;
+    }
+}
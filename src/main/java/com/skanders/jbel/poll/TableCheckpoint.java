@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.poll;
+
+import com.skanders.jbel.atsql.AtSQL;
+import com.skanders.jbel.atsql.AtSQLResult;
+import com.skanders.jbel.def.Verify;
+import com.skanders.jbel.result.Result;
+import com.skanders.jbel.result.Resulted;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * Persists poll marks into a database table, which must already exist:
+ * <pre>
+ *     CREATE TABLE poll_checkpoint
+ *     (
+ *         name      VARCHAR(128) NOT NULL PRIMARY KEY,
+ *         mark      VARCHAR(64)  NOT NULL,
+ *         mark_type VARCHAR(16)  NOT NULL,
+ *         tie       VARCHAR(64)  NULL,
+ *         tie_type  VARCHAR(16)  NULL
+ *     );
+ * </pre>
+ */
+public class TableCheckpoint implements PollCheckpoint
+{
+    private final AtSQL  atSQL;
+    private final String selectQuery;
+    private final String updateQuery;
+    private final String insertQuery;
+
+    private TableCheckpoint(@Nonnull AtSQL atSQL, @Nonnull String table)
+    {
+        Verify.notNull(atSQL, "atSQL cannot be null");
+        Verify.notNull(table, "table cannot be null");
+
+        this.atSQL       = atSQL;
+        this.selectQuery = "SELECT mark, mark_type, tie, tie_type FROM " + table + " WHERE name = ?";
+        this.updateQuery = "UPDATE " + table + " SET mark = ?, mark_type = ?, tie = ?, tie_type = ? WHERE name = ?";
+        this.insertQuery = "INSERT INTO " + table + " (mark, mark_type, tie, tie_type, name) VALUES (?,?,?,?,?)";
+    }
+
+    public static TableCheckpoint create(@Nonnull AtSQL atSQL, @Nonnull String table)
+    {
+        return new TableCheckpoint(atSQL, table);
+    }
+
+    @Override
+    public Resulted<PollMark> load(@Nonnull String name)
+    {
+        Resulted<List<PollMark>> resulted = atSQL.createQuery(selectQuery)
+                .setList(name)
+                .executeQuery(PollMark.class);
+
+        if (resulted.notValid())
+            return Resulted.inResulted(resulted);
+
+        List<PollMark> marks = resulted.value();
+
+        return Resulted.inValue(marks.isEmpty() ? null : marks.get(0));
+    }
+
+    @Override
+    public Result save(@Nonnull String name, @Nonnull PollMark mark)
+    {
+        Object[] params = {mark.markText(), mark.markType(), mark.tieText(), mark.tieType(), name};
+
+        Resulted<Integer> updated = atSQL.createQuery(updateQuery)
+                .setList(params)
+                .executeUpdate();
+
+        if (updated.notValid() || updated.value() > 0)
+            return updated.result();
+
+        return atSQL.createQuery(insertQuery)
+                .setList(params)
+                .executeUpdate()
+                .result();
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.poll;
+
+import com.skanders.jbel.atsql.AtSQL;
+import com.skanders.jbel.atsql.AtSQLMapper;
+import com.skanders.jbel.atsql.AtSQLQuery;
+import com.skanders.jbel.atsql.AtSQLResult;
+import com.skanders.jbel.atsql.AtSQLRowMapper;
+import com.skanders.jbel.def.LogPattern;
+import com.skanders.jbel.def.Verify;
+import com.skanders.jbel.result.Result;
+import com.skanders.jbel.result.Resulted;
+import com.skanders.jbel.worker.CycleWorker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Incrementally polls a table for new or changed rows.
+ * <p>
+ * The poller keeps a high-water mark of the last handled row, its mark column
+ * (an auto increment id or an updated_at timestamp) and, when the mark column
+ * is not unique, a tie breaker column such as the primary key. Each poll
+ * fetches pages of rows past the mark in mark order, hands every row of a
+ * page to the {@link PollHandler} in parallel and only then advances and
+ * persists the mark, so rows are handled at least once.
+ * <p>
+ * Run through {@link #toCycleWorker()}, the poller keeps fetching pages while
+ * they come back full and backs its period off exponentially while the table
+ * is idle, polling somewhere between its min and max period.
+ *
+ * @param <T> type rows are mapped into, see {@link AtSQLMapper}
+ */
+public class TablePoller<T> implements Runnable, AutoCloseable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(TablePoller.class);
+
+    private static final int      DEFAULT_PAGE_SIZE   = 500;
+    private static final int      DEFAULT_PARALLELISM = 1;
+    private static final Duration DEFAULT_MIN_PERIOD  = Duration.ofSeconds(1);
+    private static final Duration DEFAULT_MAX_PERIOD  = Duration.ofMinutes(1);
+
+    private final AtSQL          atSQL;
+    private final String         table;
+    private final Class<T>       type;
+    private final PollHandler<T> handler;
+
+    private String         name;
+    private String         columns;
+    private String         markColumn;
+    private String         tieColumn;
+    private int            pageSize;
+    private int            parallelism;
+    private PollCheckpoint checkpoint;
+    private Duration       minPeriod;
+    private Duration       maxPeriod;
+
+    private ExecutorService dispatcher;
+    private PollMark        mark;
+    private boolean         markLoaded;
+
+    private TablePoller(
+            @Nonnull AtSQL atSQL, @Nonnull String table, @Nonnull Class<T> type, @Nonnull PollHandler<T> handler)
+    {
+        Verify.notNull(atSQL, "atSQL cannot be null");
+        Verify.notNull(table, "table cannot be null");
+        Verify.notNull(type, "type cannot be null");
+        Verify.notNull(handler, "handler cannot be null");
+
+        this.atSQL   = atSQL;
+        this.table   = table;
+        this.type    = type;
+        this.handler = handler;
+
+        this.name        = table;
+        this.columns     = "*";
+        this.markColumn  = "id";
+        this.tieColumn   = null;
+        this.pageSize    = DEFAULT_PAGE_SIZE;
+        this.parallelism = DEFAULT_PARALLELISM;
+        this.checkpoint  = null;
+        this.minPeriod   = DEFAULT_MIN_PERIOD;
+        this.maxPeriod   = DEFAULT_MAX_PERIOD;
+
+        this.markLoaded = false;
+    }
+
+    public static <T> TablePoller<T> create(
+            @Nonnull AtSQL atSQL, @Nonnull String table, @Nonnull Class<T> type, @Nonnull PollHandler<T> handler)
+    {
+        return new TablePoller<>(atSQL, table, type, handler);
+    }
+
+    /**
+     * @param name name the mark is checkpointed under, defaults to the table
+     * @return this instance of TablePoller
+     */
+    public TablePoller<T> withName(@Nonnull String name)
+    {
+        this.name = name;
+        return this;
+    }
+
+    /**
+     * @param columns comma separated columns to select, defaults to *
+     * @return this instance of TablePoller
+     */
+    public TablePoller<T> withColumns(@Nonnull String columns)
+    {
+        this.columns = columns;
+        return this;
+    }
+
+    /**
+     * @param markColumn increasing column rows are polled by, defaults to id
+     * @return this instance of TablePoller
+     */
+    public TablePoller<T> withMarkColumn(@Nonnull String markColumn)
+    {
+        this.markColumn = markColumn;
+        return this;
+    }
+
+    /**
+     * Required whenever the mark column is not unique, otherwise rows sharing a
+     * mark across two pages would be skipped.
+     *
+     * @param tieColumn unique column ordering rows sharing the same mark
+     * @return this instance of TablePoller
+     */
+    public TablePoller<T> withTieBreaker(@Nonnull String tieColumn)
+    {
+        this.tieColumn = tieColumn;
+        return this;
+    }
+
+    public TablePoller<T> withPageSize(int pageSize)
+    {
+        Verify.isTrue(pageSize > 0, "pageSize must be greater than 0");
+
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * @param parallelism number of rows of a page handled concurrently
+     * @return this instance of TablePoller
+     */
+    public TablePoller<T> withParallelism(int parallelism)
+    {
+        Verify.isTrue(parallelism > 0, "parallelism must be greater than 0");
+
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public TablePoller<T> withCheckpoint(@Nonnull PollCheckpoint checkpoint)
+    {
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
+    /**
+     * @param minPeriod period while the table keeps changing
+     * @param maxPeriod longest period the poller backs off to while idle
+     * @return this instance of TablePoller
+     */
+    public TablePoller<T> withPeriod(@Nonnull Duration minPeriod, @Nonnull Duration maxPeriod)
+    {
+        Verify.isTrue(minPeriod.compareTo(maxPeriod) <= 0, "minPeriod cannot be greater than maxPeriod");
+
+        this.minPeriod = minPeriod;
+        this.maxPeriod = maxPeriod;
+        return this;
+    }
+
+    /**
+     * @return an adaptive CycleWorker running this poller every min period
+     * while rows keep coming, backing off towards the max period when idle
+     */
+    public CycleWorker toCycleWorker()
+    {
+        return CycleWorker.createAdaptive(minPeriod, maxPeriod, this::pollCycle, "Table Poller " + name);
+    }
+
+    /**
+     * @return the mark of the last handled row, or null if none was handled
+     */
+    public synchronized PollMark getMark()
+    {
+        return mark;
+    }
+
+    /**
+     * A single poll cycle.
+     */
+    @Override
+    public void run()
+    {
+        pollCycle();
+    }
+
+    /**
+     * @return number of rows handled, 0 if the poll failed
+     */
+    private int pollCycle()
+    {
+        Resulted<Integer> resulted = poll();
+
+        if (resulted.notValid()) {
+            LOG.error("Table Poller {} failed with: {}", name, resulted.result().message());
+            return 0;
+        }
+
+        return resulted.value();
+    }
+
+    /**
+     * Fetches and handles pages of rows past the mark until a page comes back
+     * partially filled.
+     *
+     * @return a Resulted containing the number of rows handled
+     */
+    public synchronized Resulted<Integer> poll()
+    {
+        if (!markLoaded) {
+            Result loaded = loadMark();
+            if (loaded.notValid())
+                return Resulted.inResult(loaded);
+        }
+
+        int handled = 0;
+
+        while (true) {
+            Resulted<Page<T>> page = fetchPage();
+            if (page.notValid())
+                return Resulted.inResulted(page);
+
+            List<T> rows = page.value().rows;
+            if (rows.isEmpty())
+                break;
+
+            Result dispatched = dispatch(rows);
+            if (dispatched.notValid())
+                return Resulted.inResult(dispatched);
+
+            mark = page.value().last;
+
+            if (checkpoint != null) {
+                Result saved = checkpoint.save(name, mark);
+                if (saved.notValid())
+                    return Resulted.inResult(saved);
+            }
+
+            handled += rows.size();
+
+            if (rows.size() < pageSize)
+                break;
+        }
+
+        LOG.debug("Table Poller {} handled {} rows up to mark {}", name, handled, mark);
+
+        return Resulted.inValue(handled);
+    }
+
+    private Result loadMark()
+    {
+        if (checkpoint != null) {
+            Resulted<PollMark> loaded = checkpoint.load(name);
+            if (loaded.notValid())
+                return loaded.result();
+
+            mark = loaded.value();
+        }
+
+        markLoaded = true;
+
+        return Result.VALID;
+    }
+
+    private Resulted<Page<T>> fetchPage()
+    {
+        String order  = tieColumn == null ? markColumn : markColumn + ", " + tieColumn;
+        String select = "SELECT " + columns + " FROM " + table;
+
+        AtSQLQuery query;
+
+        if (mark == null) {
+            query = atSQL.createQuery(select + " ORDER BY " + order + " LIMIT ?")
+                    .setList(pageSize);
+
+        } else if (tieColumn == null) {
+            query = atSQL.createQuery(select + " WHERE " + markColumn + " > ? ORDER BY " + order + " LIMIT ?")
+                    .setList(mark.getMark(), pageSize);
+
+        } else {
+            query = atSQL.createQuery(select +
+                    " WHERE (" + markColumn + " > ? OR (" + markColumn + " = ? AND " + tieColumn + " > ?))" +
+                    " ORDER BY " + order + " LIMIT ?")
+                    .setList(mark.getMark(), mark.getMark(), mark.getTie(), pageSize);
+
+        }
+
+        try (Resulted<AtSQLResult> resulted = query.executeQuery()) {
+            if (resulted.notValid())
+                return Resulted.inResulted(resulted);
+
+            ResultSet         resultSet = resulted.value().getResultSet();
+            AtSQLRowMapper<T> mapper    = AtSQLMapper.forResultSet(type, resultSet);
+            Page<T>           page      = new Page<>(pageSize);
+
+            while (resultSet.next()) {
+                page.rows.add(mapper.map(resultSet));
+
+                Object tie = tieColumn == null ? null : resultSet.getObject(tieColumn);
+                page.last = PollMark.of(resultSet.getObject(markColumn), tie);
+            }
+
+            return Resulted.inValue(page);
+
+        } catch (SQLException e) {
+            LOG.error(LogPattern.EXIT_FAIL, "Table Poller Fetch", e.getClass(), e.getMessage());
+
+            return Resulted.inException(e);
+
+        }
+    }
+
+    private Result dispatch(List<T> rows)
+    {
+        if (parallelism == 1 || rows.size() == 1) {
+            for (T row : rows) {
+                Result result = handle(row);
+                if (result.notValid())
+                    return result;
+            }
+
+            return Result.VALID;
+        }
+
+        List<CompletableFuture<Result>> futures = new ArrayList<>(rows.size());
+
+        for (T row : rows)
+            futures.add(CompletableFuture.supplyAsync(() -> handle(row), dispatcher()));
+
+        Result failure = Result.VALID;
+
+        for (CompletableFuture<Result> future : futures) {
+            Result result = future.join();
+
+            if (result.notValid() && failure == Result.VALID)
+                failure = result;
+        }
+
+        return failure;
+    }
+
+    private Result handle(T row)
+    {
+        try {
+            return handler.handle(row);
+
+        } catch (RuntimeException e) {
+            LOG.error(LogPattern.EXIT_FAIL, "Table Poller Handler", e.getClass(), e.getMessage());
+
+            return Result.exception(e);
+
+        }
+    }
+
+    private ExecutorService dispatcher()
+    {
+        if (dispatcher == null) {
+            AtomicInteger count = new AtomicInteger();
+
+            dispatcher = Executors.newFixedThreadPool(parallelism, runnable -> {
+                Thread thread = new Thread(runnable, "Table Poller " + name + " [" + count.getAndIncrement() + "]");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        return dispatcher;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (dispatcher != null)
+            dispatcher.shutdown();
+    }
+
+    private static class Page<T>
+    {
+        private final List<T> rows;
+
+        private PollMark last;
+
+        Page(int pageSize)
+        {
+            this.rows = new ArrayList<>(pageSize);
+            this.last = null;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import java.time.Duration;
+import java.util.function.IntSupplier;
+
+/**
+ * Cycle function of an adaptive CycleWorker, reporting how much work each
+ * cycle found. The period drops to its minimum as soon as a cycle finds work
+ * and grows by the backoff multiplier after each idle cycle, up to its
+ * maximum.
+ */
+class AdaptivePeriod implements Runnable
+{
+    private final IntSupplier func;
+    private final Duration    minPeriod;
+    private final Duration    maxPeriod;
+
+    private volatile double backoff;
+    private volatile int    workFound;
+
+    AdaptivePeriod(IntSupplier func, Duration minPeriod, Duration maxPeriod, double backoff)
+    {
+        this.func      = func;
+        this.minPeriod = minPeriod;
+        this.maxPeriod = maxPeriod;
+
+        this.backoff   = backoff;
+        this.workFound = 0;
+    }
+
+    @Override
+    public void run()
+    {
+        workFound = 0;
+        workFound = func.getAsInt();
+    }
+
+    void setBackoff(double backoff)
+    {
+        this.backoff = backoff;
+    }
+
+    Duration getMinPeriod()
+    {
+        return minPeriod;
+    }
+
+    /**
+     * @return the period following a cycle run with the given period
+     */
+    Duration nextPeriod(Duration period)
+    {
+        if (workFound > 0)
+            return minPeriod;
+
+        long next = (long) Math.min(period.toNanos() * backoff, maxPeriod.toNanos());
+
+        return Duration.ofNanos(Math.max(next, minPeriod.toNanos()));
+    }
+}
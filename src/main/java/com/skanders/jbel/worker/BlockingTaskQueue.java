@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.worker.def.Task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Default engine, a single queue shared by every worker.
+ */
+class BlockingTaskQueue implements TaskQueue
+{
+    private final BlockingQueue<Task> taskQueue;
+
+    BlockingTaskQueue()
+    {
+        this.taskQueue = new LinkedBlockingQueue<>();
+    }
+
+    @Override
+    public boolean offer(Task task) throws InterruptedException
+    {
+        taskQueue.put(task);
+        return true;
+    }
+
+    @Override
+    public Task poll(int workerIndex, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return taskQueue.poll(timeout, unit);
+    }
+
+    /**
+     * Drains whatever is already queued in one go before waiting for more.
+     */
+    @Override
+    public int pollBatch(int workerIndex, Collection<Task> batch, int maxBatch, long fillNanos,
+                         long timeout, TimeUnit unit) throws InterruptedException
+    {
+        Task task = taskQueue.poll(timeout, unit);
+        if (task == null)
+            return 0;
+
+        batch.add(task);
+
+        int  taken    = 1 + taskQueue.drainTo(batch, maxBatch - 1);
+        long deadline = System.nanoTime() + fillNanos;
+
+        while (taken < maxBatch) {
+            task = taskQueue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (task == null)
+                break;
+
+            batch.add(task);
+            taken += 1 + taskQueue.drainTo(batch, maxBatch - taken - 1);
+        }
+
+        return taken;
+    }
+
+    @Override
+    public Task evict()
+    {
+        return taskQueue.poll();
+    }
+
+    @Override
+    public int size()
+    {
+        return taskQueue.size();
+    }
+
+    @Override
+    public List<Task> drain()
+    {
+        List<Task> drained = new ArrayList<>();
+        taskQueue.drainTo(drained);
+
+        return drained;
+    }
+}
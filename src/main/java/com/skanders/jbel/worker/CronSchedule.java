@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.def.SkandersException;
+import com.skanders.jbel.def.Verify;
+
+import javax.annotation.Nonnull;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Locale;
+
+/**
+ * Calendar schedule of a CycleWorker parsed from a cron expression, fire
+ * times being wall clock times of its time zone.
+ * <p>
+ * Expressions hold five fields, minute hour day-of-month month day-of-week,
+ * or six with a leading second field. Each field takes {@code *}, values,
+ * ranges {@code a-b}, steps {@code a/n} or {@code a-b/n}, {@code a} possibly
+ * being {@code *}, and comma separated lists of those. Months and days of week also take their three letter
+ * names, Sunday being 0 or 7. As with cron, a day matches either restricted
+ * day field when both are restricted. The macros {@code @yearly},
+ * {@code @monthly}, {@code @weekly}, {@code @daily} and {@code @hourly} are
+ * accepted as well.
+ * <p>
+ * Local times skipped by a daylight saving gap fire once right after the
+ * gap, and local times repeated by an overlap fire only once.
+ */
+public class CronSchedule
+{
+    private static final int SEARCH_YEARS = 10;
+
+    private static final String[] MONTH_NAMES = {
+            null, "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+    private static final String[] DAY_NAMES   = {"SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT", "SUN"};
+
+    private final String  expression;
+    private final ZoneId  zone;
+    private final long    seconds;
+    private final long    minutes;
+    private final long    hours;
+    private final long    daysOfMonth;
+    private final long    months;
+    private final long    daysOfWeek;
+    private final boolean anyDay;
+
+    private CronSchedule(@Nonnull String expression, @Nonnull ZoneId zone)
+    {
+        Verify.notNull(expression, "expression cannot be null");
+        Verify.notNull(zone, "zone cannot be null");
+
+        String[] fields = expand(expression.trim()).split("\\s+");
+        Verify.isTrue(fields.length == 5 || fields.length == 6,
+                "cron expression must have 5 or 6 fields: " + expression);
+
+        int offset = fields.length - 5;
+
+        this.expression  = expression;
+        this.zone        = zone;
+        this.seconds     = offset == 0 ? 1L : parseField(fields[0], 0, 59, null);
+        this.minutes     = parseField(fields[offset], 0, 59, null);
+        this.hours       = parseField(fields[offset + 1], 0, 23, null);
+        this.daysOfMonth = parseField(fields[offset + 2], 1, 31, null);
+        this.months      = parseField(fields[offset + 3], 1, 12, MONTH_NAMES);
+        this.anyDay      = isAny(fields[offset + 2]) || isAny(fields[offset + 4]);
+
+        long dow = parseField(fields[offset + 4], 0, 7, DAY_NAMES);
+        this.daysOfWeek = (dow | dow >>> 7) & 0x7F;
+
+        Verify.notNull(next(Instant.now()), "cron expression never fires: " + expression);
+    }
+
+    /**
+     * Parses a cron expression fired in the system default time zone.
+     */
+    public static CronSchedule parse(@Nonnull String expression)
+    {
+        return new CronSchedule(expression, ZoneId.systemDefault());
+    }
+
+    /**
+     * Parses a cron expression fired in the given time zone.
+     */
+    public static CronSchedule parse(@Nonnull String expression, @Nonnull ZoneId zone)
+    {
+        return new CronSchedule(expression, zone);
+    }
+
+    /**
+     * Finds the first fire time strictly after the given instant. Fields are
+     * matched from the month down to the second, each mismatch jumping
+     * straight to the next allowed value of its field.
+     *
+     * @return the next fire time, null if none within the next ten years
+     */
+    public Instant next(@Nonnull Instant after)
+    {
+        LocalDateTime time  = LocalDateTime.ofInstant(after, zone).withNano(0).plusSeconds(1);
+        LocalDateTime limit = time.plusYears(SEARCH_YEARS);
+
+        while (time.isBefore(limit)) {
+            int month = nextValue(months, time.getMonthValue());
+            if (month != time.getMonthValue()) {
+                time = month < 0
+                        ? LocalDate.of(time.getYear() + 1, 1, 1).atStartOfDay()
+                        : LocalDate.of(time.getYear(), month, 1).atStartOfDay();
+                continue;
+            }
+
+            if (!matchesDay(time.toLocalDate())) {
+                time = time.toLocalDate().plusDays(1).atStartOfDay();
+                continue;
+            }
+
+            int hour = nextValue(hours, time.getHour());
+            if (hour < 0) {
+                time = time.toLocalDate().plusDays(1).atStartOfDay();
+                continue;
+            }
+            if (hour != time.getHour())
+                time = time.withHour(hour).withMinute(0).withSecond(0);
+
+            int minute = nextValue(minutes, time.getMinute());
+            if (minute < 0) {
+                time = time.withMinute(0).withSecond(0).plusHours(1);
+                continue;
+            }
+            if (minute != time.getMinute())
+                time = time.withMinute(minute).withSecond(0);
+
+            int second = nextValue(seconds, time.getSecond());
+            if (second < 0) {
+                time = time.withSecond(0).plusMinutes(1);
+                continue;
+            }
+            time = time.withSecond(second);
+
+            Instant fire = ZonedDateTime.ofLocal(time, zone, null).toInstant();
+            if (fire.isAfter(after))
+                return fire;
+
+            time = time.plusSeconds(1);
+        }
+
+        return null;
+    }
+
+    public ZoneId getZone()
+    {
+        return zone;
+    }
+
+    public String getExpression()
+    {
+        return expression;
+    }
+
+    private boolean matchesDay(LocalDate date)
+    {
+        boolean dayOfMonth = (daysOfMonth >>> date.getDayOfMonth() & 1) != 0;
+        boolean dayOfWeek  = (daysOfWeek >>> date.getDayOfWeek().getValue() % 7 & 1) != 0;
+
+        return anyDay ? dayOfMonth && dayOfWeek : dayOfMonth || dayOfWeek;
+    }
+
+    /**
+     * @return the lowest value of the mask not below from, -1 if none
+     */
+    private static int nextValue(long mask, int from)
+    {
+        long remaining = mask >>> from;
+
+        return remaining == 0 ? -1 : from + Long.numberOfTrailingZeros(remaining);
+    }
+
+    private static boolean isAny(String field)
+    {
+        return field.equals("*") || field.equals("?");
+    }
+
+    private static String expand(String expression)
+    {
+        switch (expression.toLowerCase(Locale.ROOT)) {
+            case "@yearly":
+            case "@annually":
+                return "0 0 1 1 *";
+            case "@monthly":
+                return "0 0 1 * *";
+            case "@weekly":
+                return "0 0 * * 0";
+            case "@daily":
+            case "@midnight":
+                return "0 0 * * *";
+            case "@hourly":
+                return "0 * * * *";
+            default:
+                return expression;
+        }
+    }
+
+    private static long parseField(String field, int min, int max, String[] names)
+    {
+        long mask = 0;
+
+        for (String part : field.split(",")) {
+            String range = part;
+            int    step  = 1;
+
+            int slash = part.indexOf('/');
+            if (slash >= 0) {
+                range = part.substring(0, slash);
+                step  = parseValue(part.substring(slash + 1), null, field);
+                Verify.isTrue(step > 0, "cron step must be positive: " + field);
+            }
+
+            int low;
+            int high;
+
+            int dash = range.indexOf('-');
+            if (isAny(range)) {
+                low  = min;
+                high = max;
+            } else if (dash > 0) {
+                low  = parseValue(range.substring(0, dash), names, field);
+                high = parseValue(range.substring(dash + 1), names, field);
+            } else {
+                low  = parseValue(range, names, field);
+                high = slash >= 0 ? max : low;
+            }
+
+            Verify.isTrue(low >= min && high <= max && low <= high, "cron field out of range: " + field);
+
+            for (int value = low; value <= high; value += step)
+                mask |= 1L << value;
+        }
+
+        return mask;
+    }
+
+    private static int parseValue(String value, String[] names, String field)
+    {
+        if (names != null)
+            for (int i = 0; i < names.length; i++)
+                if (value.equalsIgnoreCase(names[i]))
+                    return i;
+
+        try {
+            return Integer.parseInt(value);
+
+        } catch (NumberFormatException e) {
+            throw new SkandersException("Invalid cron field: " + field, e);
+
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return expression + " " + zone;
+    }
+}
@@ -16,9 +16,11 @@
 
 package com.skanders.jbel.worker;
 
+import com.skanders.jbel.def.LogPattern;
 import com.skanders.jbel.def.SkandersResult;
 import com.skanders.jbel.def.Verify;
 import com.skanders.jbel.result.Result;
+import com.skanders.jbel.worker.def.CycleMode;
 import com.skanders.jbel.worker.def.WorkerState;
 import com.skanders.jbel.worker.request.CycleWorkerRequest;
 import org.slf4j.Logger;
@@ -26,11 +28,17 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntSupplier;
 
 public class CycleWorker
 {
@@ -38,40 +46,323 @@ public class CycleWorker
 
     private static final String DEFAULT_NAME = "Cycle Worker";
 
-    private static final Long    START_DELAY_NONE = 0L;
-    private static final Integer SINGLE_CORE_POOL = 1;
+    private static final Long    START_DELAY_NONE    = 0L;
+    private static final Integer INLINE_WORK_THREADS = 0;
+    private static final double  DEFAULT_BACKOFF     = 2.0;
+    private static final int     MAX_MISSED_FIRES    = 1000;
 
-    private final ScheduledExecutorService worker;
-    private final Runnable                 func;
-    private final String                   name;
+    private final WorkerScheduler    scheduler;
+    private final boolean            ownsScheduler;
+    private final Runnable           func;
+    private final String             name;
+    private final CycleWorkerMetrics metrics;
+    private final AtomicBoolean      running;
+    private final AdaptivePeriod     adaptivePeriod;
 
-    private Duration    cyclePeriod;
-    private WorkerState state;
-    private Future<?>   futureFunc;
+    private Duration         cyclePeriod;
+    private CycleMode        mode;
+    private long             maxJitterNanos;
+    private boolean          invokeGuard;
+    private ExecutorService  isolatedExecutor;
+    private WorkerTimeout    nextRun;
+    private long             nextRunNanos;
+    private long             jitterNanos;
+    private int              generation;
+    private CronSchedule     cron;
+    private ZoneId           alignZone;
+    private Duration         initialDelay;
+    private Instant          nextFire;
+    private LeaseCoordinator coordinator;
+    private String           leaseName;
 
-    private CycleWorker(@Nonnull Duration cyclePeriod, @Nonnull Runnable func, @Nonnull String name)
+    private volatile WorkerState state;
+    private volatile Thread      runner;
+
+    private CycleWorker(
+            @Nonnull WorkerScheduler scheduler, boolean ownsScheduler,
+            @Nonnull Duration cyclePeriod, @Nonnull Runnable func, @Nonnull String name)
     {
+        Verify.notNull(scheduler, "scheduler cannot be null");
         Verify.notNull(cyclePeriod, "cyclePeriod cannot be null");
         Verify.notNull(func, "func cannot be null");
         Verify.notNull(name, "name cannot be null");
 
-        this.worker = Executors.newScheduledThreadPool(SINGLE_CORE_POOL);
-        this.func   = func;
-        this.name   = name;
+        this.scheduler     = scheduler;
+        this.ownsScheduler = ownsScheduler;
+        this.func          = func;
+        this.name          = name;
+        this.metrics       = new CycleWorkerMetrics();
+        this.running       = new AtomicBoolean();
+
+        this.adaptivePeriod = func instanceof AdaptivePeriod ? (AdaptivePeriod) func : null;
 
-        this.cyclePeriod = cyclePeriod;
-        this.state       = WorkerState.NONE;
-        this.futureFunc  = null;
+        this.cyclePeriod      = cyclePeriod;
+        this.mode             = CycleMode.FIXED_RATE;
+        this.maxJitterNanos   = 0;
+        this.invokeGuard      = false;
+        this.isolatedExecutor = null;
+        this.nextRun          = null;
+        this.generation       = 0;
+        this.cron             = null;
+        this.alignZone        = null;
+        this.initialDelay     = Duration.ofMillis(START_DELAY_NONE);
+        this.nextFire         = null;
+        this.coordinator      = null;
+        this.leaseName        = null;
+        this.state            = WorkerState.NONE;
+        this.runner           = null;
     }
 
+    /**
+     * Creates a CycleWorker with its own single threaded scheduler.
+     */
     public static CycleWorker create(@Nonnull Duration cyclePeriod, @Nonnull Runnable func, @Nonnull String name)
     {
-        return new CycleWorker(cyclePeriod, func, name);
+        return new CycleWorker(WorkerScheduler.create(name, INLINE_WORK_THREADS), true, cyclePeriod, func, name);
     }
 
+    /**
+     * Creates a CycleWorker with its own single threaded scheduler.
+     */
     public static CycleWorker create(@Nonnull Duration cyclePeriod, @Nonnull Runnable func)
     {
-        return new CycleWorker(cyclePeriod, func, DEFAULT_NAME);
+        return create(cyclePeriod, func, DEFAULT_NAME);
+    }
+
+    /**
+     * Creates a CycleWorker sharing the scheduler of the given pool and adds
+     * it to the pool.
+     *
+     * @see CycleWorkerPool#getScheduler()
+     */
+    public static CycleWorker create(
+            @Nonnull CycleWorkerPool pool, @Nonnull Duration cyclePeriod, @Nonnull Runnable func, @Nonnull String name)
+    {
+        Verify.notNull(pool, "pool cannot be null");
+
+        CycleWorker cycleWorker = new CycleWorker(pool.getScheduler(), false, cyclePeriod, func, name);
+        pool.add(cycleWorker);
+
+        return cycleWorker;
+    }
+
+    /**
+     * Creates a CycleWorker firing at the wall clock times of the given cron
+     * schedule, with its own single threaded scheduler.
+     */
+    public static CycleWorker create(@Nonnull CronSchedule cron, @Nonnull Runnable func, @Nonnull String name)
+    {
+        Verify.notNull(cron, "cron cannot be null");
+
+        CycleWorker cycleWorker = create(Duration.ZERO, func, name);
+        cycleWorker.cron = cron;
+
+        return cycleWorker;
+    }
+
+    /**
+     * Creates a CycleWorker firing at the wall clock times of the given cron
+     * schedule, sharing the scheduler of the given pool, and adds it to the
+     * pool. Each worker keeps a single entry in the timing wheel, its next
+     * fire time being computed once per run.
+     */
+    public static CycleWorker create(
+            @Nonnull CycleWorkerPool pool, @Nonnull CronSchedule cron, @Nonnull Runnable func, @Nonnull String name)
+    {
+        Verify.notNull(cron, "cron cannot be null");
+
+        CycleWorker cycleWorker = create(pool, Duration.ZERO, func, name);
+        cycleWorker.cron = cron;
+
+        return cycleWorker;
+    }
+
+    /**
+     * Creates a CycleWorker adjusting its own period to the work it finds,
+     * with its own single threaded scheduler.
+     *
+     * @param minPeriod period while cycles keep finding work
+     * @param maxPeriod longest period the worker backs off to while idle
+     * @param func      cycle function returning how much work it found
+     * @see #withBackoff(double)
+     */
+    public static CycleWorker createAdaptive(
+            @Nonnull Duration minPeriod, @Nonnull Duration maxPeriod, @Nonnull IntSupplier func, @Nonnull String name)
+    {
+        return create(minPeriod, newAdaptivePeriod(minPeriod, maxPeriod, func), name);
+    }
+
+    /**
+     * Creates a CycleWorker adjusting its own period to the work it finds,
+     * sharing the scheduler of the given pool, and adds it to the pool.
+     *
+     * @see #createAdaptive(Duration, Duration, IntSupplier, String)
+     */
+    public static CycleWorker createAdaptive(
+            @Nonnull CycleWorkerPool pool, @Nonnull Duration minPeriod, @Nonnull Duration maxPeriod,
+            @Nonnull IntSupplier func, @Nonnull String name)
+    {
+        return create(pool, minPeriod, newAdaptivePeriod(minPeriod, maxPeriod, func), name);
+    }
+
+    private static AdaptivePeriod newAdaptivePeriod(Duration minPeriod, Duration maxPeriod, IntSupplier func)
+    {
+        Verify.notNull(minPeriod, "minPeriod cannot be null");
+        Verify.notNull(maxPeriod, "maxPeriod cannot be null");
+        Verify.notNull(func, "func cannot be null");
+        Verify.isTrue(!minPeriod.isNegative() && !minPeriod.isZero(), "minPeriod must be positive");
+        Verify.isTrue(minPeriod.compareTo(maxPeriod) <= 0, "minPeriod cannot be greater than maxPeriod");
+
+        return new AdaptivePeriod(func, minPeriod, maxPeriod, DEFAULT_BACKOFF);
+    }
+
+    /**
+     * @param backoff multiplier applied to the period of an adaptive worker
+     *                after each idle cycle, 2 by default
+     * @return this instance of CycleWorker
+     */
+    public CycleWorker withBackoff(double backoff)
+    {
+        Verify.notNull(adaptivePeriod, "Backoff requires an adaptive CycleWorker");
+        Verify.isTrue(backoff >= 1, "backoff cannot be lower than 1");
+
+        adaptivePeriod.setBackoff(backoff);
+
+        return this;
+    }
+
+    /**
+     * Runs this worker on a dedicated thread rather than the work threads of
+     * its shared scheduler, isolating it from slow or busy neighbours. Timing
+     * is still kept by the shared scheduler.
+     *
+     * @return this instance of CycleWorker
+     */
+    public synchronized CycleWorker withIsolation()
+    {
+        if (isolatedExecutor == null)
+            isolatedExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+
+        return this;
+    }
+
+    /**
+     * Runs each cycle of this worker on a new virtual thread, timing still
+     * being kept by its scheduler. Suits cycles spending most of their time
+     * blocked on I/O. JDKs older than 21 fall back to platform threads.
+     *
+     * @return this instance of CycleWorker
+     */
+    public synchronized CycleWorker withVirtualThreads()
+    {
+        if (isolatedExecutor != null)
+            isolatedExecutor.shutdown();
+
+        isolatedExecutor = VirtualThreads.newExecutor(name);
+
+        return this;
+    }
+
+    /**
+     * @param mode how the next run is scheduled, FIXED_RATE by default
+     * @return this instance of CycleWorker
+     */
+    public synchronized CycleWorker withMode(@Nonnull CycleMode mode)
+    {
+        Verify.notNull(mode, "mode cannot be null");
+
+        this.mode = mode;
+
+        return this;
+    }
+
+    /**
+     * Delays each run by a random amount up to maxJitter without shifting the
+     * schedule, spreading the load of workers sharing the same period across
+     * instances.
+     *
+     * @param maxJitter upper bound of the random delay
+     * @return this instance of CycleWorker
+     */
+    public synchronized CycleWorker withJitter(@Nonnull Duration maxJitter)
+    {
+        Verify.notNull(maxJitter, "maxJitter cannot be null");
+        Verify.notTrue(maxJitter.isNegative(), "maxJitter cannot be negative");
+
+        this.maxJitterNanos = maxJitter.toNanos();
+
+        return this;
+    }
+
+    /**
+     * Never runs the function concurrently with itself: an invoke while a run
+     * is running is refused, and a scheduled run finding an invoked run still
+     * running is skipped.
+     *
+     * @return this instance of CycleWorker
+     */
+    public synchronized CycleWorker withInvokeGuard()
+    {
+        this.invokeGuard = true;
+
+        return this;
+    }
+
+    /**
+     * Aligns runs on wall clock multiples of the period counted from local
+     * midnight in the given zone, a 15 minute period running at :00, :15,
+     * :30 and :45 whenever the worker was started.
+     *
+     * @return this instance of CycleWorker
+     */
+    public synchronized CycleWorker withAlignment(@Nonnull ZoneId zone)
+    {
+        Verify.notNull(zone, "zone cannot be null");
+        Verify.isTrue(cron == null, "Alignment cannot be applied to a cron CycleWorker");
+        Verify.isTrue(adaptivePeriod == null, "Alignment cannot be applied to an adaptive CycleWorker");
+        Verify.isTrue(!cyclePeriod.isNegative() && !cyclePeriod.isZero(), "Alignment requires a positive period");
+
+        this.alignZone = zone;
+
+        return this;
+    }
+
+    /**
+     * @param initialDelay delay before the first run after each start, an
+     *                     aligned or cron worker firing at its first time
+     *                     after the delay, none by default
+     * @return this instance of CycleWorker
+     */
+    public synchronized CycleWorker withInitialDelay(@Nonnull Duration initialDelay)
+    {
+        Verify.notNull(initialDelay, "initialDelay cannot be null");
+        Verify.notTrue(initialDelay.isNegative(), "initialDelay cannot be negative");
+
+        this.initialDelay = initialDelay;
+
+        return this;
+    }
+
+    /**
+     * Runs scheduled cycles only while the coordinator holds the named lease,
+     * so a single instance of the fleet runs this worker. Cycles of other
+     * instances are counted as skipped, invokes are left unguarded.
+     *
+     * @return this instance of CycleWorker
+     */
+    public synchronized CycleWorker withLeader(@Nonnull LeaseCoordinator coordinator, @Nonnull String leaseName)
+    {
+        Verify.notNull(coordinator, "coordinator cannot be null");
+        Verify.notNull(leaseName, "leaseName cannot be null");
+
+        this.coordinator = coordinator.withLease(leaseName);
+        this.leaseName   = leaseName;
+
+        return this;
     }
 
     public Result handler(CycleWorkerRequest request)
@@ -93,7 +384,7 @@ public class CycleWorker
         }
     }
 
-    public Result start()
+    public synchronized Result start()
     {
         switch (state) {
             case NONE:
@@ -110,7 +401,7 @@ public class CycleWorker
         }
     }
 
-    public Result stop()
+    public synchronized Result stop()
     {
         switch (state) {
             case NONE:
@@ -126,12 +417,15 @@ public class CycleWorker
         }
     }
 
-    public Result invoke()
+    public synchronized Result invoke()
     {
         switch (state) {
             case NONE:
                 return SkandersResult.WORKER_HAS_NOT_STARTED;
             case WORKING:
+                if (invokeGuard && running.get())
+                    return SkandersResult.WORKER_ALREADY_RUNNING;
+
                 invokeWorker();
                 return SkandersResult.WORKER_INVOKED;
             case STOPPED:
@@ -142,20 +436,20 @@ public class CycleWorker
         }
     }
 
-    public Result updatePeriod(Duration duration)
+    public synchronized Result updatePeriod(Duration duration)
     {
         switch (state) {
             case NONE:
-                this.cyclePeriod = duration;
+                setPeriod(duration);
                 startWorker();
                 return SkandersResult.WORKER_STARTED_DURATION;
             case WORKING:
                 stopWorker();
-                this.cyclePeriod = duration;
+                setPeriod(duration);
                 startWorker();
                 return SkandersResult.WORKER_RESTARTED_DURATION;
             case STOPPED:
-                this.cyclePeriod = duration;
+                setPeriod(duration);
                 startWorker();
                 return SkandersResult.WORKER_RESTARTED_DURATION;
             default:
@@ -164,6 +458,12 @@ public class CycleWorker
         }
     }
 
+    private void setPeriod(Duration duration)
+    {
+        this.cyclePeriod = duration;
+        this.cron        = null;
+    }
+
     public Result getStatus()
     {
         switch (state) {
@@ -189,21 +489,286 @@ public class CycleWorker
         return name;
     }
 
+    /**
+     * @return the current period, adjusted after each cycle if adaptive,
+     * zero for a cron worker
+     */
+    public synchronized Duration getPeriod()
+    {
+        return cyclePeriod;
+    }
+
+    /**
+     * @return the cron schedule of this worker, null if periodic
+     */
+    public synchronized CronSchedule getCron()
+    {
+        return cron;
+    }
+
+    public CycleWorkerMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Stops this worker and releases its threads, a shared scheduler being
+     * left to its pool.
+     */
+    public synchronized void shutdown()
+    {
+        if (state == WorkerState.WORKING)
+            stopWorker();
+
+        if (ownsScheduler)
+            scheduler.shutdown();
+
+        if (isolatedExecutor != null)
+            isolatedExecutor.shutdown();
+    }
+
     private void startWorker()
     {
-        futureFunc = worker.scheduleAtFixedRate(func, START_DELAY_NONE, cyclePeriod.toMillis(), TimeUnit.MILLISECONDS);
-        this.state = WorkerState.WORKING;
+        generation++;
+
+        this.nextRunNanos = System.nanoTime() + initialDelay.toNanos();
+        this.state        = WorkerState.WORKING;
+
+        if (isCalendar()) {
+            nextFire     = nextFire(Instant.now().plus(initialDelay));
+            nextRunNanos = nanosUntil(nextFire);
+        }
+
+        scheduleRun(generation);
     }
 
     private void stopWorker()
     {
-        futureFunc.cancel(true);
+        generation++;
+
+        if (nextRun != null)
+            nextRun.cancel();
+
+        Thread current = runner;
+        if (current != null)
+            current.interrupt();
+
         this.state = WorkerState.STOPPED;
     }
 
     private void invokeWorker()
     {
-        worker.execute(func);
+        Runnable invoked = invokeGuard ? this::runGuarded : this::runInvoked;
+
+        if (isolatedExecutor != null)
+            isolatedExecutor.execute(invoked);
+        else
+            scheduler.execute(invoked);
+    }
+
+    private void runInvoked()
+    {
+        if (running.getAndSet(true))
+            metrics.recordOverlap();
+
+        try {
+            func.run();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void runGuarded()
+    {
+        if (!running.compareAndSet(false, true)) {
+            metrics.recordSkipped(1);
+            return;
+        }
+
+        try {
+            func.run();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void scheduleRun(int runGeneration)
+    {
+        jitterNanos = maxJitterNanos > 0 ? ThreadLocalRandom.current().nextLong(maxJitterNanos) : 0;
+
+        long delay = nextRunNanos + jitterNanos - System.nanoTime();
+
+        nextRun = scheduler.schedule(() -> runCycle(runGeneration), delay, TimeUnit.NANOSECONDS, isolatedExecutor);
+    }
+
+    /**
+     * Runs a scheduled cycle then schedules the next one according to the
+     * mode, so only one cycle of this worker is ever pending.
+     */
+    private void runCycle(int runGeneration)
+    {
+        long scheduled;
+
+        synchronized (this) {
+            if (state != WorkerState.WORKING || runGeneration != generation)
+                return;
+
+            if (coordinator != null && !coordinator.isLeader(leaseName)) {
+                metrics.recordSkipped(1);
+                scheduleNext(runGeneration);
+                return;
+            }
+
+            if (running.getAndSet(true)) {
+                if (invokeGuard) {
+                    metrics.recordSkipped(1);
+                    scheduleNext(runGeneration);
+                    return;
+                }
+
+                metrics.recordOverlap();
+            }
+
+            runner    = Thread.currentThread();
+            scheduled = nextRunNanos + jitterNanos;
+        }
+
+        long    start  = System.nanoTime();
+        boolean failed = false;
+
+        try {
+            func.run();
+
+        } catch (RuntimeException e) {
+            LOG.error(LogPattern.EXIT_FAIL, name + " Cycle", e.getClass(), e.getMessage());
+            failed = true;
+
+        } finally {
+            metrics.recordRun(start - scheduled, System.nanoTime() - start, failed);
+
+            synchronized (this) {
+                runner = null;
+                running.set(false);
+                Thread.interrupted();
+
+                scheduleNext(runGeneration);
+            }
+        }
+    }
+
+    private void scheduleNext(int runGeneration)
+    {
+        if (state != WorkerState.WORKING || runGeneration != generation)
+            return;
+
+        if (isCalendar()) {
+            scheduleNextFire(runGeneration);
+            return;
+        }
+
+        if (adaptivePeriod != null)
+            cyclePeriod = adaptivePeriod.nextPeriod(cyclePeriod);
+
+        long period = cyclePeriod.toNanos();
+        long now    = System.nanoTime();
+        long next   = nextRunNanos + period;
+        long missed = next < now ? (now - next) / period + 1 : 0;
+
+        switch (mode) {
+            case FIXED_DELAY:
+                next = now + period;
+                break;
+
+            case SKIP_IF_RUNNING:
+                next += missed * period;
+                metrics.recordSkipped(missed);
+                break;
+
+            case COALESCE_MISSED:
+                if (missed > 0) {
+                    next = now;
+                    metrics.recordSkipped(missed - 1);
+                }
+                break;
+
+            default:
+                break;
+        }
+
+        nextRunNanos = next;
+        scheduleRun(runGeneration);
+    }
+
+    /**
+     * Schedules the next wall clock fire time of a cron or aligned worker,
+     * recomputed from the clock on every run so the schedule never drifts
+     * and follows daylight saving changes.
+     */
+    private void scheduleNextFire(int runGeneration)
+    {
+        Instant now    = Instant.now();
+        Instant first  = nextFire(nextFire);
+        Instant next   = first;
+        long    missed = 0;
+
+        while (!next.isAfter(now) && missed < MAX_MISSED_FIRES) {
+            next = nextFire(next);
+            missed++;
+        }
+
+        switch (mode) {
+            case FIXED_RATE:
+                next = first;
+                break;
+
+            case SKIP_IF_RUNNING:
+                metrics.recordSkipped(missed);
+                break;
+
+            case COALESCE_MISSED:
+                if (missed > 0) {
+                    next = now;
+                    metrics.recordSkipped(missed - 1);
+                }
+                break;
+
+            default:
+                break;
+        }
+
+        nextFire     = next;
+        nextRunNanos = nanosUntil(next);
+        scheduleRun(runGeneration);
+    }
+
+    private boolean isCalendar()
+    {
+        return cron != null || alignZone != null;
+    }
+
+    private Instant nextFire(Instant after)
+    {
+        if (cron != null)
+            return cron.next(after);
+
+        LocalDateTime local    = LocalDateTime.ofInstant(after, alignZone);
+        LocalDateTime midnight = local.toLocalDate().atStartOfDay();
+
+        long period  = cyclePeriod.toNanos();
+        long elapsed = Duration.between(midnight, local).toNanos();
+
+        LocalDateTime aligned = midnight.plusNanos((elapsed / period + 1) * period);
+        if (aligned.isAfter(midnight.plusDays(1)))
+            aligned = midnight.plusDays(1);
+
+        Instant fire = ZonedDateTime.ofLocal(aligned, alignZone, null).toInstant();
+
+        return fire.isAfter(after) ? fire : nextFire(fire);
+    }
+
+    private static long nanosUntil(Instant fire)
+    {
+        return System.nanoTime() + Duration.between(Instant.now(), fire).toNanos();
     }
 
     @Override
@@ -212,16 +777,16 @@ public class CycleWorker
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         CycleWorker that = (CycleWorker) o;
-        return worker.equals(that.worker) &&
+        return scheduler.equals(that.scheduler) &&
                 func.equals(that.func) &&
                 name.equals(that.name) &&
                 cyclePeriod.equals(that.cyclePeriod) &&
                 state == that.state &&
-                Objects.equals(futureFunc, that.futureFunc);
+                Objects.equals(nextRun, that.nextRun);
     }
     @Override
     public int hashCode()
     {
-        return Objects.hash(worker, func, name, cyclePeriod, state, futureFunc);
+        return Objects.hash(scheduler, func, name, cyclePeriod, state, nextRun);
     }
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.skanders.jbel.convert.Mapper;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a {@link CycleWorker}: run duration, drift of each run from its
+ * schedule, failed runs, runs overlapping a running cycle and runs skipped.
+ */
+public class CycleWorkerMetrics
+{
+    private final LatencyHistogram runDuration;
+    private final LatencyHistogram drift;
+    private final LongAdder        runs;
+    private final LongAdder        failures;
+    private final LongAdder        overlaps;
+    private final LongAdder        skipped;
+
+    CycleWorkerMetrics()
+    {
+        this.runDuration = new LatencyHistogram();
+        this.drift       = new LatencyHistogram();
+        this.runs        = new LongAdder();
+        this.failures    = new LongAdder();
+        this.overlaps    = new LongAdder();
+        this.skipped     = new LongAdder();
+    }
+
+    void recordRun(long driftNanos, long durationNanos, boolean failed)
+    {
+        runs.increment();
+        drift.record(driftNanos);
+        runDuration.record(durationNanos);
+
+        if (failed)
+            failures.increment();
+    }
+
+    void recordOverlap()
+    {
+        overlaps.increment();
+    }
+
+    void recordSkipped(long count)
+    {
+        if (count > 0)
+            skipped.add(count);
+    }
+
+    public LatencyHistogram getRunDuration()
+    {
+        return runDuration;
+    }
+
+    /**
+     * @return how late each run started compared to its schedule
+     */
+    public LatencyHistogram getDrift()
+    {
+        return drift;
+    }
+
+    public long getRunCount()
+    {
+        return runs.sum();
+    }
+
+    public long getFailureCount()
+    {
+        return failures.sum();
+    }
+
+    /**
+     * @return runs started while another run of the same worker was running
+     */
+    public long getOverlapCount()
+    {
+        return overlaps.sum();
+    }
+
+    /**
+     * @return scheduled runs that were not run
+     */
+    public long getSkippedCount()
+    {
+        return skipped.sum();
+    }
+
+    public ObjectNode toJson()
+    {
+        ObjectNode node = Mapper.newNode();
+
+        node.put("runs", getRunCount());
+        node.put("failures", getFailureCount());
+        node.put("overlaps", getOverlapCount());
+        node.put("skipped", getSkippedCount());
+
+        node.set("runDuration", runDuration.toJson());
+        node.set("drift", drift.toJson());
+
+        return node;
+    }
+}
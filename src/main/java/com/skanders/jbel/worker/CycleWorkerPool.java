@@ -19,14 +19,46 @@ package com.skanders.jbel.worker;
 import com.skanders.jbel.worker.def.WorkerStatus;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * Groups CycleWorkers for status reporting and owns the {@link
+ * WorkerScheduler} shared by the workers created through {@link
+ * CycleWorker#create(CycleWorkerPool, java.time.Duration, Runnable, String)}.
+ * <p>
+ * The scheduler uses a single timer thread and a fixed number of work
+ * threads however many workers share it. Each worker has at most one cycle
+ * pending at a time, so a busy worker cannot flood the work threads, and
+ * workers needing their own thread can still opt into {@link
+ * CycleWorker#withIsolation()}.
+ */
 public class CycleWorkerPool
 {
-    private ArrayList<CycleWorker> cycleWorkers;
+    private static final String DEFAULT_NAME = "Cycle Worker Pool";
+
+    private final List<CycleWorker> cycleWorkers;
+    private final String            name;
+    private final int               workThreads;
+
+    private WorkerScheduler scheduler;
 
     public CycleWorkerPool()
     {
-        this.cycleWorkers = new ArrayList<>();
+        this(DEFAULT_NAME, Runtime.getRuntime().availableProcessors());
+    }
+
+    public CycleWorkerPool(String name, int workThreads)
+    {
+        this.cycleWorkers = new CopyOnWriteArrayList<>();
+        this.name         = name;
+        this.workThreads  = workThreads;
+        this.scheduler    = null;
+    }
+
+    public static CycleWorkerPool create(String name, int workThreads)
+    {
+        return new CycleWorkerPool(name, workThreads);
     }
 
     public void add(CycleWorker cycleWorker)
@@ -34,6 +66,17 @@ public class CycleWorkerPool
         cycleWorkers.add(cycleWorker);
     }
 
+    /**
+     * @return the scheduler shared by this pool's workers, started on first use
+     */
+    public synchronized WorkerScheduler getScheduler()
+    {
+        if (scheduler == null)
+            scheduler = WorkerScheduler.create(name, workThreads);
+
+        return scheduler;
+    }
+
     public WorkerStatus[] getStatuses()
     {
         ArrayList<WorkerStatus> workerStatuses = new ArrayList<>();
@@ -43,4 +86,16 @@ public class CycleWorkerPool
 
         return workerStatuses.toArray(new WorkerStatus[]{});
     }
+
+    /**
+     * Shuts down every worker of this pool along with the shared scheduler.
+     */
+    public synchronized void shutdown()
+    {
+        for (CycleWorker cw : cycleWorkers)
+            cw.shutdown();
+
+        if (scheduler != null)
+            scheduler.shutdown();
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.result.Result;
+import com.skanders.jbel.worker.def.Task;
+
+import java.time.Instant;
+
+/**
+ * A task given up on by a TaskWorkerPool, along with the Result of its last
+ * attempt.
+ */
+public class DeadLetter
+{
+    private final Task    task;
+    private final Result  result;
+    private final int     attempts;
+    private final Instant failedAt;
+
+    DeadLetter(Task task, Result result, int attempts)
+    {
+        this.task     = task;
+        this.result   = result;
+        this.attempts = attempts;
+        this.failedAt = Instant.now();
+    }
+
+    public Task getTask()
+    {
+        return task;
+    }
+
+    /**
+     * @return Result of the last attempt
+     */
+    public Result getResult()
+    {
+        return result;
+    }
+
+    public int getAttempts()
+    {
+        return attempts;
+    }
+
+    public Instant getFailedAt()
+    {
+        return failedAt;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DeadLetter{" +
+                "task=" + task +
+                ", result=" + result +
+                ", attempts=" + attempts +
+                ", failedAt=" + failedAt +
+                '}';
+    }
+}
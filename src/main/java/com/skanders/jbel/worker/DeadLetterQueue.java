@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.worker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded queue of the tasks a TaskWorkerPool gave up on, kept for
+ * inspection or for putting back once the cause is fixed. Once full, the
+ * oldest dead letter is dropped for the newest.
+ */
+public class DeadLetterQueue
+{
+    private static final Logger LOG = LoggerFactory.getLogger(DeadLetterQueue.class);
+
+    private final int                    capacity;
+    private final ArrayDeque<DeadLetter> letters;
+    private final LongAdder              droppedCount;
+
+    DeadLetterQueue(int capacity)
+    {
+        this.capacity     = capacity;
+        this.letters      = new ArrayDeque<>();
+        this.droppedCount = new LongAdder();
+    }
+
+    synchronized void add(DeadLetter letter)
+    {
+        LOG.warn("Task given up on after {} attempts: {}", letter.getAttempts(), letter);
+
+        if (capacity == 0) {
+            droppedCount.increment();
+            return;
+        }
+
+        if (letters.size() == capacity) {
+            letters.pollFirst();
+            droppedCount.increment();
+        }
+
+        letters.addLast(letter);
+    }
+
+    /**
+     * @return the dead letters held, oldest first
+     */
+    public synchronized List<DeadLetter> getDeadLetters()
+    {
+        return new ArrayList<>(letters);
+    }
+
+    /**
+     * @return the dead letters held, oldest first, removed from the queue
+     */
+    public synchronized List<DeadLetter> drain()
+    {
+        List<DeadLetter> drained = new ArrayList<>(letters);
+        letters.clear();
+
+        return drained;
+    }
+
+    public synchronized int size()
+    {
+        return letters.size();
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * @return number of dead letters dropped for lack of room
+     */
+    public long getDroppedCount()
+    {
+        return droppedCount.sum();
+    }
+}
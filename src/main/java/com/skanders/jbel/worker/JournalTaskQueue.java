@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.def.LogPattern;
+import com.skanders.jbel.def.SkandersException;
+import com.skanders.jbel.worker.def.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journals every {@link Serializable} task before queueing it into another
+ * engine, acking it once the pool reports it completed. Tasks left unacked by
+ * a previous run are queued again on creation. Tasks that are not
+ * Serializable are queued without being journaled.
+ */
+class JournalTaskQueue implements TaskQueue
+{
+    private static final Logger LOG = LoggerFactory.getLogger(JournalTaskQueue.class);
+
+    private final TaskQueue                   engine;
+    private final TaskJournal                 journal;
+    private final Map<Task, ArrayDeque<Long>> journaled;
+
+    JournalTaskQueue(TaskQueue engine, TaskJournal journal)
+    {
+        this.engine    = engine;
+        this.journal   = journal;
+        this.journaled = new IdentityHashMap<>();
+
+        try {
+            for (Map.Entry<Long, Task> entry : journal.recover().entrySet()) {
+                track(entry.getValue(), entry.getKey());
+                engine.offer(entry.getValue());
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SkandersException("Interrupted while replaying the task journal", e);
+
+        }
+    }
+
+    @Override
+    public boolean offer(Task task) throws InterruptedException
+    {
+        if (!record(task))
+            return false;
+
+        return engine.offer(task) || rejected(task);
+    }
+
+    /**
+     * Journals every task in a single group commit. Tasks which could not be
+     * journaled are not queued, and tasks the engine rejects are acked.
+     */
+    @Override
+    public List<Task> offerAll(Collection<? extends Task> tasks) throws InterruptedException
+    {
+        List<Task>   durable  = new ArrayList<>(tasks.size());
+        List<Task>   wrapped  = new ArrayList<>(tasks.size());
+        List<byte[]> payloads = new ArrayList<>(tasks.size());
+        List<Task>   queued   = new ArrayList<>(tasks.size());
+        List<Task>   rejected = new ArrayList<>();
+
+        for (Task task : tasks) {
+            Task unwrapped = TimedTask.unwrap(task);
+
+            if (task instanceof RequeuedTask || !(unwrapped instanceof Serializable)) {
+                queued.add(task);
+                continue;
+            }
+
+            byte[] payload = serialize(unwrapped);
+
+            if (payload == null) {
+                rejected.add(task);
+                continue;
+            }
+
+            durable.add(unwrapped);
+            wrapped.add(task);
+            payloads.add(payload);
+        }
+
+        if (put(durable, payloads))
+            queued.addAll(wrapped);
+        else
+            rejected.addAll(wrapped);
+
+        for (Task task : engine.offerAll(queued)) {
+            rejected(task);
+            rejected.add(task);
+        }
+
+        return rejected;
+    }
+
+    @Override
+    public boolean offerLocal(int workerIndex, Task task) throws InterruptedException
+    {
+        if (!record(task))
+            return false;
+
+        return engine.offerLocal(workerIndex, task) || rejected(task);
+    }
+
+    @Override
+    public Task poll(int workerIndex, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return engine.poll(workerIndex, timeout, unit);
+    }
+
+    @Override
+    public int pollBatch(int workerIndex, Collection<Task> batch, int maxBatch, long fillNanos,
+                         long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return engine.pollBatch(workerIndex, batch, maxBatch, fillNanos, timeout, unit);
+    }
+
+    /**
+     * An evicted task is dropped for good, so it is acked.
+     */
+    @Override
+    public Task evict()
+    {
+        Task evicted = engine.evict();
+
+        if (evicted != null)
+            completed(TimedTask.unwrap(evicted));
+
+        return evicted;
+    }
+
+    @Override
+    public boolean recordsWait()
+    {
+        return engine.recordsWait();
+    }
+
+    @Override
+    public int size()
+    {
+        return engine.size();
+    }
+
+    /**
+     * Drained tasks stay journaled, replayed by the next pool unless they are
+     * put again.
+     */
+    @Override
+    public List<Task> drain()
+    {
+        return engine.drain();
+    }
+
+    @Override
+    public Map<Integer, QueueWaitStats> getWaitStats()
+    {
+        return engine.getWaitStats();
+    }
+
+    @Override
+    public void completed(Task task)
+    {
+        Long id;
+
+        synchronized (journaled) {
+            ArrayDeque<Long> ids = journaled.get(task);
+            if (ids == null)
+                return;
+
+            id = ids.poll();
+
+            if (ids.isEmpty())
+                journaled.remove(task);
+        }
+
+        journal.ack(id);
+    }
+
+    @Override
+    public void close()
+    {
+        journal.close();
+    }
+
+    /**
+     * @return false if the task is Serializable but could not be journaled
+     */
+    private boolean record(Task task) throws InterruptedException
+    {
+        Task unwrapped = TimedTask.unwrap(task);
+
+        // a task queued again by the pool is already journaled
+        if (task instanceof RequeuedTask || !(unwrapped instanceof Serializable))
+            return true;
+
+        byte[] payload = serialize(unwrapped);
+
+        return payload != null && put(Collections.singletonList(unwrapped), Collections.singletonList(payload));
+    }
+
+    private boolean rejected(Task task)
+    {
+        completed(TimedTask.unwrap(task));
+        return false;
+    }
+
+    private boolean put(List<Task> tasks, List<byte[]> payloads) throws InterruptedException
+    {
+        if (tasks.isEmpty())
+            return true;
+
+        long[] ids;
+
+        try {
+            ids = journal.put(payloads);
+
+        } catch (IOException e) {
+            LOG.error(LogPattern.EXIT_FAIL, "Journal Task", e.getClass(), e.getMessage());
+            return false;
+
+        }
+
+        for (int i = 0; i < ids.length; i++)
+            track(tasks.get(i), ids[i]);
+
+        return true;
+    }
+
+    private void track(Task task, long id)
+    {
+        synchronized (journaled) {
+            journaled.computeIfAbsent(task, t -> new ArrayDeque<>()).add(id);
+        }
+    }
+
+    private static byte[] serialize(Task task)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(task);
+
+        } catch (IOException e) {
+            LOG.error(LogPattern.EXIT_FAIL, "Serialize Task", e.getClass(), e.getMessage());
+            return null;
+
+        }
+
+        return bytes.toByteArray();
+    }
+}
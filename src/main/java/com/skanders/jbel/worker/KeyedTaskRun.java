@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.def.LogPattern;
+import com.skanders.jbel.result.Result;
+import com.skanders.jbel.worker.def.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Predicate;
+
+/**
+ * Runs the tasks put under one key of a TaskWorkerPool one after another, in
+ * the order they were put. A run is queued into the pool as a single task
+ * once its key receives a task while idle, and drains every task of the key
+ * before leaving the key's map, so no two workers ever run tasks of the same
+ * key while different keys run side by side.
+ * <p>
+ * Adding to and leaving the map both go through {@link
+ * ConcurrentHashMap#compute}, which only locks the key's own bin, so a task
+ * put while the run decides to leave is either seen by the run or starts a
+ * new one. A task joining a run waits until the run is known to be queued
+ * into the pool, so a run the pool refuses rejects every task put into it.
+ */
+class KeyedTaskRun implements Task
+{
+    private static final Logger LOG = LoggerFactory.getLogger(KeyedTaskRun.class);
+
+    private final Object                                  key;
+    private final ConcurrentHashMap<Object, KeyedTaskRun> runs;
+    private final Queue<Task>                             tasks;
+    private final CountDownLatch                          decided;
+
+    private volatile boolean queued;
+
+    private KeyedTaskRun(Object key, ConcurrentHashMap<Object, KeyedTaskRun> runs)
+    {
+        this.key   = key;
+        this.runs  = runs;
+        this.tasks   = new ConcurrentLinkedQueue<>();
+        this.decided = new CountDownLatch(1);
+    }
+
+    /**
+     * Adds the task to the run of its key, queueing the run into the pool if
+     * the key was idle.
+     *
+     * @param queue queues a run into the pool
+     * @return true if the run the task was added to is queued into the pool
+     */
+    static boolean add(ConcurrentHashMap<Object, KeyedTaskRun> runs, Object key, Task task, Predicate<Task> queue)
+    {
+        KeyedTaskRun[] started = new KeyedTaskRun[1];
+
+        KeyedTaskRun joined = runs.compute(key, (k, run) -> {
+            if (run == null) {
+                run        = new KeyedTaskRun(k, runs);
+                started[0] = run;
+            }
+
+            run.tasks.add(task);
+            return run;
+        });
+
+        if (started[0] == null)
+            return joined.awaitQueued();
+
+        boolean queued = false;
+
+        try {
+            queued = queue.test(joined);
+        } finally {
+            // a refused run leaves the map first, so later tasks start a new one
+            if (!queued)
+                runs.remove(key, joined);
+
+            joined.queued = queued;
+            joined.decided.countDown();
+        }
+
+        return queued;
+    }
+
+    private boolean awaitQueued()
+    {
+        boolean interrupted = false;
+
+        while (true) {
+            try {
+                decided.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        return queued;
+    }
+
+    /**
+     * A failing task does not stop the tasks queued behind it.
+     *
+     * @return the Result of the last task run
+     */
+    @Override
+    public Result executeTask()
+    {
+        Result result = Result.VALID;
+
+        while (true) {
+            Task task = tasks.poll();
+
+            if (task == null) {
+                if (runs.computeIfPresent(key, (k, run) -> run == this && tasks.isEmpty() ? null : run) != this)
+                    return result;
+
+                continue;
+            }
+
+            try {
+                result = task.executeTask();
+
+            } catch (RuntimeException e) {
+                LOG.error(LogPattern.EXIT_FAIL, "Keyed Task " + key, e.getClass(), e.getMessage());
+                result = Result.exception(e);
+
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "KeyedTaskRun[" + key + "]";
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.skanders.jbel.convert.Mapper;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of durations. Each power of two range is split into
+ * four buckets, so percentiles are reported within 25% of the recorded value
+ * while recording stays a single atomic increment.
+ */
+public class LatencyHistogram
+{
+    private static final int    SUB_BUCKETS  = 4;
+    private static final int    BUCKET_COUNT = 64 * SUB_BUCKETS;
+    private static final double NANOS_MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicLongArray buckets;
+    private final LongAdder       count;
+    private final LongAdder       totalNanos;
+    private final LongAccumulator maxNanos;
+
+    LatencyHistogram()
+    {
+        this.buckets    = new AtomicLongArray(BUCKET_COUNT);
+        this.count      = new LongAdder();
+        this.totalNanos = new LongAdder();
+        this.maxNanos   = new LongAccumulator(Math::max, 0);
+    }
+
+    void record(long nanos)
+    {
+        long value = Math.max(0, nanos);
+
+        buckets.incrementAndGet(indexOf(value));
+        count.increment();
+        totalNanos.add(value);
+        maxNanos.accumulate(value);
+    }
+
+    private static int indexOf(long value)
+    {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent - 2));
+
+        return (exponent - 1) * SUB_BUCKETS + mantissa - SUB_BUCKETS;
+    }
+
+    private static long upperBoundOf(int index)
+    {
+        if (index < SUB_BUCKETS)
+            return index;
+
+        int exponent = index / SUB_BUCKETS + 1;
+        int mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+
+        return ((long) (mantissa + 1) << (exponent - 2)) - 1;
+    }
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    public double getMeanMillis()
+    {
+        long recorded = count.sum();
+
+        return recorded == 0 ? 0 : totalNanos.sum() / (double) recorded / NANOS_MILLIS;
+    }
+
+    public double getMaxMillis()
+    {
+        return maxNanos.get() / NANOS_MILLIS;
+    }
+
+    /**
+     * @param percentile percentile between 0 and 100
+     * @return upper bound of the bucket holding the percentile
+     */
+    public double getPercentileMillis(double percentile)
+    {
+        long recorded = count.sum();
+        if (recorded == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(recorded * Math.min(100, Math.max(0, percentile)) / 100);
+        long seen = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+
+            if (seen >= rank && seen > 0)
+                return Math.min(upperBoundOf(i), maxNanos.get()) / NANOS_MILLIS;
+        }
+
+        return getMaxMillis();
+    }
+
+    public ObjectNode toJson()
+    {
+        ObjectNode node = Mapper.newNode();
+
+        node.put("count", getCount());
+        node.put("meanMillis", getMeanMillis());
+        node.put("p50Millis", getPercentileMillis(50));
+        node.put("p90Millis", getPercentileMillis(90));
+        node.put("p99Millis", getPercentileMillis(99));
+        node.put("maxMillis", getMaxMillis());
+
+        return node;
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.atsql.AtSQL;
+import com.skanders.jbel.atsql.AtSQLResult;
+import com.skanders.jbel.def.LogPattern;
+import com.skanders.jbel.def.Verify;
+import com.skanders.jbel.result.Resulted;
+import com.skanders.jbel.worker.def.CycleMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Elects, through lease rows of a shared database table, which instance of a
+ * fleet runs a given CycleWorker, or splits partitioned work across the live
+ * instances. The table must already exist:
+ * <pre>
+ *     CREATE TABLE worker_lease
+ *     (
+ *         lease_name    VARCHAR(191) NOT NULL PRIMARY KEY,
+ *         holder        VARCHAR(128) NOT NULL,
+ *         fencing_token BIGINT       NOT NULL,
+ *         expires_at    BIGINT       NOT NULL
+ *     );
+ * </pre>
+ * A lease is held until its expiry and renewed by a background cycle every
+ * third of the lease duration. An expired lease is taken over by the next
+ * instance renewing, its fencing token being incremented, so work guarded by
+ * a lease can reject writes carrying an older token from a paused holder.
+ * Instance clocks are assumed to agree within a small part of the lease
+ * duration.
+ * <p>
+ * Each instance of a partitioned group heartbeats a member lease and holds
+ * at most its fair share of the partitions, releasing extra partitions as
+ * instances join and picking up partitions left by instances that leave.
+ */
+public class LeaseCoordinator implements AutoCloseable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(LeaseCoordinator.class);
+
+    private static final Duration DEFAULT_LEASE_DURATION = Duration.ofSeconds(30);
+    private static final long     NO_TOKEN               = 0L;
+    private static final String   MEMBER_INFIX           = "/member/";
+
+    private final AtSQL                atSQL;
+    private final String               instanceId;
+    private final Set<String>          leaseNames;
+    private final Map<String, Integer> partitionGroups;
+    private final Map<String, Lease>   held;
+    private final String               selectQuery;
+    private final String               insertQuery;
+    private final String               renewQuery;
+    private final String               takeOverQuery;
+    private final String               releaseQuery;
+    private final String               memberQuery;
+
+    private Duration    leaseDuration;
+    private CycleWorker renewer;
+
+    private LeaseCoordinator(@Nonnull AtSQL atSQL, @Nonnull String table, @Nonnull String instanceId)
+    {
+        Verify.notNull(atSQL, "atSQL cannot be null");
+        Verify.notNull(table, "table cannot be null");
+        Verify.notNull(instanceId, "instanceId cannot be null");
+
+        this.atSQL           = atSQL;
+        this.instanceId      = instanceId;
+        this.leaseNames      = ConcurrentHashMap.newKeySet();
+        this.partitionGroups = new ConcurrentHashMap<>();
+        this.held            = new ConcurrentHashMap<>();
+
+        this.selectQuery   = "SELECT fencing_token, expires_at FROM " + table + " WHERE lease_name = ?";
+        this.insertQuery   = "INSERT INTO " + table + " (lease_name, holder, fencing_token, expires_at) VALUES (?,?,?,?)";
+        this.renewQuery    = "UPDATE " + table + " SET expires_at = ?" +
+                " WHERE lease_name = ? AND holder = ? AND fencing_token = ?";
+        this.takeOverQuery = "UPDATE " + table + " SET holder = ?, fencing_token = ?, expires_at = ?" +
+                " WHERE lease_name = ? AND fencing_token = ? AND expires_at < ?";
+        this.releaseQuery  = "UPDATE " + table + " SET expires_at = 0" +
+                " WHERE lease_name = ? AND holder = ? AND fencing_token = ?";
+        this.memberQuery   = "SELECT COUNT(*) FROM " + table + " WHERE lease_name LIKE ? AND expires_at >= ?";
+
+        this.leaseDuration = DEFAULT_LEASE_DURATION;
+        this.renewer       = null;
+    }
+
+    /**
+     * Creates a LeaseCoordinator identified by a random instance id.
+     */
+    public static LeaseCoordinator create(@Nonnull AtSQL atSQL, @Nonnull String table)
+    {
+        return new LeaseCoordinator(atSQL, table, UUID.randomUUID().toString());
+    }
+
+    /**
+     * @param instanceId holder written into the lease rows, unique across the
+     *                   fleet
+     */
+    public static LeaseCoordinator create(@Nonnull AtSQL atSQL, @Nonnull String table, @Nonnull String instanceId)
+    {
+        return new LeaseCoordinator(atSQL, table, instanceId);
+    }
+
+    /**
+     * @param leaseDuration time a lease stays held without renewal, 30 seconds
+     *                      by default
+     * @return this instance of LeaseCoordinator
+     */
+    public synchronized LeaseCoordinator withLeaseDuration(@Nonnull Duration leaseDuration)
+    {
+        Verify.notNull(leaseDuration, "leaseDuration cannot be null");
+        Verify.isTrue(leaseDuration.toMillis() >= 3, "leaseDuration must be at least 3 milliseconds");
+        Verify.isTrue(renewer == null, "leaseDuration cannot be changed once started");
+
+        this.leaseDuration = leaseDuration;
+
+        return this;
+    }
+
+    /**
+     * Competes for the named lease, held by a single instance at a time.
+     *
+     * @return this instance of LeaseCoordinator
+     * @see CycleWorker#withLeader(LeaseCoordinator, String)
+     */
+    public LeaseCoordinator withLease(@Nonnull String leaseName)
+    {
+        Verify.notNull(leaseName, "leaseName cannot be null");
+
+        leaseNames.add(leaseName);
+
+        return this;
+    }
+
+    /**
+     * Splits the group into partitions numbered from 0 to count - 1, each
+     * held by a single live instance.
+     *
+     * @return this instance of LeaseCoordinator
+     * @see #getPartitions(String)
+     */
+    public LeaseCoordinator withPartitions(@Nonnull String group, int count)
+    {
+        Verify.notNull(group, "group cannot be null");
+        Verify.isTrue(count > 0, "count must be greater than 0");
+
+        partitionGroups.put(group, count);
+
+        return this;
+    }
+
+    /**
+     * Acquires the leases it can right away then keeps renewing them in the
+     * background.
+     */
+    public synchronized void start()
+    {
+        if (renewer != null)
+            return;
+
+        renew();
+
+        Duration renewPeriod = leaseDuration.dividedBy(3);
+
+        renewer = CycleWorker.create(renewPeriod, this::renew, "Lease Coordinator")
+                .withMode(CycleMode.FIXED_DELAY)
+                .withInitialDelay(renewPeriod);
+        renewer.start();
+    }
+
+    /**
+     * Stops renewing and releases every held lease so other instances take
+     * them over on their next renewal.
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (renewer != null)
+            renewer.shutdown();
+
+        for (Map.Entry<String, Lease> entry : held.entrySet())
+            release(entry.getKey(), entry.getValue());
+
+        held.clear();
+    }
+
+    /**
+     * @return true while this instance holds the named lease
+     */
+    public boolean isLeader(@Nonnull String leaseName)
+    {
+        Lease lease = held.get(leaseName);
+
+        return lease != null && lease.isValid();
+    }
+
+    /**
+     * @return fencing token of the named lease while held by this instance,
+     * 0 otherwise
+     */
+    public long getFencingToken(@Nonnull String leaseName)
+    {
+        Lease lease = held.get(leaseName);
+
+        return lease != null && lease.isValid() ? lease.token : NO_TOKEN;
+    }
+
+    /**
+     * @return partitions of the group currently held by this instance, in
+     * ascending order
+     */
+    public List<Integer> getPartitions(@Nonnull String group)
+    {
+        Integer       count      = partitionGroups.get(group);
+        List<Integer> partitions = new ArrayList<>();
+
+        if (count != null)
+            for (int i = 0; i < count; i++)
+                if (isLeader(partitionName(group, i)))
+                    partitions.add(i);
+
+        return partitions;
+    }
+
+    public String getInstanceId()
+    {
+        return instanceId;
+    }
+
+    private synchronized void renew()
+    {
+        for (String leaseName : leaseNames)
+            acquire(leaseName);
+
+        for (Map.Entry<String, Integer> group : partitionGroups.entrySet())
+            balance(group.getKey(), group.getValue());
+    }
+
+    /**
+     * Renews the held partitions of a group then releases or acquires
+     * partitions until this instance holds its share, the partitions past a
+     * share of count divided by the live members being left to the others.
+     */
+    private void balance(String group, int count)
+    {
+        if (!acquire(group + MEMBER_INFIX + instanceId))
+            return;
+
+        long members = Math.max(1, countMembers(group));
+        long share   = (count + members - 1) / members;
+
+        List<Integer> owned = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            String name = partitionName(group, i);
+            if (held.containsKey(name) && acquire(name))
+                owned.add(i);
+        }
+
+        while (owned.size() > share) {
+            String name = partitionName(group, owned.remove(owned.size() - 1));
+            release(name, held.remove(name));
+        }
+
+        int start = Math.floorMod(instanceId.hashCode(), count);
+
+        for (int i = 0; i < count && owned.size() < share; i++) {
+            int partition = (start + i) % count;
+            if (!owned.contains(partition) && acquire(partitionName(group, partition)))
+                owned.add(partition);
+        }
+    }
+
+    /**
+     * Renews the lease if still held, otherwise inserts it or takes it over
+     * once expired, incrementing its fencing token.
+     *
+     * @return true if this instance holds the lease afterwards
+     */
+    private boolean acquire(String name)
+    {
+        long started   = System.nanoTime();
+        long now       = System.currentTimeMillis();
+        long expiresAt = now + leaseDuration.toMillis();
+        long validTill = started + leaseDuration.toNanos();
+
+        Lease lease = held.get(name);
+        if (lease != null && update(renewQuery, expiresAt, name, instanceId, lease.token) > 0) {
+            held.put(name, new Lease(lease.token, validTill));
+            return true;
+        }
+
+        held.remove(name);
+
+        Resulted<long[]> row = read(name);
+        if (row.notValid())
+            return false;
+
+        long token;
+
+        if (row.value() == null) {
+            token = 1;
+            if (update(insertQuery, name, instanceId, token, expiresAt) == 0)
+                return false;
+
+        } else {
+            if (row.value()[1] >= now)
+                return false;
+
+            token = row.value()[0] + 1;
+            if (update(takeOverQuery, instanceId, token, expiresAt, name, row.value()[0], now) == 0)
+                return false;
+
+        }
+
+        held.put(name, new Lease(token, validTill));
+        return true;
+    }
+
+    private void release(String name, Lease lease)
+    {
+        if (lease != null)
+            update(releaseQuery, name, instanceId, lease.token);
+    }
+
+    /**
+     * @return the fencing token and expiry of the lease row, null if absent
+     */
+    private Resulted<long[]> read(String name)
+    {
+        try (Resulted<AtSQLResult> resulted = atSQL.createQuery(selectQuery).setList(name).executeQuery()) {
+            if (resulted.notValid())
+                return Resulted.inResulted(resulted);
+
+            ResultSet resultSet = resulted.value().getResultSet();
+
+            if (!resultSet.next())
+                return Resulted.inValue(null);
+
+            return Resulted.inValue(new long[]{resultSet.getLong(1), resultSet.getLong(2)});
+
+        } catch (SQLException e) {
+            LOG.error(LogPattern.EXIT_FAIL, "Lease Read", e.getClass(), e.getMessage());
+
+            return Resulted.inException(e);
+
+        }
+    }
+
+    private long countMembers(String group)
+    {
+        Object[] params = {group + MEMBER_INFIX + "%", System.currentTimeMillis()};
+
+        try (Resulted<AtSQLResult> resulted = atSQL.createQuery(memberQuery).setList(params).executeQuery()) {
+            if (resulted.notValid())
+                return 0;
+
+            ResultSet resultSet = resulted.value().getResultSet();
+
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+
+        } catch (SQLException e) {
+            LOG.error(LogPattern.EXIT_FAIL, "Lease Member Count", e.getClass(), e.getMessage());
+
+            return 0;
+
+        }
+    }
+
+    private int update(String query, Object... params)
+    {
+        Resulted<Integer> updated = atSQL.createQuery(query)
+                .setList(params)
+                .executeUpdate();
+
+        return updated.notValid() ? 0 : updated.value();
+    }
+
+    private static String partitionName(String group, int partition)
+    {
+        return group + "/" + partition;
+    }
+
+    private static class Lease
+    {
+        private final long token;
+        private final long validTillNanos;
+
+        Lease(long token, long validTillNanos)
+        {
+            this.token          = token;
+            this.validTillNanos = validTillNanos;
+        }
+
+        boolean isValid()
+        {
+            return System.nanoTime() - validTillNanos < 0;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.worker.def.PriorityTask;
+import com.skanders.jbel.worker.def.Task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Priority engine dispatching {@link PriorityTask}s by priority, plain tasks
+ * having the default priority.
+ * <p>
+ * Each priority level is worth one aging interval of waiting, so a task is
+ * ranked as if it had been queued priority * agingInterval earlier. A low
+ * priority task therefore overtakes higher priority tasks queued long enough
+ * after it, which keeps large backlogs from starving it. The rank is fixed
+ * when queued, keeping the heap ordering stable.
+ */
+class PriorityTaskQueue implements TaskQueue
+{
+    private final PriorityBlockingQueue<Entry>               taskQueue;
+    private final long                                       agingNanos;
+    private final AtomicLong                                 sequence;
+    private final ConcurrentHashMap<Integer, QueueWaitStats> waitStats;
+
+    PriorityTaskQueue(long agingNanos)
+    {
+        this.taskQueue  = new PriorityBlockingQueue<>();
+        this.agingNanos = agingNanos;
+        this.sequence   = new AtomicLong();
+        this.waitStats  = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public boolean offer(Task task)
+    {
+        return taskQueue.offer(new Entry(task, priorityOf(task), System.nanoTime(), sequence.getAndIncrement()));
+    }
+
+    @Override
+    public Task poll(int workerIndex, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return taken(taskQueue.poll(timeout, unit));
+    }
+
+    /**
+     * Evicts the task that would be dispatched last.
+     */
+    @Override
+    public Task evict()
+    {
+        Entry last = null;
+
+        for (Entry entry : taskQueue)
+            if (last == null || entry.compareTo(last) > 0)
+                last = entry;
+
+        return last != null && taskQueue.remove(last) ? last.task : null;
+    }
+
+    @Override
+    public int size()
+    {
+        return taskQueue.size();
+    }
+
+    @Override
+    public List<Task> drain()
+    {
+        List<Entry> entries = new ArrayList<>();
+        taskQueue.drainTo(entries);
+
+        List<Task> drained = new ArrayList<>(entries.size());
+
+        for (Entry entry : entries)
+            drained.add(entry.task);
+
+        return drained;
+    }
+
+    @Override
+    public Map<Integer, QueueWaitStats> getWaitStats()
+    {
+        return Collections.unmodifiableMap(waitStats);
+    }
+
+    private Task taken(Entry entry)
+    {
+        if (entry == null)
+            return null;
+
+        waitStats.computeIfAbsent(entry.priority, priority -> new QueueWaitStats())
+                .record(System.nanoTime() - entry.queuedNanos);
+
+        return entry.task;
+    }
+
+    private static int priorityOf(Task task)
+    {
+        return task instanceof PriorityTask ? ((PriorityTask) task).getPriority() : PriorityTask.DEFAULT_PRIORITY;
+    }
+
+    private class Entry implements Comparable<Entry>
+    {
+        private final Task task;
+        private final int  priority;
+        private final long queuedNanos;
+        private final long rank;
+        private final long sequence;
+
+        Entry(Task task, int priority, long queuedNanos, long sequence)
+        {
+            this.task        = task;
+            this.priority    = priority;
+            this.queuedNanos = queuedNanos;
+            this.rank        = queuedNanos - priority * agingNanos;
+            this.sequence    = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry other)
+        {
+            int byRank = Long.compare(rank, other.rank);
+
+            return byRank != 0 ? byRank : Long.compare(sequence, other.sequence);
+        }
+    }
+}
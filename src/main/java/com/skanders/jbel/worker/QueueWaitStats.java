@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time tasks of one priority spent queued before a worker took them.
+ */
+public class QueueWaitStats
+{
+    private final LongAdder       count;
+    private final LongAdder       totalNanos;
+    private final LongAccumulator maxNanos;
+
+    QueueWaitStats()
+    {
+        this.count      = new LongAdder();
+        this.totalNanos = new LongAdder();
+        this.maxNanos   = new LongAccumulator(Math::max, 0);
+    }
+
+    void record(long waitNanos)
+    {
+        count.increment();
+        totalNanos.add(waitNanos);
+        maxNanos.accumulate(waitNanos);
+    }
+
+    @JsonProperty("count")
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    @JsonProperty("meanMillis")
+    public double getMeanMillis()
+    {
+        long tasks = count.sum();
+
+        return tasks == 0 ? 0 : totalNanos.sum() / (double) tasks / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @JsonProperty("maxMillis")
+    public double getMaxMillis()
+    {
+        return maxNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.worker.def.Task;
+
+/**
+ * A task the pool queues again itself, once the token its rate limit
+ * reserved for it is due or once the backoff before its next attempt
+ * elapsed. It holds no permit of the pool's capacity as it was already
+ * admitted once, and is not journaled again.
+ */
+class RequeuedTask extends TimedTask
+{
+    private final TokenBucket bucket;
+    private final int         attempt;
+
+    /**
+     * @param bucket  bucket the task already took a token from, or null
+     * @param attempt attempt the task is queued for, counting from 1
+     */
+    RequeuedTask(Task task, TokenBucket bucket, int attempt)
+    {
+        super(task);
+        this.bucket  = bucket;
+        this.attempt = attempt;
+    }
+
+    /**
+     * @return attempt the task is queued for, 1 unless it is being retried
+     */
+    static int attemptOf(Task task)
+    {
+        return task instanceof RequeuedTask ? ((RequeuedTask) task).attempt : 1;
+    }
+
+    TokenBucket getBucket()
+    {
+        return bucket;
+    }
+
+    int getAttempt()
+    {
+        return attempt;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.def.Verify;
+import com.skanders.jbel.result.Result;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * When and how soon a TaskWorkerPool runs a failed task again. The backoff
+ * before each retry grows exponentially from the initial backoff up to the
+ * max backoff, a random part of it shaved off by the jitter so tasks failing
+ * together do not all retry together.
+ * <p>
+ * Only results with a retryable code are retried, by default tasks that
+ * threw or returned a {@link Result#exception(Exception)}.
+ */
+public class RetryPolicy
+{
+    private final int  maxAttempts;
+    private final long initialBackoffNanos;
+
+    private long         maxBackoffNanos;
+    private double       multiplier;
+    private double       jitter;
+    private Set<Integer> retryableCodes;
+
+    private RetryPolicy(int maxAttempts, @Nonnull Duration initialBackoff)
+    {
+        Verify.isTrue(maxAttempts > 0, "maxAttempts must be greater than 0");
+        Verify.notNull(initialBackoff, "initialBackoff cannot be null");
+        Verify.notTrue(initialBackoff.isNegative(), "initialBackoff cannot be negative");
+
+        this.maxAttempts         = maxAttempts;
+        this.initialBackoffNanos = initialBackoff.toNanos();
+
+        this.maxBackoffNanos = Duration.ofMinutes(1).toNanos();
+        this.multiplier      = 2;
+        this.jitter          = 0.5;
+        this.retryableCodes  = new HashSet<>();
+
+        this.retryableCodes.add(Result.EXCEPTION.code());
+    }
+
+    /**
+     * @param maxAttempts    attempts a task gets in total, the first included
+     * @param initialBackoff backoff before the first retry
+     * @return an instance of RetryPolicy
+     */
+    public static RetryPolicy create(int maxAttempts, @Nonnull Duration initialBackoff)
+    {
+        return new RetryPolicy(maxAttempts, initialBackoff);
+    }
+
+    /**
+     * @param multiplier factor the backoff grows by after each retry
+     * @return this instance of RetryPolicy
+     */
+    public RetryPolicy withMultiplier(double multiplier)
+    {
+        Verify.isTrue(multiplier >= 1, "multiplier cannot be less than 1");
+
+        this.multiplier = multiplier;
+
+        return this;
+    }
+
+    /**
+     * @param maxBackoff longest backoff before a retry, 1 minute by default
+     * @return this instance of RetryPolicy
+     */
+    public RetryPolicy withMaxBackoff(@Nonnull Duration maxBackoff)
+    {
+        Verify.notNull(maxBackoff, "maxBackoff cannot be null");
+        Verify.notTrue(maxBackoff.isNegative(), "maxBackoff cannot be negative");
+
+        this.maxBackoffNanos = maxBackoff.toNanos();
+
+        return this;
+    }
+
+    /**
+     * @param jitter fraction of each backoff which may be randomly shaved
+     *               off, 0.5 by default
+     * @return this instance of RetryPolicy
+     */
+    public RetryPolicy withJitter(double jitter)
+    {
+        Verify.isTrue(jitter >= 0 && jitter <= 1, "jitter must be between 0 and 1");
+
+        this.jitter = jitter;
+
+        return this;
+    }
+
+    /**
+     * Replaces the retryable results, matched by code. Include {@link
+     * Result#EXCEPTION} to keep retrying tasks that throw.
+     *
+     * @param results results worth retrying
+     * @return this instance of RetryPolicy
+     */
+    public RetryPolicy retryOn(@Nonnull Result... results)
+    {
+        Verify.notNull(results, "results cannot be null");
+
+        Set<Integer> codes = new HashSet<>();
+
+        for (Result result : results)
+            codes.add(result.code());
+
+        this.retryableCodes = codes;
+
+        return this;
+    }
+
+    public int getMaxAttempts()
+    {
+        return maxAttempts;
+    }
+
+    boolean isRetryable(Result result)
+    {
+        return result != null && retryableCodes.contains(result.code());
+    }
+
+    /**
+     * @param attempt attempt that just failed, counting from 1
+     * @return backoff before the next attempt
+     */
+    long getBackoffNanos(int attempt)
+    {
+        double backoff = Math.min(maxBackoffNanos, initialBackoffNanos * Math.pow(multiplier, attempt - 1));
+
+        return (long) (backoff * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+}
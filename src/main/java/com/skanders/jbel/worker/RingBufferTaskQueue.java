@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.worker.def.Task;
+import com.skanders.jbel.worker.def.WaitStrategy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+
+/**
+ * Lock free engine built on a preallocated ring of task slots.
+ * <p>
+ * Every slot carries a sequence acting as its barrier: producers claim the
+ * next put sequence with a CAS and publish the slot by advancing its
+ * sequence, workers claim the next take sequence the same way and hand the
+ * slot back by advancing it a lap. Slots, their sequences and enqueue times
+ * are allocated once, so a steady flow of puts allocates nothing, and no
+ * thread is ever parked or unparked by another, waiting threads polling the
+ * ring according to the {@link WaitStrategy} instead.
+ */
+class RingBufferTaskQueue implements TaskQueue
+{
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Task[]          slots;
+    private final long[]          queuedNanos;
+    private final AtomicLongArray sequences;
+    private final int             mask;
+    private final AtomicLong      putSequence;
+    private final AtomicLong      takeSequence;
+    private final WaitStrategy    waitStrategy;
+    private final LongConsumer    waitRecorder;
+
+    RingBufferTaskQueue(int size, WaitStrategy waitStrategy, LongConsumer waitRecorder)
+    {
+        int capacity = size <= 2 ? 2 : Integer.highestOneBit(size - 1) << 1;
+
+        this.slots        = new Task[capacity];
+        this.queuedNanos  = new long[capacity];
+        this.sequences    = new AtomicLongArray(capacity);
+        this.mask         = capacity - 1;
+        this.putSequence  = new AtomicLong();
+        this.takeSequence = new AtomicLong();
+        this.waitStrategy = waitStrategy;
+        this.waitRecorder = waitRecorder;
+
+        for (int i = 0; i < capacity; i++)
+            sequences.set(i, i);
+    }
+
+    int getCapacity()
+    {
+        return slots.length;
+    }
+
+    /**
+     * Waits for room according to the wait strategy while the ring is full.
+     */
+    @Override
+    public boolean offer(Task task) throws InterruptedException
+    {
+        while (!tryOffer(task))
+            idle();
+
+        return true;
+    }
+
+    private boolean tryOffer(Task task)
+    {
+        long sequence = putSequence.get();
+
+        while (true) {
+            int  index = (int) sequence & mask;
+            long lag   = sequences.get(index) - sequence;
+
+            if (lag == 0) {
+                if (putSequence.compareAndSet(sequence, sequence + 1)) {
+                    slots[index]       = task;
+                    queuedNanos[index] = System.nanoTime();
+                    sequences.set(index, sequence + 1);
+                    return true;
+                }
+
+            } else if (lag < 0) {
+                return false;
+
+            }
+
+            sequence = putSequence.get();
+        }
+    }
+
+    @Override
+    public Task poll(int workerIndex, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        Task task = tryPoll();
+        if (task != null)
+            return task;
+
+        long timeoutNanos = unit.toNanos(timeout);
+        long deadline     = timeoutNanos >= Long.MAX_VALUE / 2 ? Long.MAX_VALUE : System.nanoTime() + timeoutNanos;
+
+        while ((task = tryPoll()) == null) {
+            if (deadline - System.nanoTime() <= 0)
+                return null;
+
+            idle();
+        }
+
+        return task;
+    }
+
+    private Task tryPoll()
+    {
+        long sequence = takeSequence.get();
+
+        while (true) {
+            int  index = (int) sequence & mask;
+            long lag   = sequences.get(index) - (sequence + 1);
+
+            if (lag == 0) {
+                if (takeSequence.compareAndSet(sequence, sequence + 1)) {
+                    Task task   = slots[index];
+                    long queued = queuedNanos[index];
+
+                    slots[index] = null;
+                    sequences.set(index, sequence + slots.length);
+
+                    if (waitRecorder != null)
+                        waitRecorder.accept(System.nanoTime() - queued);
+
+                    return task;
+                }
+
+            } else if (lag < 0) {
+                return null;
+
+            }
+
+            sequence = takeSequence.get();
+        }
+    }
+
+    private void idle() throws InterruptedException
+    {
+        switch (waitStrategy) {
+            case YIELD:
+                Thread.yield();
+                break;
+
+            case PARK:
+                LockSupport.parkNanos(this, PARK_NANOS);
+                break;
+
+            default:
+                break;
+        }
+
+        if (Thread.interrupted())
+            throw new InterruptedException();
+    }
+
+    /**
+     * Records wait times itself, sparing the pool from wrapping every task.
+     */
+    @Override
+    public boolean recordsWait()
+    {
+        return waitRecorder != null;
+    }
+
+    @Override
+    public Task evict()
+    {
+        return tryPoll();
+    }
+
+    @Override
+    public int size()
+    {
+        long size = putSequence.get() - takeSequence.get();
+
+        return (int) Math.max(0, Math.min(size, slots.length));
+    }
+
+    @Override
+    public List<Task> drain()
+    {
+        List<Task> drained = new ArrayList<>();
+
+        Task task;
+        while ((task = tryPoll()) != null)
+            drained.add(task);
+
+        return drained;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.worker.def.Task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Work stealing engine giving every worker its own deque.
+ * <p>
+ * Tasks put from outside the pool land at the tail of a random deque and
+ * tasks forked by a worker at the head of its own. A worker takes from the
+ * head of its own deque first, then steals from the tail of the others
+ * starting at a random victim. The head is thus shared by a worker and its
+ * own forks, while producers and thieves meet at the tail. Idle workers park
+ * and are only woken when tasks arrive.
+ */
+class StealingTaskQueue implements TaskQueue
+{
+    private static final int  NOT_PARKED     = 0;
+    private static final int  PARKED         = 1;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ConcurrentLinkedDeque<Task>[] deques;
+    private final AtomicReferenceArray<Thread>  workers;
+    private final AtomicIntegerArray            parked;
+    private final AtomicInteger                 idleCount;
+    private final LongAdder                     size;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    StealingTaskQueue(int workerCount)
+    {
+        this.deques    = new ConcurrentLinkedDeque[Math.max(1, workerCount)];
+        this.workers   = new AtomicReferenceArray<>(deques.length);
+        this.parked    = new AtomicIntegerArray(deques.length);
+        this.idleCount = new AtomicInteger();
+        this.size      = new LongAdder();
+
+        for (int i = 0; i < deques.length; i++)
+            deques[i] = new ConcurrentLinkedDeque<>();
+    }
+
+    @Override
+    public boolean offer(Task task)
+    {
+        deques[ThreadLocalRandom.current().nextInt(deques.length)].addLast(task);
+        size.increment();
+
+        signal(1);
+        return true;
+    }
+
+    @Override
+    public List<Task> offerAll(Collection<? extends Task> tasks)
+    {
+        int index = ThreadLocalRandom.current().nextInt(deques.length);
+
+        for (Task task : tasks)
+            deques[index++ % deques.length].addLast(task);
+
+        size.add(tasks.size());
+
+        signal(tasks.size());
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean offerLocal(int workerIndex, Task task)
+    {
+        if (workerIndex < 0 || workerIndex >= deques.length)
+            return offer(task);
+
+        deques[workerIndex].addFirst(task);
+        size.increment();
+
+        signal(1);
+        return true;
+    }
+
+    @Override
+    public Task poll(int workerIndex, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        workers.set(workerIndex, Thread.currentThread());
+
+        long timeoutNanos = unit.toNanos(timeout);
+        long deadline     = timeoutNanos >= Long.MAX_VALUE / 2 ? Long.MAX_VALUE : System.nanoTime() + timeoutNanos;
+
+        while (true) {
+            Task task = find(workerIndex);
+            if (task != null)
+                return task;
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return null;
+
+            // announce the park before the last scan, a producer either sees
+            // the announcement or its task is found by the scan
+            parked.set(workerIndex, PARKED);
+            idleCount.incrementAndGet();
+
+            task = find(workerIndex);
+            if (task == null)
+                LockSupport.parkNanos(this, Math.min(remaining, MAX_PARK_NANOS));
+
+            if (parked.getAndSet(workerIndex, NOT_PARKED) == PARKED)
+                idleCount.decrementAndGet();
+
+            if (Thread.interrupted()) {
+                if (task != null)
+                    offerLocal(workerIndex, task);
+
+                throw new InterruptedException();
+            }
+
+            if (task != null)
+                return task;
+        }
+    }
+
+    private Task find(int workerIndex)
+    {
+        Task task = deques[workerIndex].pollFirst();
+
+        if (task == null) {
+            int start = ThreadLocalRandom.current().nextInt(deques.length);
+
+            for (int i = 0; i < deques.length && task == null; i++) {
+                int victim = (start + i) % deques.length;
+
+                if (victim != workerIndex)
+                    task = deques[victim].pollLast();
+            }
+        }
+
+        if (task != null)
+            size.decrement();
+
+        return task;
+    }
+
+    private void signal(int count)
+    {
+        if (idleCount.get() == 0)
+            return;
+
+        int start = ThreadLocalRandom.current().nextInt(deques.length);
+
+        for (int i = 0; i < deques.length && count > 0; i++) {
+            int index = (start + i) % deques.length;
+
+            if (parked.compareAndSet(index, PARKED, NOT_PARKED)) {
+                idleCount.decrementAndGet();
+                LockSupport.unpark(workers.get(index));
+                count--;
+            }
+        }
+    }
+
+    @Override
+    public Task evict()
+    {
+        int start = ThreadLocalRandom.current().nextInt(deques.length);
+
+        // external puts go to the tail, so the head of a deque holds its oldest
+        for (int i = 0; i < deques.length; i++) {
+            Task task = deques[(start + i) % deques.length].pollFirst();
+
+            if (task != null) {
+                size.decrement();
+                return task;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public int size()
+    {
+        return (int) size.sum();
+    }
+
+    @Override
+    public List<Task> drain()
+    {
+        List<Task> drained = new ArrayList<>();
+
+        for (ConcurrentLinkedDeque<Task> deque : deques) {
+            Task task;
+
+            while ((task = deque.pollFirst()) != null) {
+                size.decrement();
+                drained.add(task);
+            }
+        }
+
+        return drained;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.def.SkandersResult;
+import com.skanders.jbel.result.Result;
+import com.skanders.jbel.worker.def.PriorityTask;
+import com.skanders.jbel.worker.def.RateLimitedTask;
+import com.skanders.jbel.worker.def.Task;
+
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A task put through {@link TaskWorkerPool#submit(Task)}, whose future the
+ * pool completes with its final Result on the thread that ran it. Priority,
+ * deadline and rate key are those of the wrapped task, and a wrapped
+ * BatchTask is still batched through {@link #unwrap(Task)}.
+ */
+class SubmittedTask implements PriorityTask, RateLimitedTask
+{
+    private final Task                      task;
+    private final CompletableFuture<Result> future;
+
+    SubmittedTask(Task task)
+    {
+        this.task   = task;
+        this.future = new CompletableFuture<>();
+    }
+
+    /**
+     * @return the task as put by the caller
+     */
+    static Task unwrap(Task task)
+    {
+        return task instanceof SubmittedTask ? ((SubmittedTask) task).task : task;
+    }
+
+    /**
+     * Completes the future of a queued task the pool drops without running
+     * it.
+     *
+     * @return the task as put by the caller
+     */
+    static Task abandon(Task task, Result result)
+    {
+        Task unwrapped = TimedTask.unwrap(task);
+
+        if (unwrapped instanceof SubmittedTask)
+            ((SubmittedTask) unwrapped).complete(result);
+
+        return unwrap(unwrapped);
+    }
+
+    boolean isDone()
+    {
+        return future.isDone();
+    }
+
+    CompletableFuture<Result> getFuture()
+    {
+        return future;
+    }
+
+    void complete(Result result)
+    {
+        future.complete(result);
+    }
+
+    /**
+     * Skips the task if its future was cancelled or timed out before it
+     * started.
+     */
+    @Override
+    public Result executeTask()
+    {
+        return future.isDone() ? Result.VALID : task.executeTask();
+    }
+
+    @Override
+    public int getPriority()
+    {
+        return task instanceof PriorityTask ? ((PriorityTask) task).getPriority() : DEFAULT_PRIORITY;
+    }
+
+    @Override
+    public Instant getDeadline()
+    {
+        return task instanceof PriorityTask ? ((PriorityTask) task).getDeadline() : null;
+    }
+
+    @Override
+    public void onExpired()
+    {
+        if (task instanceof PriorityTask)
+            ((PriorityTask) task).onExpired();
+
+        complete(SkandersResult.TASK_TIMEOUT);
+    }
+
+    @Override
+    public Object getRateKey()
+    {
+        return task instanceof RateLimitedTask ? ((RateLimitedTask) task).getRateKey() : task.getClass();
+    }
+
+    @Override
+    public String toString()
+    {
+        return task.toString();
+    }
+}
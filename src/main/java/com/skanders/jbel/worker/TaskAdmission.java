@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.def.SkandersResult;
+import com.skanders.jbel.result.Result;
+import com.skanders.jbel.worker.def.RejectionPolicy;
+import com.skanders.jbel.worker.def.Task;
+import com.skanders.jbel.worker.def.WatermarkListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Admits tasks into the {@link TaskQueue} of a TaskWorkerPool, holding one
+ * permit per queued task when the pool is bounded and applying its
+ * RejectionPolicy once no permit is left. Also tracks the queue size against
+ * the pool's watermarks.
+ */
+class TaskAdmission
+{
+    private static final Logger LOG = LoggerFactory.getLogger(TaskAdmission.class);
+
+    private final Semaphore         permits;
+    private final RejectionPolicy   policy;
+    private final long              offerTimeoutNanos;
+    private final AtomicInteger     queued;
+    private final int               highWatermark;
+    private final int               lowWatermark;
+    private final WatermarkListener listener;
+    private final AtomicBoolean     aboveHigh;
+    private final Consumer<Task>    callerRuns;
+
+    /**
+     * @param restored   number of tasks already queued, replayed from a
+     *                   journal, which may exceed the capacity
+     * @param callerRuns runs a task on the caller with {@link
+     *                   RejectionPolicy#CALLER_RUNS}
+     */
+    TaskAdmission(int capacity, RejectionPolicy policy, long offerTimeoutNanos,
+                  int highWatermark, int lowWatermark, WatermarkListener listener,
+                  int restored, Consumer<Task> callerRuns)
+    {
+        this.permits           = capacity > 0 ? new Semaphore(capacity - restored) : null;
+        this.policy            = policy;
+        this.offerTimeoutNanos = offerTimeoutNanos;
+        this.queued            = new AtomicInteger(restored);
+        this.highWatermark     = highWatermark;
+        this.lowWatermark      = lowWatermark;
+        this.listener          = listener;
+        this.aboveHigh         = new AtomicBoolean();
+        this.callerRuns        = callerRuns;
+    }
+
+    boolean isBounded()
+    {
+        return permits != null;
+    }
+
+    /**
+     * @return Result.VALID if the task was queued or ran on the caller,
+     * otherwise why it was rejected
+     */
+    Result admit(Task task, TaskQueue taskQueue) throws InterruptedException
+    {
+        if (permits != null && !acquire(taskQueue)) {
+            if (policy == RejectionPolicy.CALLER_RUNS) {
+                callerRuns.accept(task);
+                return Result.VALID;
+            }
+
+            return policy == RejectionPolicy.BLOCK_TIMEOUT
+                    ? SkandersResult.TASK_QUEUE_TIMEOUT
+                    : SkandersResult.TASK_REJECTED;
+        }
+
+        boolean offered = false;
+
+        try {
+            offered = taskQueue.offer(task);
+
+        } finally {
+            if (!offered && permits != null)
+                permits.release();
+
+        }
+
+        if (!offered)
+            return SkandersResult.TASK_REJECTED;
+
+        queued(1);
+        return Result.VALID;
+    }
+
+    private boolean acquire(TaskQueue taskQueue) throws InterruptedException
+    {
+        switch (policy) {
+            case BLOCK:
+                permits.acquire();
+                return true;
+
+            case BLOCK_TIMEOUT:
+                return permits.tryAcquire(offerTimeoutNanos, TimeUnit.NANOSECONDS);
+
+            case DROP_OLDEST:
+                while (!permits.tryAcquire()) {
+                    Task dropped = taskQueue.evict();
+
+                    if (dropped == null)
+                        continue;
+
+                    LOG.warn("Task queue full, dropped oldest task: {}", dropped);
+                    SubmittedTask.abandon(dropped, SkandersResult.TASK_REJECTED);
+
+                    // a task queued again by the pool holds no permit to hand over
+                    if (dropped instanceof RequeuedTask)
+                        continue;
+
+                    // the dropped task hands its permit over to the new one
+                    queued(-1);
+                    return true;
+                }
+                return true;
+
+            default:
+                return permits.tryAcquire();
+        }
+    }
+
+    /**
+     * Releases the permits of tasks taken out of the queue.
+     */
+    void taken(int count)
+    {
+        if (count <= 0)
+            return;
+
+        if (permits != null)
+            permits.release(count);
+
+        queued(-count);
+    }
+
+    /**
+     * Accounts for tasks queued without going through {@link #admit}.
+     */
+    void queued(int count)
+    {
+        int size = queued.addAndGet(count);
+
+        if (listener == null)
+            return;
+
+        if (count > 0 && size >= highWatermark && aboveHigh.compareAndSet(false, true))
+            listener.onHighWatermark(size);
+
+        else if (count < 0 && size <= lowWatermark && aboveHigh.compareAndSet(true, false))
+            listener.onLowWatermark(size);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.def.Verify;
+import com.skanders.jbel.worker.def.Task;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tasks with dependencies between them, run on a {@link TaskWorkerPool} by
+ * {@link #run(TaskWorkerPool)}. Every task whose dependencies all succeeded
+ * is put into the pool at once, so independent branches run in parallel.
+ * <p>
+ * A task may only depend on tasks added before it, so a graph can never hold
+ * a cycle. A graph may be run any number of times, each run tracked by its
+ * own {@link TaskGraphRun}.
+ */
+public class TaskGraph
+{
+    private final String                      name;
+    private final LinkedHashMap<String, Node>  nodes;
+
+    private TaskGraph(@Nonnull String name)
+    {
+        Verify.notNull(name, "name cannot be null");
+
+        this.name  = name;
+        this.nodes = new LinkedHashMap<>();
+    }
+
+    public static TaskGraph create(@Nonnull String name)
+    {
+        return new TaskGraph(name);
+    }
+
+    /**
+     * @param id        id of the task, unique within the graph
+     * @param task      task to run
+     * @param dependsOn ids of the tasks which must succeed before this one
+     *                  starts, each added beforehand
+     * @return this instance of TaskGraph
+     */
+    public TaskGraph addTask(@Nonnull String id, @Nonnull Task task, @Nonnull String... dependsOn)
+    {
+        Verify.notNull(id, "id cannot be null");
+        Verify.notNull(task, "task cannot be null");
+        Verify.notNull(dependsOn, "dependsOn cannot be null");
+        Verify.notTrue(nodes.containsKey(id), "TaskGraph already holds a task with id " + id);
+
+        for (String dependency : dependsOn)
+            Verify.isTrue(nodes.containsKey(dependency),
+                    "Dependency " + dependency + " of " + id + " must be added before it");
+
+        Node node = new Node(id, task, Arrays.asList(dependsOn.clone()));
+
+        for (String dependency : dependsOn)
+            nodes.get(dependency).dependents.add(id);
+
+        nodes.put(id, node);
+
+        return this;
+    }
+
+    /**
+     * Puts every task without dependencies into the pool, each other task
+     * following once its dependencies succeeded.
+     *
+     * @param pool pool running the tasks, started or not
+     * @return the run, tracking the state of every task
+     */
+    public TaskGraphRun run(@Nonnull TaskWorkerPool pool)
+    {
+        Verify.notNull(pool, "pool cannot be null");
+
+        TaskGraphRun run = new TaskGraphRun(this, pool);
+        run.start();
+
+        return run;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int size()
+    {
+        return nodes.size();
+    }
+
+    /**
+     * @return ids of the tasks, each after its dependencies
+     */
+    public List<String> getTaskIds()
+    {
+        return new ArrayList<>(nodes.keySet());
+    }
+
+    Collection<Node> getNodes()
+    {
+        return Collections.unmodifiableCollection(nodes.values());
+    }
+
+    Map<String, Node> getNodeMap()
+    {
+        return Collections.unmodifiableMap(nodes);
+    }
+
+    static class Node
+    {
+        final String       id;
+        final Task         task;
+        final List<String> dependencies;
+        final List<String> dependents;
+
+        Node(String id, Task task, List<String> dependencies)
+        {
+            this.id           = id;
+            this.task         = task;
+            this.dependencies = dependencies;
+            this.dependents   = new ArrayList<>();
+        }
+    }
+}
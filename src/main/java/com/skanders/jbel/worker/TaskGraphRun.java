@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.def.SkandersResult;
+import com.skanders.jbel.def.Verify;
+import com.skanders.jbel.result.Result;
+import com.skanders.jbel.worker.def.GraphNodeState;
+import com.skanders.jbel.worker.def.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One run of a {@link TaskGraph}, tracking the state, Result and timing of
+ * each of its tasks.
+ * <p>
+ * A task failing, by returning anything but Result.VALID or by being
+ * rejected by the pool, skips every task depending on it, directly or not,
+ * while independent branches keep running. The run completes once every task
+ * succeeded, failed, was skipped or was cancelled.
+ */
+public class TaskGraphRun
+{
+    private static final Logger LOG = LoggerFactory.getLogger(TaskGraphRun.class);
+
+    private final TaskGraph                 graph;
+    private final TaskWorkerPool            pool;
+    private final Map<String, NodeRun>      nodes;
+    private final AtomicInteger             remaining;
+    private final CompletableFuture<Result> completion;
+
+    private volatile long    startNanos;
+    private volatile long    endNanos;
+    private volatile boolean cancelled;
+
+    TaskGraphRun(TaskGraph graph, TaskWorkerPool pool)
+    {
+        this.graph      = graph;
+        this.pool       = pool;
+        this.nodes      = new LinkedHashMap<>();
+        this.remaining  = new AtomicInteger(graph.size());
+        this.completion = new CompletableFuture<>();
+        this.cancelled  = false;
+
+        for (TaskGraph.Node node : graph.getNodes()) {
+            NodeRun nodeRun = new NodeRun(node);
+
+            for (String dependency : node.dependencies)
+                nodes.get(dependency).dependents.add(nodeRun);
+
+            nodes.put(node.id, nodeRun);
+        }
+    }
+
+    void start()
+    {
+        LOG.debug("{} Task Graph starting {} tasks", graph.getName(), nodes.size());
+
+        startNanos = System.nanoTime();
+
+        if (nodes.isEmpty()) {
+            complete();
+            return;
+        }
+
+        for (NodeRun node : new ArrayList<>(nodes.values()))
+            if (node.pending.get() == 0)
+                submit(node);
+    }
+
+    /**
+     * Cancels every task not yet started, letting running ones finish.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+
+        for (NodeRun node : nodes.values())
+            if (node.state.compareAndSet(GraphNodeState.PENDING, GraphNodeState.CANCELLED)
+                    || node.state.compareAndSet(GraphNodeState.QUEUED, GraphNodeState.CANCELLED))
+                finished(node, SkandersResult.TASK_CANCELLED);
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    public boolean isDone()
+    {
+        return completion.isDone();
+    }
+
+    /**
+     * @return completed once the run is done, with Result.VALID if every task
+     * succeeded, otherwise the Result of the first task which did not
+     */
+    public CompletableFuture<Result> getCompletion()
+    {
+        return completion;
+    }
+
+    /**
+     * Blocks until the run is done, or the timeout elapses.
+     *
+     * @return true if the run is done
+     */
+    public boolean await(@Nonnull Duration timeout) throws InterruptedException
+    {
+        Verify.notNull(timeout, "timeout cannot be null");
+
+        try {
+            completion.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            return true;
+
+        } catch (TimeoutException e) {
+            return false;
+
+        } catch (ExecutionException e) {
+            return true;
+
+        }
+    }
+
+    public GraphNodeState getState(@Nonnull String id)
+    {
+        return node(id).state.get();
+    }
+
+    /**
+     * @return Result of the task, SkandersResult.TASK_SKIPPED or
+     * TASK_CANCELLED if it never ran, or null while it has not finished
+     */
+    public Result getResult(@Nonnull String id)
+    {
+        return node(id).result;
+    }
+
+    /**
+     * @return time the task spent running, 0 if it did not run
+     */
+    public double getDurationMillis(@Nonnull String id)
+    {
+        return toMillis(node(id).duration());
+    }
+
+    /**
+     * @return time from the start of the run until it was done, or until now
+     * while it runs
+     */
+    public double getElapsedMillis()
+    {
+        return toMillis((isDone() ? endNanos : System.nanoTime()) - startNanos);
+    }
+
+    /**
+     * The chain of dependent tasks with the longest total running time, which
+     * bounds how fast the graph can run however many workers the pool has.
+     *
+     * @return ids of the tasks on the critical path, in dependency order
+     */
+    public List<String> getCriticalPath()
+    {
+        Map<NodeRun, Long>    costs    = new HashMap<>();
+        Map<NodeRun, NodeRun> previous = new HashMap<>();
+        NodeRun               last     = null;
+
+        // nodes are held in dependency order, so each cost builds on known ones
+        for (NodeRun node : nodes.values()) {
+            NodeRun slowest = null;
+
+            for (String dependency : node.node.dependencies) {
+                NodeRun upstream = nodes.get(dependency);
+
+                if (slowest == null || costs.get(upstream) > costs.get(slowest))
+                    slowest = upstream;
+            }
+
+            costs.put(node, node.duration() + (slowest == null ? 0 : costs.get(slowest)));
+            previous.put(node, slowest);
+
+            if (last == null || costs.get(node) > costs.get(last))
+                last = node;
+        }
+
+        List<String> path = new ArrayList<>();
+
+        for (NodeRun node = last; node != null; node = previous.get(node))
+            path.add(node.node.id);
+
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * @return total running time of the tasks on the critical path
+     */
+    public double getCriticalPathMillis()
+    {
+        long total = 0;
+
+        for (String id : getCriticalPath())
+            total += node(id).duration();
+
+        return toMillis(total);
+    }
+
+    private NodeRun node(String id)
+    {
+        NodeRun node = nodes.get(id);
+        Verify.notNull(node, graph.getName() + " Task Graph holds no task with id " + id);
+
+        return node;
+    }
+
+    private void submit(NodeRun node)
+    {
+        if (!node.state.compareAndSet(GraphNodeState.PENDING, GraphNodeState.QUEUED))
+            return;
+
+        Result result = pool.offerTask(node);
+
+        if (result.notValid() && node.state.compareAndSet(GraphNodeState.QUEUED, GraphNodeState.FAILED))
+            failed(node, result);
+    }
+
+    private void succeeded(NodeRun node, Result result)
+    {
+        finished(node, result);
+
+        for (NodeRun dependent : node.dependents)
+            if (dependent.pending.decrementAndGet() == 0)
+                submit(dependent);
+    }
+
+    private void failed(NodeRun node, Result result)
+    {
+        LOG.warn("{} Task Graph task {} failed: {}", graph.getName(), node.node.id, result.message());
+
+        finished(node, result);
+        skip(node);
+    }
+
+    private void skip(NodeRun node)
+    {
+        for (NodeRun dependent : node.dependents) {
+            if (dependent.state.compareAndSet(GraphNodeState.PENDING, GraphNodeState.SKIPPED)) {
+                finished(dependent, SkandersResult.TASK_SKIPPED);
+                skip(dependent);
+            }
+        }
+    }
+
+    private void finished(NodeRun node, Result result)
+    {
+        node.result = result;
+
+        if (remaining.decrementAndGet() == 0)
+            complete();
+    }
+
+    private void complete()
+    {
+        endNanos = System.nanoTime();
+
+        Result result = Result.VALID;
+
+        for (NodeRun node : nodes.values()) {
+            if (node.result != null && node.result.notValid()) {
+                result = node.result;
+                break;
+            }
+        }
+
+        LOG.debug("{} Task Graph done in {} ms", graph.getName(), getElapsedMillis());
+        completion.complete(result);
+    }
+
+    private static double toMillis(long nanos)
+    {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * A task of the graph as put into the pool, reporting its Result back to
+     * the run once done.
+     */
+    private class NodeRun implements Task
+    {
+        private final TaskGraph.Node                  node;
+        private final List<NodeRun>                   dependents;
+        private final AtomicInteger                   pending;
+        private final AtomicReference<GraphNodeState> state;
+
+        private volatile Result result;
+        private volatile long   startNanos;
+        private volatile long   endNanos;
+
+        NodeRun(TaskGraph.Node node)
+        {
+            this.node       = node;
+            this.dependents = new ArrayList<>();
+            this.pending    = new AtomicInteger(node.dependencies.size());
+            this.state      = new AtomicReference<>(GraphNodeState.PENDING);
+        }
+
+        /**
+         * Runs the task unless the run was cancelled since it was queued. A
+         * pool retrying the task does not run it twice.
+         */
+        @Override
+        public Result executeTask()
+        {
+            if (!state.compareAndSet(GraphNodeState.QUEUED, GraphNodeState.RUNNING))
+                return Result.VALID;
+
+            startNanos = System.nanoTime();
+
+            Result outcome;
+
+            try {
+                outcome = node.task.executeTask();
+
+            } catch (RuntimeException e) {
+                outcome = Result.exception(e);
+
+            }
+
+            endNanos = System.nanoTime();
+
+            if (outcome == Result.VALID) {
+                state.set(GraphNodeState.SUCCEEDED);
+                succeeded(this, outcome);
+            } else {
+                state.set(GraphNodeState.FAILED);
+                failed(this, outcome);
+            }
+
+            return outcome;
+        }
+
+        long duration()
+        {
+            return endNanos == 0 ? 0 : endNanos - startNanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return graph.getName() + " Task Graph task " + node.id;
+        }
+    }
+}
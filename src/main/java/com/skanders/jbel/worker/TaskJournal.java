@@ -0,0 +1,578 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.def.LogPattern;
+import com.skanders.jbel.def.SkandersException;
+import com.skanders.jbel.def.Verify;
+import com.skanders.jbel.worker.def.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of the tasks queued in a TaskWorkerPool, kept in a
+ * directory of fixed size memory mapped segment files.
+ * <p>
+ * Each record holds a type, a task id, the payload length and a CRC32 of the
+ * id and payload, followed by the payload. A put record carries a serialized
+ * task and an ack record marks the task of the same id completed. Puts only
+ * return once a background flusher forced their record to disk, forcing the
+ * records of every put waiting at the time in a single group commit. Acks are
+ * forced with the next commit, an ack lost in a crash only replaying a task
+ * already run.
+ * <p>
+ * Segments are never written again once full. The oldest segment is deleted
+ * once every task it holds is acked, or has its few remaining tasks copied
+ * into the current segment when most of them are, so a task stuck in the
+ * queue does not hold onto the whole journal.
+ */
+class TaskJournal
+{
+    private static final Logger LOG = LoggerFactory.getLogger(TaskJournal.class);
+
+    static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final byte PUT = 1;
+    private static final byte ACK = 2;
+
+    // type, id, payload length, crc
+    private static final int HEADER_SIZE = 1 + 8 + 4 + 4;
+
+    private static final long   IDLE_MILLIS    = 10;
+    private static final String SEGMENT_PREFIX = "tasks-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private final Path                directory;
+    private final int                 segmentSize;
+    private final ArrayDeque<Segment> segments;
+    private final Set<Segment>        dirtySegments;
+    private final Map<Long, Location> live;
+    private final Thread              flusher;
+
+    private long        nextId;
+    private long        appendedSeq;
+    private long        durableSeq;
+    private IOException failure;
+    private boolean     closed;
+
+    TaskJournal(String name, Path directory, int segmentSize)
+    {
+        Verify.notNull(directory, "directory cannot be null");
+        Verify.isTrue(segmentSize > HEADER_SIZE, "segmentSize must be greater than " + HEADER_SIZE);
+
+        this.directory     = directory;
+        this.segmentSize   = segmentSize;
+        this.segments      = new ArrayDeque<>();
+        this.dirtySegments = new LinkedHashSet<>();
+        this.live          = new HashMap<>();
+        this.nextId        = 1;
+        this.appendedSeq   = 0;
+        this.durableSeq    = 0;
+        this.failure       = null;
+        this.closed        = false;
+
+        try {
+            Files.createDirectories(directory);
+            replay();
+            segments.addLast(Segment.create(segmentPath(nextSegmentNumber()), segmentSize));
+
+        } catch (IOException e) {
+            LOG.error(LogPattern.EXIT_FAIL, "Open Task Journal", e.getClass(), e.getMessage());
+            throw new SkandersException("Task journal is unreadable: " + directory, e);
+
+        }
+
+        this.flusher = new Thread(this::flushLoop, name + " Task Journal");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Appends a put record for each payload, returning once all of them are
+     * on disk.
+     *
+     * @return the id given to each payload, in order
+     */
+    synchronized long[] put(List<byte[]> payloads) throws IOException, InterruptedException
+    {
+        long[] ids = new long[payloads.size()];
+
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = nextId++;
+            live.put(ids[i], append(PUT, ids[i], payloads.get(i)));
+        }
+
+        long seq = appendedSeq;
+        notifyAll();
+
+        while (durableSeq < seq) {
+            if (failure != null)
+                throw failure;
+
+            if (closed)
+                throw new IOException("Task journal is closed");
+
+            wait();
+        }
+
+        return ids;
+    }
+
+    /**
+     * Marks the task of the given id completed, so it is no longer replayed.
+     */
+    synchronized void ack(long id)
+    {
+        Location location = live.remove(id);
+        if (location == null || closed)
+            return;
+
+        location.segment.release(location.size);
+
+        try {
+            append(ACK, id, new byte[0]);
+
+        } catch (IOException e) {
+            LOG.error(LogPattern.EXIT_FAIL, "Ack Journaled Task", e.getClass(), e.getMessage());
+
+        }
+    }
+
+    /**
+     * @return the tasks journaled but never acked, by id in the order they
+     * were put. Records that no longer deserialize are logged and acked.
+     */
+    synchronized Map<Long, Task> recover()
+    {
+        Map<Long, Task> recovered = new LinkedHashMap<>();
+
+        for (Map.Entry<Long, Location> entry : new TreeMap<>(live).entrySet()) {
+            byte[] payload = entry.getValue().read();
+
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+                recovered.put(entry.getKey(), (Task) in.readObject());
+
+            } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                LOG.error(LogPattern.EXIT_FAIL, "Recover Journaled Task", e.getClass(), e.getMessage());
+                ack(entry.getKey());
+
+            }
+        }
+
+        return recovered;
+    }
+
+    /**
+     * @return number of tasks journaled but not yet acked
+     */
+    synchronized int getLiveCount()
+    {
+        return live.size();
+    }
+
+    /**
+     * @return number of segment files making up the journal
+     */
+    synchronized int getSegmentCount()
+    {
+        return segments.size();
+    }
+
+    /**
+     * Forces every record to disk and stops the flusher. Acks after closing
+     * are dropped, their tasks being replayed by the next journal.
+     */
+    void close()
+    {
+        synchronized (this) {
+            if (closed)
+                return;
+
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            flusher.join();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+        }
+
+        synchronized (this) {
+            for (Segment segment : segments)
+                segment.close();
+        }
+    }
+
+    private Location append(byte type, long id, byte[] payload) throws IOException
+    {
+        int size = HEADER_SIZE + payload.length;
+
+        if (size > segmentSize)
+            throw new IOException("Task of " + payload.length + " bytes does not fit a journal segment");
+
+        Segment current = segments.peekLast();
+
+        if (current.position + size > segmentSize) {
+            current = Segment.create(segmentPath(nextSegmentNumber()), segmentSize);
+            segments.addLast(current);
+        }
+
+        Location location = current.write(type, id, payload);
+
+        dirtySegments.add(current);
+        appendedSeq++;
+
+        return location;
+    }
+
+    private void flushLoop()
+    {
+        while (true) {
+            List<Segment> dirty;
+            long          target;
+
+            synchronized (this) {
+                if (!closed && appendedSeq == durableSeq)
+                    waitQuietly(IDLE_MILLIS);
+
+                target = appendedSeq;
+                dirty  = new ArrayList<>(dirtySegments);
+                dirtySegments.clear();
+            }
+
+            // forced outside the lock so puts keep appending to the next commit
+            for (Segment segment : dirty)
+                segment.force();
+
+            synchronized (this) {
+                durableSeq = target;
+                notifyAll();
+
+                if (closed)
+                    return;
+
+                try {
+                    compact();
+
+                } catch (IOException e) {
+                    LOG.error(LogPattern.EXIT_FAIL, "Compact Task Journal", e.getClass(), e.getMessage());
+                    failure = e;
+
+                }
+            }
+        }
+    }
+
+    private void waitQuietly(long millis)
+    {
+        try {
+            wait(millis);
+
+        } catch (InterruptedException e) {
+            closed = true;
+
+        }
+    }
+
+    /**
+     * Deletes the oldest segments once none of their tasks is live anymore,
+     * copying the live tasks of a mostly acked oldest segment forward first.
+     * Segments are deleted oldest first only, so no ack is ever deleted while
+     * the put it acks survives.
+     */
+    private void compact() throws IOException
+    {
+        while (segments.size() > 1) {
+            Segment oldest = segments.peekFirst();
+
+            if (oldest.liveCount > 0) {
+                if (oldest.liveBytes * 4 > segmentSize)
+                    return;
+
+                relocate(oldest);
+            }
+
+            segments.pollFirst();
+            dirtySegments.remove(oldest);
+            oldest.delete();
+        }
+    }
+
+    private void relocate(Segment segment) throws IOException
+    {
+        for (Map.Entry<Long, Location> entry : live.entrySet()) {
+            Location location = entry.getValue();
+
+            if (location.segment == segment) {
+                segment.release(location.size);
+                entry.setValue(append(PUT, entry.getKey(), location.read()));
+            }
+        }
+
+        // copies must be on disk before the segment holding the originals goes
+        for (Segment dirty : dirtySegments)
+            dirty.force();
+
+        dirtySegments.clear();
+        durableSeq = appendedSeq;
+    }
+
+    private void replay() throws IOException
+    {
+        TreeMap<Long, Path> paths = new TreeMap<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream)
+                paths.put(segmentNumber(path), path);
+        }
+
+        for (Path path : paths.values()) {
+            Segment segment = Segment.open(path);
+            segments.addLast(segment);
+
+            while (true) {
+                Location location = segment.next();
+                if (location == null)
+                    break;
+
+                nextId = Math.max(nextId, location.id + 1);
+
+                if (location.type == PUT) {
+                    Location previous = live.put(location.id, location);
+
+                    // a put copied forward by compaction replaces the original
+                    if (previous != null)
+                        previous.segment.release(previous.size);
+
+                    segment.retain(location.size);
+
+                } else {
+                    Location acked = live.remove(location.id);
+
+                    if (acked != null)
+                        acked.segment.release(acked.size);
+
+                }
+            }
+        }
+
+        LOG.info("Task journal {} replayed, {} tasks not acked", directory, live.size());
+    }
+
+    private long nextSegmentNumber()
+    {
+        Segment last = segments.peekLast();
+
+        return last == null ? 0 : segmentNumber(last.path) + 1;
+    }
+
+    private Path segmentPath(long number)
+    {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private static long segmentNumber(Path path)
+    {
+        String fileName = path.getFileName().toString();
+
+        return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static int crc(long id, byte[] payload)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putLong(0, id).array());
+        crc.update(payload);
+
+        return (int) crc.getValue();
+    }
+
+    private static class Segment
+    {
+        private final Path             path;
+        private final FileChannel      channel;
+        private final MappedByteBuffer buffer;
+
+        private int  position;
+        private int  liveCount;
+        private long liveBytes;
+
+        private Segment(Path path, FileChannel channel, int size) throws IOException
+        {
+            this.path      = path;
+            this.channel   = channel;
+            this.buffer    = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            this.position  = 0;
+            this.liveCount = 0;
+            this.liveBytes = 0;
+        }
+
+        static Segment create(Path path, int size) throws IOException
+        {
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            return new Segment(path, channel, size);
+        }
+
+        static Segment open(Path path) throws IOException
+        {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            return new Segment(path, channel, (int) channel.size());
+        }
+
+        Location write(byte type, long id, byte[] payload)
+        {
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + HEADER_SIZE);
+            view.put(payload);
+
+            buffer.putLong(position + 1, id);
+            buffer.putInt(position + 9, payload.length);
+            buffer.putInt(position + 13, crc(id, payload));
+            buffer.put(position, type);
+
+            Location location = new Location(this, position, type, id, HEADER_SIZE + payload.length);
+
+            position += location.size;
+
+            if (type == PUT)
+                retain(location.size);
+
+            return location;
+        }
+
+        /**
+         * @return the record at the current position, or null past the last
+         * complete record
+         */
+        Location next()
+        {
+            if (position + HEADER_SIZE > buffer.capacity())
+                return null;
+
+            byte type = buffer.get(position);
+            if (type != PUT && type != ACK)
+                return null;
+
+            long id     = buffer.getLong(position + 1);
+            int  length = buffer.getInt(position + 9);
+
+            if (length < 0 || position + HEADER_SIZE + length > buffer.capacity())
+                return null;
+
+            Location location = new Location(this, position, type, id, HEADER_SIZE + length);
+
+            // a record torn by a crash ends the segment
+            if (buffer.getInt(position + 13) != crc(id, location.read()))
+                return null;
+
+            position += location.size;
+
+            return location;
+        }
+
+        void retain(int size)
+        {
+            liveCount++;
+            liveBytes += size;
+        }
+
+        void release(int size)
+        {
+            liveCount--;
+            liveBytes -= size;
+        }
+
+        void force()
+        {
+            buffer.force();
+        }
+
+        void close()
+        {
+            try {
+                channel.close();
+
+            } catch (IOException e) {
+                LOG.error(LogPattern.EXIT_FAIL, "Close Journal Segment", e.getClass(), e.getMessage());
+
+            }
+        }
+
+        void delete() throws IOException
+        {
+            close();
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static class Location
+    {
+        private final Segment segment;
+        private final int     offset;
+        private final byte    type;
+        private final long    id;
+        private final int     size;
+
+        Location(Segment segment, int offset, byte type, long id, int size)
+        {
+            this.segment = segment;
+            this.offset  = offset;
+            this.type    = type;
+            this.id      = id;
+            this.size    = size;
+        }
+
+        byte[] read()
+        {
+            byte[]     payload = new byte[size - HEADER_SIZE];
+            ByteBuffer view    = segment.buffer.duplicate();
+
+            view.position(offset + HEADER_SIZE);
+            view.get(payload);
+
+            return payload;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.worker.def.Task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queueing engine behind a {@link TaskWorkerPool}, handing tasks put by any
+ * thread over to the pool's workers.
+ */
+interface TaskQueue
+{
+    /**
+     * @return true if the task was queued
+     */
+    boolean offer(Task task) throws InterruptedException;
+
+    /**
+     * @return the tasks that could not be queued, empty if every task was
+     * queued
+     */
+    default List<Task> offerAll(Collection<? extends Task> tasks) throws InterruptedException
+    {
+        List<Task> rejected = new ArrayList<>();
+
+        for (Task task : tasks)
+            if (!offer(task))
+                rejected.add(task);
+
+        return rejected;
+    }
+
+    /**
+     * Queues a task spawned by a worker, close to that worker when the engine
+     * supports it.
+     */
+    default boolean offerLocal(int workerIndex, Task task) throws InterruptedException
+    {
+        return offer(task);
+    }
+
+    /**
+     * @return the next task for the given worker, or null once the timeout
+     * elapses
+     */
+    Task poll(int workerIndex, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Waits up to the timeout for a first task, then keeps taking tasks for up
+     * to fillNanos until the batch holds maxBatch tasks.
+     *
+     * @return number of tasks added to the batch
+     */
+    default int pollBatch(int workerIndex, Collection<Task> batch, int maxBatch, long fillNanos,
+                          long timeout, TimeUnit unit) throws InterruptedException
+    {
+        Task task = poll(workerIndex, timeout, unit);
+        if (task == null)
+            return 0;
+
+        batch.add(task);
+
+        int  taken    = 1;
+        long deadline = System.nanoTime() + fillNanos;
+
+        while (taken < maxBatch) {
+            task = poll(workerIndex, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (task == null)
+                break;
+
+            batch.add(task);
+            taken++;
+        }
+
+        return taken;
+    }
+
+    /**
+     * @return the queued task least worth keeping, the oldest unless the
+     * engine orders tasks otherwise, removed from the queue, or null if the
+     * queue is empty
+     */
+    Task evict();
+
+    /**
+     * @return true if the engine records the queue wait time of each task
+     * itself, otherwise the pool wraps queued tasks to time them
+     */
+    default boolean recordsWait()
+    {
+        return false;
+    }
+
+    int size();
+
+    /**
+     * @return every queued task, removed from the queue
+     */
+    List<Task> drain();
+
+    /**
+     * Called once a task taken from the queue ran, or was dropped for having
+     * expired.
+     */
+    default void completed(Task task)
+    {
+    }
+
+    /**
+     * @return queue wait time of the tasks taken so far by priority, empty
+     * unless the engine dispatches by priority
+     */
+    default Map<Integer, QueueWaitStats> getWaitStats()
+    {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Releases what the engine holds onto once the pool is done with it.
+     */
+    default void close()
+    {
+    }
+}
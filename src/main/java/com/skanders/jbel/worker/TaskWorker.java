@@ -16,32 +16,91 @@
 
 package com.skanders.jbel.worker;
 
+import com.skanders.jbel.def.LogPattern;
 import com.skanders.jbel.result.Result;
 import com.skanders.jbel.worker.def.Task;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+
 class TaskWorker extends Worker
 {
     private static final Logger LOG = LoggerFactory.getLogger(TaskWorker.class);
 
     private TaskWorkerPool workerPool;
+    private int            workerIndex;
 
-    TaskWorker(String name, TaskWorkerPool workerPool)
+    TaskWorker(String name, TaskWorkerPool workerPool, int workerIndex)
     {
         super(name);
-        this.workerPool = workerPool;
+        this.workerPool  = workerPool;
+        this.workerIndex = workerIndex;
+    }
+
+    TaskWorkerPool getWorkerPool()
+    {
+        return workerPool;
+    }
+
+    int getWorkerIndex()
+    {
+        return workerIndex;
     }
 
     @Override
     protected void runTask()
     {
-        Task task = workerPool.takeTask();
-        if (task == null)
+        if (workerPool.isBatching()) {
+            runBatch();
             return;
+        }
+
+        Task task = workerPool.takeTask(workerIndex);
+        if (task == null) {
+            if (workerPool.isDrained())
+                finish();
+
+            return;
+        }
+
+        workerPool.execute(name, task);
+    }
+
+    private void runBatch()
+    {
+        List<Task> batch = workerPool.takeBatch(workerIndex);
+        if (batch.isEmpty()) {
+            if (workerPool.isDrained())
+                finish();
+
+            return;
+        }
+
+        workerPool.executeBatch(name, batch);
+    }
+
+    /**
+     * A task throwing gets a Result of its exception, rather than taking down
+     * the worker running it.
+     */
+    static Result execute(String name, Task task)
+    {
+        LOG.trace("{}Attempting Request", name);
+
+        Result result;
+
+        try {
+            result = task.executeTask();
+
+        } catch (RuntimeException e) {
+            LOG.error(LogPattern.EXIT_FAIL, name + "Task", e.getClass(), e.getMessage());
+            result = Result.exception(e);
+
+        }
+
+        LOG.trace("{}Has received a result of: {}", name, result.message());
 
-        LOG.info(name + "Attempting Request");
-        Result result = task.executeTask();
-        LOG.info(name + "Has received a result of: " + result.message());
+        return result;
     }
 }
@@ -16,70 +16,896 @@
 
 package com.skanders.jbel.worker;
 
+import com.skanders.jbel.def.SkandersException;
+import com.skanders.jbel.def.SkandersResult;
+import com.skanders.jbel.def.Verify;
+import com.skanders.jbel.result.Result;
+import com.skanders.jbel.worker.def.BatchTask;
+import com.skanders.jbel.worker.def.PriorityTask;
+import com.skanders.jbel.worker.def.RateLimitedTask;
 import com.skanders.jbel.worker.def.Task;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TaskWorkerPool
 {
     private static final Logger LOG = LoggerFactory.getLogger(TaskWorkerPool.class);
 
-    private ArrayList<TaskWorker> taskWorkers;
-    private BlockingQueue<Task>   taskQueue;
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private ArrayList<Worker> taskWorkers;
+    private TaskQueue         taskQueue;
+    private TaskAdmission     taskAdmission;
+    private AtomicInteger     activeCount;
+    private AtomicLong        expiredCount;
+    private AtomicLong        retryCount;
+
+    private ConcurrentHashMap<Object, KeyedTaskRun> keyedRuns;
+    private Map<Object, TokenBucket>                rateLimits;
+    private Set<RequeuedTask>                       deferred;
+    private RetryPolicy                             retryPolicy;
+    private DeadLetterQueue                         deadLetters;
+
+    private TaskWorkerPoolMetrics metrics;
 
     private Integer workerCount;
     private String  name;
+    private boolean virtualThreads;
+    private int     maxBatchSize;
+    private long    maxBatchWaitNanos;
 
-    private TaskWorkerPool(String name, int workerCount)
+    private volatile boolean         shutdown;
+    private volatile boolean         aborted;
+    private volatile WorkerScheduler timer;
+
+    TaskWorkerPool(TaskWorkerPoolFactory factory)
     {
-        this.name        = name;
-        this.workerCount = workerCount;
+        this.name           = factory.getName();
+        this.workerCount    = factory.getWorkerCount();
+        this.virtualThreads = factory.isVirtualThreads();
+
+        this.maxBatchSize      = factory.getMaxBatchSize();
+        this.maxBatchWaitNanos = factory.getMaxBatchWait().toNanos();
 
-        taskQueue   = new LinkedBlockingQueue<>();
-        taskWorkers = new ArrayList<>();
+        metrics = new TaskWorkerPoolMetrics(this);
+
+        taskQueue     = factory.newTaskQueue(metrics::recordWait);
+        taskAdmission = factory.newTaskAdmission(taskQueue.size(), this::runOnCaller);
+        taskWorkers   = new ArrayList<>();
+        activeCount   = new AtomicInteger();
+        expiredCount  = new AtomicLong();
+        retryCount    = new AtomicLong();
+        keyedRuns     = new ConcurrentHashMap<>();
+        rateLimits    = factory.newRateLimits();
+        deferred      = ConcurrentHashMap.newKeySet();
+        retryPolicy   = factory.getRetryPolicy();
+        deadLetters   = factory.newDeadLetterQueue();
+        timer         = null;
+
+        shutdown = false;
+        aborted  = false;
 
         initPool();
     }
 
     public static TaskWorkerPool create(String name, int workerCount)
     {
-        return new TaskWorkerPool(name, workerCount);
+        return TaskWorkerPoolFactory.newInstance(name, workerCount).build();
     }
 
     private void initPool()
     {
+        if (virtualThreads) {
+            taskWorkers.add(new VirtualTaskWorker(name, this, workerCount));
+            return;
+        }
+
         for (int i = 0; i < workerCount; i++)
-             taskWorkers.add(new TaskWorker(name, this));
+             taskWorkers.add(new TaskWorker(name, this, i));
     }
 
-    Task takeTask()
+    /**
+     * Waits a poll interval at most, so workers notice a shutdown while idle.
+     * Tasks whose deadline passed while queued are dropped here.
+     */
+    Task takeTask(int workerIndex)
     {
+        if (aborted)
+            return null;
+
         try {
-            return taskQueue.take();
+            Task task = taskQueue.poll(workerIndex, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+            if (task == null)
+                return null;
+
+            taken(Collections.singletonList(task));
+
+            return dequeued(task);
         } catch (InterruptedException e) {
-            LOG.error("Failed to take task from task queue");
+            if (!shutdown)
+                LOG.error("Failed to take task from task queue");
+
+            return null;
+        }
+    }
+
+    boolean isBatching()
+    {
+        return maxBatchSize > 1;
+    }
+
+    /**
+     * Takes up to the pool's max batch size of tasks in one go.
+     *
+     * @return the tasks taken, empty once a poll interval elapsed without any
+     */
+    List<Task> takeBatch(int workerIndex)
+    {
+        if (aborted)
+            return Collections.emptyList();
+
+        List<Task> queued = new ArrayList<>(maxBatchSize);
+
+        try {
+            taskQueue.pollBatch(workerIndex, queued, maxBatchSize, maxBatchWaitNanos,
+                    POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            if (!shutdown)
+                LOG.error("Failed to take tasks from task queue");
+        }
+
+        taken(queued);
+
+        List<Task> batch = new ArrayList<>(queued.size());
+
+        for (Task task : queued) {
+            Task dequeued = dequeued(task);
+
+            if (dequeued != null)
+                batch.add(dequeued);
+        }
+
+        return batch;
+    }
+
+    /**
+     * Releases the capacity held by queued tasks, which tasks queued again by
+     * the pool itself do not hold.
+     */
+    private void taken(List<Task> tasks)
+    {
+        int count = 0;
+
+        for (Task task : tasks)
+            if (!(task instanceof RequeuedTask))
+                count++;
+
+        taskAdmission.taken(count);
+    }
+
+    private Task timed(Task task)
+    {
+        return taskQueue.recordsWait() ? task : new TimedTask(task);
+    }
+
+    /**
+     * @return the task to run, or null if it expired while queued or was
+     * deferred by its rate limit. A retried task keeps its wrapper, telling
+     * the pool which attempt it runs.
+     */
+    private Task dequeued(Task task)
+    {
+        if (task instanceof TimedTask && !taskQueue.recordsWait())
+            metrics.recordWait(System.nanoTime() - ((TimedTask) task).getQueuedNanos());
+
+        Task unwrapped = TimedTask.unwrap(task);
+
+        if (isExpired(task)) {
+            taskQueue.completed(unwrapped);
             return null;
         }
+
+        if (task instanceof RequeuedTask && ((RequeuedTask) task).getBucket() != null)
+            ((RequeuedTask) task).getBucket().recordRun();
+
+        else if (isDeferred(task))
+            return null;
+
+        return RequeuedTask.attemptOf(task) > 1 ? task : unwrapped;
+    }
+
+    /**
+     * Takes a token for the task, or defers it until the token it reserved
+     * is due, without holding a worker meanwhile.
+     */
+    private boolean isDeferred(Task task)
+    {
+        if (rateLimits.isEmpty())
+            return false;
+
+        Task        unwrapped = TimedTask.unwrap(task);
+        Object      rateKey   = unwrapped instanceof RateLimitedTask
+                ? ((RateLimitedTask) unwrapped).getRateKey()
+                : unwrapped.getClass();
+        TokenBucket bucket    = rateLimits.get(rateKey);
+
+        if (bucket == null)
+            return false;
+
+        long delay = bucket.reserve();
+
+        if (delay == 0) {
+            bucket.recordRun();
+            return false;
+        }
+
+        defer(new RequeuedTask(unwrapped, bucket, RequeuedTask.attemptOf(task)), delay);
+        return true;
+    }
+
+    /**
+     * Holds the task outside the queue until the delay elapses.
+     */
+    private void defer(RequeuedTask requeued, long delayNanos)
+    {
+        deferred.add(requeued);
+        getTimer().schedule(() -> requeue(requeued), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void requeue(RequeuedTask requeued)
+    {
+        if (aborted || !deferred.contains(requeued))
+            return;
+
+        try {
+            taskQueue.offer(requeued);
+        } catch (InterruptedException e) {
+            LOG.error("Failed to put deferred task back into task queue");
+        } finally {
+            // removed once queued, so the pool never looks drained in between
+            deferred.remove(requeued);
+        }
+    }
+
+    private boolean isExpired(Task task)
+    {
+        if (!(task instanceof PriorityTask))
+            return false;
+
+        PriorityTask priorityTask = (PriorityTask) task;
+        Instant      deadline     = priorityTask.getDeadline();
+
+        if (deadline == null || Instant.now().isBefore(deadline))
+            return false;
+
+        expiredCount.incrementAndGet();
+        LOG.debug("{} Task Worker Pool dropped task expired at {}", name, deadline);
+
+        priorityTask.onExpired();
+        return true;
+    }
+
+    void execute(String workerName, Task task)
+    {
+        Task   unwrapped = TimedTask.unwrap(task);
+        Result result    = null;
+
+        try {
+            result = execute(workerName, unwrapped, 1);
+        } finally {
+            finished(unwrapped, RequeuedTask.attemptOf(task), result);
+        }
+    }
+
+    private Result execute(String workerName, Task task, int taskCount)
+    {
+        long   start  = System.nanoTime();
+        Result result = null;
+
+        activeCount.addAndGet(taskCount);
+
+        try {
+            result = TaskWorker.execute(workerName, task);
+        } finally {
+            activeCount.addAndGet(-taskCount);
+            metrics.recordExecution(workerName, result, System.nanoTime() - start, taskCount);
+        }
+
+        return result;
+    }
+
+    /**
+     * Runs a task the RejectionPolicy hands back to the thread putting it.
+     */
+    private void runOnCaller(Task task)
+    {
+        execute(Thread.currentThread().getName() + " ", task);
+    }
+
+    /**
+     * Retries a failed task when the RetryPolicy allows it, otherwise gives
+     * up on it as a dead letter. Keyed runs handle the failures of their
+     * tasks themselves. A submitted task's future is completed here, on the
+     * thread which ran it.
+     */
+    private void finished(Task task, int attempt, Result result)
+    {
+        boolean failed = result != null && result.notValid() && !(task instanceof KeyedTaskRun);
+
+        if (failed && retry(task, attempt, result))
+            return;
+
+        taskQueue.completed(task);
+
+        // the dead letter is in place by the time a submitter sees the failure
+        if (failed && (retryPolicy != null || deadLetters.getCapacity() > 0))
+            deadLetters.add(new DeadLetter(SubmittedTask.unwrap(task), result, attempt));
+
+        if (task instanceof SubmittedTask)
+            ((SubmittedTask) task).complete(result == null ? Result.EXCEPTION : result);
+    }
+
+    private boolean retry(Task task, int attempt, Result result)
+    {
+        if (retryPolicy == null || aborted || attempt >= retryPolicy.getMaxAttempts() || !retryPolicy.isRetryable(result))
+            return false;
+
+        LOG.debug("{} Task Worker Pool retrying task after attempt {}: {}", name, attempt, result.message());
+
+        retryCount.incrementAndGet();
+        defer(new RequeuedTask(task, null, attempt + 1), retryPolicy.getBackoffNanos(attempt));
+
+        return true;
+    }
+
+    /**
+     * Executes the tasks of each batch group together through a single
+     * {@link BatchTask#executeBatch(List)}, other tasks one after another.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void executeBatch(String workerName, List<Task> tasks)
+    {
+        Map<Object, List<BatchTask>> groups   = new LinkedHashMap<>();
+        Map<Task, Task>              owners   = new IdentityHashMap<>();
+        Map<Task, Integer>           attempts = new IdentityHashMap<>();
+
+        for (Task task : tasks) {
+            Task unwrapped = TimedTask.unwrap(task);
+            Task submitted = SubmittedTask.unwrap(unwrapped);
+
+            // a submitted task whose future is already done runs alone, to be skipped
+            boolean skipped = unwrapped instanceof SubmittedTask && ((SubmittedTask) unwrapped).isDone();
+
+            if (submitted instanceof BatchTask && !skipped) {
+                BatchTask batchTask = (BatchTask) submitted;
+                groups.computeIfAbsent(batchTask.getBatchGroup(), group -> new ArrayList<>()).add(batchTask);
+                owners.put(batchTask, unwrapped);
+                attempts.put(batchTask, RequeuedTask.attemptOf(task));
+            } else {
+                execute(workerName, task);
+            }
+        }
+
+        // a failed group is retried task by task, to be batched again
+        for (List<BatchTask> group : groups.values()) {
+            Result result = null;
+
+            try {
+                result = execute(workerName, () -> group.get(0).executeBatch(group), group.size());
+            } finally {
+                for (BatchTask task : group)
+                    finished(owners.get(task), attempts.get(task), result);
+            }
+        }
+    }
+
+    /**
+     * @return true once the pool is shut down and no task is left queued
+     */
+    boolean isDrained()
+    {
+        return shutdown && taskQueue.size() == 0 && deferred.isEmpty();
     }
 
     public boolean putTask(Task task)
     {
+        return offerTask(task) == Result.VALID;
+    }
+
+    /**
+     * Puts a task, applying the pool's RejectionPolicy if its queue is full.
+     *
+     * @return Result.VALID if the task was queued or ran on the caller,
+     * otherwise SkandersResult.TASK_REJECTED or TASK_QUEUE_TIMEOUT
+     */
+    public Result offerTask(Task task)
+    {
+        if (shutdown) {
+            metrics.recordOffer(SkandersResult.TASK_POOL_SHUTDOWN);
+            return SkandersResult.TASK_POOL_SHUTDOWN;
+        }
+
+        return admit(task);
+    }
+
+    private Result admit(Task task)
+    {
+        Result result;
+
         try {
-            taskQueue.put(task);
-            return true;
+            result = taskAdmission.admit(timed(task), taskQueue);
         } catch (InterruptedException e) {
             LOG.error("Failed to put task into task queue");
+            Thread.currentThread().interrupt();
+            result = Result.exception(e);
+        }
+
+        metrics.recordOffer(result);
+        return result;
+    }
+
+    /**
+     * Puts a task, its Result reported through the returned future rather
+     * than only logged. The future is completed with the task's final Result,
+     * once any retry is done, directly on the thread which ran it, so
+     * dependent stages should be quick or made async. Cancelling the future
+     * before the task starts skips it.
+     *
+     * @return a future of the task's Result, completed right away with the
+     * rejection Result if the task was not queued
+     */
+    public CompletableFuture<Result> submit(@Nonnull Task task)
+    {
+        Verify.notNull(task, "task cannot be null");
+
+        SubmittedTask submitted = new SubmittedTask(task);
+        Result        result    = offerTask(submitted);
+
+        if (result.notValid())
+            submitted.complete(result);
+
+        return submitted.getFuture();
+    }
+
+    /**
+     * @param timeout time after which the future is completed with
+     *                SkandersResult.TASK_TIMEOUT, the task being skipped if
+     *                it has not started by then
+     * @see #submit(Task)
+     */
+    public CompletableFuture<Result> submit(@Nonnull Task task, @Nonnull Duration timeout)
+    {
+        Verify.notNull(timeout, "timeout cannot be null");
+
+        CompletableFuture<Result> future = submit(task);
+
+        if (future.isDone())
+            return future;
+
+        WorkerTimeout expiry = getTimer().schedule(() -> future.complete(SkandersResult.TASK_TIMEOUT),
+                timeout.toNanos(), TimeUnit.NANOSECONDS);
+
+        future.whenComplete((result, e) -> expiry.cancel());
+
+        return future;
+    }
+
+    /**
+     * Submits every task and waits for all of them.
+     *
+     * @return the Result of each task, in order
+     */
+    public List<Result> invokeAll(@Nonnull Collection<? extends Task> tasks) throws InterruptedException
+    {
+        Verify.notNull(tasks, "tasks cannot be null");
+
+        List<CompletableFuture<Result>> futures = new ArrayList<>(tasks.size());
+
+        for (Task task : tasks)
+            futures.add(submit(task));
+
+        return awaitAll(futures);
+    }
+
+    /**
+     * Submits every task and waits for all of them, tasks not done within
+     * the timeout getting SkandersResult.TASK_TIMEOUT.
+     *
+     * @return the Result of each task, in order
+     */
+    public List<Result> invokeAll(@Nonnull Collection<? extends Task> tasks, @Nonnull Duration timeout)
+            throws InterruptedException
+    {
+        Verify.notNull(tasks, "tasks cannot be null");
+        Verify.notNull(timeout, "timeout cannot be null");
+
+        List<CompletableFuture<Result>> futures = new ArrayList<>(tasks.size());
+
+        for (Task task : tasks)
+            futures.add(submit(task, timeout));
+
+        return awaitAll(futures);
+    }
+
+    /**
+     * Submits every task and waits for the first to succeed, skipping those
+     * not started by then.
+     *
+     * @return Result.VALID once a task succeeded, otherwise the Result of the
+     * last task to fail
+     */
+    public Result invokeAny(@Nonnull Collection<? extends Task> tasks) throws InterruptedException
+    {
+        return invokeAny(tasks, null);
+    }
+
+    /**
+     * @param timeout time after which tasks not done are given up on, with
+     *                SkandersResult.TASK_TIMEOUT
+     * @see #invokeAny(Collection)
+     */
+    public Result invokeAny(@Nonnull Collection<? extends Task> tasks, Duration timeout) throws InterruptedException
+    {
+        Verify.notNull(tasks, "tasks cannot be null");
+        Verify.notTrue(tasks.isEmpty(), "tasks cannot be empty");
+
+        CompletableFuture<Result>       first   = new CompletableFuture<>();
+        List<CompletableFuture<Result>> futures = new ArrayList<>(tasks.size());
+        AtomicInteger                   left    = new AtomicInteger(tasks.size());
+
+        for (Task task : tasks) {
+            CompletableFuture<Result> future = timeout == null ? submit(task) : submit(task, timeout);
+
+            future.whenComplete((result, e) -> {
+                if (result == Result.VALID || left.decrementAndGet() == 0)
+                    first.complete(result == null ? Result.exception(new SkandersException(e)) : result);
+            });
+
+            futures.add(future);
+        }
+
+        Result result = await(first);
+
+        for (CompletableFuture<Result> future : futures)
+            future.cancel(false);
+
+        return result;
+    }
+
+    private static List<Result> awaitAll(List<CompletableFuture<Result>> futures) throws InterruptedException
+    {
+        List<Result> results = new ArrayList<>(futures.size());
+
+        for (CompletableFuture<Result> future : futures)
+            results.add(await(future));
+
+        return results;
+    }
+
+    private static Result await(CompletableFuture<Result> future) throws InterruptedException
+    {
+        try {
+            return future.get();
+        } catch (CancellationException e) {
+            return SkandersResult.TASK_CANCELLED;
+        } catch (ExecutionException e) {
+            return Result.exception(e);
+        }
+    }
+
+    /**
+     * Puts a task that runs only once every task put before it under the same
+     * key has run, tasks of different keys running concurrently. The tasks
+     * waiting behind a key are held by that key rather than the pool's queue,
+     * so they do not count against its capacity, and a key is dropped as soon
+     * as it has no task left.
+     *
+     * @param key  key whose tasks run one after another, compared by equals
+     * @param task task to run
+     * @return true if the task was queued
+     */
+    public boolean putTask(@Nonnull Object key, Task task)
+    {
+        Verify.notNull(key, "key cannot be null");
+
+        if (shutdown)
+            return false;
+
+        return KeyedTaskRun.add(keyedRuns, key, task, this::putTask);
+    }
+
+    /**
+     * @return number of keys with tasks queued or running
+     */
+    public int getKeyCount()
+    {
+        return keyedRuns.size();
+    }
+
+    /**
+     * Puts every task at once, letting the engine amortize the hand over.
+     */
+    public boolean putTasks(Collection<? extends Task> tasks)
+    {
+        if (shutdown)
+            return false;
+
+        if (taskAdmission.isBounded()) {
+            boolean queued = true;
+
+            for (Task task : tasks)
+                queued &= putTask(task);
+
+            return queued;
+        }
+
+        List<Task> timed = new ArrayList<>(tasks.size());
+
+        for (Task task : tasks)
+            timed.add(timed(task));
+
+        try {
+            int rejected = taskQueue.offerAll(timed).size();
+            int queued   = timed.size() - rejected;
+
+            taskAdmission.queued(queued);
+            metrics.recordSubmitted(queued);
+            metrics.recordRejected(rejected);
+
+            return rejected == 0;
+        } catch (InterruptedException e) {
+            LOG.error("Failed to put tasks into task queue");
+            return false;
+        }
+    }
+
+    /**
+     * Puts a subtask spawned by a running task. Called from one of this pool's
+     * workers with work stealing enabled, the subtask goes onto that worker's
+     * own deque, otherwise it is put like any other task. Forks into a bounded
+     * pool are admitted like any other task. Workers may still fork while the
+     * pool drains.
+     */
+    public boolean forkTask(Task task)
+    {
+        Thread current = Thread.currentThread();
+
+        if (!(current instanceof TaskWorker) || ((TaskWorker) current).getWorkerPool() != this)
+            return putTask(task);
+
+        if (aborted)
+            return false;
+
+        if (taskAdmission.isBounded())
+            return admit(task) == Result.VALID;
+
+        try {
+            boolean queued = taskQueue.offerLocal(((TaskWorker) current).getWorkerIndex(), timed(task));
+            taskAdmission.queued(1);
+            metrics.recordSubmitted(1);
+
+            return queued;
+        } catch (InterruptedException e) {
+            LOG.error("Failed to fork task into task queue");
+            return false;
+        }
+    }
+
+    public int getQueueSize()
+    {
+        return taskQueue.size();
+    }
+
+    /**
+     * @return number of tasks currently running
+     */
+    public int getActiveCount()
+    {
+        return activeCount.get();
+    }
+
+    public TaskWorkerPoolMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * @return number of tasks dropped for having expired while queued
+     */
+    public long getExpiredCount()
+    {
+        return expiredCount.get();
+    }
+
+    /**
+     * @return number of retries scheduled for failed tasks
+     */
+    public long getRetryCount()
+    {
+        return retryCount.get();
+    }
+
+    /**
+     * @return the tasks given up on, empty unless the pool was built with a
+     * RetryPolicy or dead letters
+     */
+    public DeadLetterQueue getDeadLetterQueue()
+    {
+        return deadLetters;
+    }
+
+    /**
+     * @return rate limit of each rate key, empty unless the pool was built
+     * with rate limits
+     */
+    public Map<Object, TokenBucket> getRateLimits()
+    {
+        return rateLimits;
+    }
+
+    /**
+     * @return number of tasks waiting outside the queue for their rate limit
+     * or their next attempt
+     */
+    public int getDeferredCount()
+    {
+        return deferred.size();
+    }
+
+    /**
+     * @return queue wait time of the tasks taken so far by priority, empty
+     * unless the pool was built with priorities
+     */
+    public Map<Integer, QueueWaitStats> getQueueWaitByPriority()
+    {
+        return taskQueue.getWaitStats();
+    }
+
+    /**
+     * Stops accepting tasks, letting the workers drain every queued task
+     * before they finish.
+     */
+    public synchronized void shutdown()
+    {
+        if (shutdown)
+            return;
+
+        LOG.info("{} Task Worker Pool shutting down, {} tasks queued", name, taskQueue.size());
+
+        shutdown = true;
+    }
+
+    /**
+     * Stops accepting tasks, interrupts the running ones and hands back every
+     * task still queued. Futures of submitted tasks handed back are completed
+     * with SkandersResult.TASK_POOL_SHUTDOWN.
+     *
+     * @return the tasks that were queued and never ran
+     */
+    public synchronized List<Task> shutdownNow()
+    {
+        shutdown = true;
+        aborted  = true;
+
+        List<Task> drained = taskQueue.drain();
+        List<Task> queued  = new ArrayList<>();
+
+        taken(drained);
+
+        for (Task task : drained)
+            queued.add(SubmittedTask.abandon(task, SkandersResult.TASK_POOL_SHUTDOWN));
+
+        for (RequeuedTask requeued : deferred)
+            if (deferred.remove(requeued))
+                queued.add(SubmittedTask.abandon(requeued, SkandersResult.TASK_POOL_SHUTDOWN));
+
+        LOG.info("{} Task Worker Pool aborting, {} tasks returned", name, queued.size());
+
+        for (Worker tw : taskWorkers)
+            tw.abort();
+
+        close();
+
+        return queued;
+    }
+
+    /**
+     * Blocks until every worker has finished after a shutdown, or the timeout
+     * elapses.
+     *
+     * @param timeout maximum time to wait
+     * @return true if the pool terminated within the timeout
+     */
+    public boolean awaitTermination(@Nonnull Duration timeout) throws InterruptedException
+    {
+        Verify.notNull(timeout, "timeout cannot be null");
+
+        long deadline = System.nanoTime() + timeout.toNanos();
+
+        for (Worker tw : taskWorkers) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return isTerminated();
+
+            TimeUnit.NANOSECONDS.timedJoin(tw, remaining);
+        }
+
+        if (!isTerminated())
             return false;
+
+        close();
+        return true;
+    }
+
+    /**
+     * @return the scheduler deferring tasks and timing out futures, created
+     * on first use
+     */
+    private WorkerScheduler getTimer()
+    {
+        WorkerScheduler current = timer;
+        if (current != null)
+            return current;
+
+        synchronized (this) {
+            if (timer == null)
+                timer = WorkerScheduler.createDaemon(name, 0);
+
+            return timer;
         }
     }
 
+    private synchronized void close()
+    {
+        taskQueue.close();
+
+        if (timer != null)
+            timer.shutdown();
+    }
+
+    public boolean isShutdown()
+    {
+        return shutdown;
+    }
+
+    /**
+     * @return true once the pool is shut down and every worker has finished
+     */
+    public boolean isTerminated()
+    {
+        if (!shutdown)
+            return false;
+
+        for (Worker tw : taskWorkers)
+            if (tw.isAlive())
+                return false;
+
+        return true;
+    }
+
     public void startPool()
     {
-        for (TaskWorker tw : taskWorkers)
+        for (Worker tw : taskWorkers)
             tw.start();
     }
 }
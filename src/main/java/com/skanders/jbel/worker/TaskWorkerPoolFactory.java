@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.def.Verify;
+import com.skanders.jbel.worker.def.RejectionPolicy;
+import com.skanders.jbel.worker.def.Task;
+import com.skanders.jbel.worker.def.WaitStrategy;
+import com.skanders.jbel.worker.def.WatermarkListener;
+
+import javax.annotation.Nonnull;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Builds a {@link TaskWorkerPool}, selecting the engine its workers take
+ * tasks from.
+ */
+public class TaskWorkerPoolFactory
+{
+    private final String                   name;
+    private final int                      workerCount;
+    private final Map<Object, TokenBucket> rateLimits;
+
+    private boolean           workStealing;
+    private boolean           virtualThreads;
+    private Duration          agingInterval;
+    private int               ringSize;
+    private WaitStrategy      waitStrategy;
+    private int               maxBatchSize;
+    private Duration          maxBatchWait;
+    private int               capacity;
+    private RejectionPolicy   rejectionPolicy;
+    private Duration          offerTimeout;
+    private int               highWatermark;
+    private int               lowWatermark;
+    private WatermarkListener watermarkListener;
+    private Path              journalDirectory;
+    private int               journalSegmentSize;
+    private RetryPolicy       retryPolicy;
+    private int               deadLetterCapacity;
+
+    private TaskWorkerPoolFactory(@Nonnull String name, int workerCount)
+    {
+        Verify.notNull(name, "name cannot be null");
+        Verify.isTrue(workerCount > 0, "workerCount must be greater than 0");
+
+        this.name        = name;
+        this.workerCount = workerCount;
+        this.rateLimits  = new LinkedHashMap<>();
+
+        this.workStealing      = false;
+        this.virtualThreads    = false;
+        this.agingInterval     = null;
+        this.ringSize          = 0;
+        this.waitStrategy      = null;
+        this.maxBatchSize      = 1;
+        this.maxBatchWait      = Duration.ZERO;
+        this.capacity          = 0;
+        this.rejectionPolicy   = RejectionPolicy.BLOCK;
+        this.offerTimeout      = null;
+        this.highWatermark     = 0;
+        this.lowWatermark      = 0;
+        this.watermarkListener = null;
+        this.journalDirectory  = null;
+
+        this.journalSegmentSize = TaskJournal.DEFAULT_SEGMENT_SIZE;
+        this.retryPolicy        = null;
+        this.deadLetterCapacity = 0;
+    }
+
+    public static TaskWorkerPoolFactory newInstance(@Nonnull String name, int workerCount)
+    {
+        return new TaskWorkerPoolFactory(name, workerCount);
+    }
+
+    /**
+     * Gives every worker its own deque, idle workers stealing from the others,
+     * instead of sharing a single queue.
+     *
+     * @return this instance of TaskWorkerPoolFactory
+     * @see TaskWorkerPool#forkTask(com.skanders.jbel.worker.def.Task)
+     */
+    public TaskWorkerPoolFactory withWorkStealing()
+    {
+        this.workStealing = true;
+
+        return this;
+    }
+
+    /**
+     * Runs every task on its own virtual thread instead of a fixed set of
+     * workers, workerCount capping how many run at once. Suits tasks spending
+     * most of their time blocked on I/O. JDKs older than 21 fall back to
+     * platform threads.
+     *
+     * @return this instance of TaskWorkerPoolFactory
+     */
+    public TaskWorkerPoolFactory withVirtualThreads()
+    {
+        this.virtualThreads = true;
+
+        return this;
+    }
+
+    /**
+     * Dispatches {@link com.skanders.jbel.worker.def.PriorityTask}s by
+     * priority rather than in arrival order. A task waiting one aging
+     * interval gains one priority level, so low priority tasks still run
+     * under a steady flow of higher priority ones.
+     *
+     * @param agingInterval wait worth one priority level
+     * @return this instance of TaskWorkerPoolFactory
+     */
+    public TaskWorkerPoolFactory withPriorities(@Nonnull Duration agingInterval)
+    {
+        Verify.notNull(agingInterval, "agingInterval cannot be null");
+        Verify.isTrue(!agingInterval.isNegative() && !agingInterval.isZero(), "agingInterval must be positive");
+
+        this.agingInterval = agingInterval;
+
+        return this;
+    }
+
+    /**
+     * Hands tasks over through a preallocated lock free ring buffer instead of
+     * a linked queue, for the lowest handoff latency. Puts wait for room while
+     * the ring is full, and no thread is ever parked or woken by another,
+     * waiting threads polling the ring according to the wait strategy.
+     *
+     * @param ringSize     number of task slots, rounded up to a power of two
+     * @param waitStrategy how waiting threads poll the ring
+     * @return this instance of TaskWorkerPoolFactory
+     */
+    public TaskWorkerPoolFactory withRingBuffer(int ringSize, @Nonnull WaitStrategy waitStrategy)
+    {
+        Verify.isTrue(ringSize > 1, "ringSize must be greater than 1");
+        Verify.notNull(waitStrategy, "waitStrategy cannot be null");
+
+        this.ringSize     = ringSize;
+        this.waitStrategy = waitStrategy;
+
+        return this;
+    }
+
+    /**
+     * Lets each worker take up to maxBatchSize tasks per wake up, waiting up
+     * to maxBatchWait for the batch to fill. Tasks of a batch sharing a
+     * {@link com.skanders.jbel.worker.def.BatchTask} group are executed
+     * together, other tasks one after another.
+     *
+     * @param maxBatchSize most tasks taken per wake up
+     * @param maxBatchWait how long to wait for a batch to fill once its first
+     *                     task is taken
+     * @return this instance of TaskWorkerPoolFactory
+     */
+    public TaskWorkerPoolFactory withBatching(int maxBatchSize, @Nonnull Duration maxBatchWait)
+    {
+        Verify.isTrue(maxBatchSize > 0, "maxBatchSize must be greater than 0");
+        Verify.notNull(maxBatchWait, "maxBatchWait cannot be null");
+        Verify.notTrue(maxBatchWait.isNegative(), "maxBatchWait cannot be negative");
+
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchWait = maxBatchWait;
+
+        return this;
+    }
+
+    /**
+     * Bounds the number of queued tasks, tasks put while the queue is full
+     * being handled by the given policy.
+     *
+     * @param capacity maximum number of queued tasks
+     * @param policy   what to do with tasks put while the queue is full
+     * @return this instance of TaskWorkerPoolFactory
+     * @see #withOfferTimeout(Duration)
+     */
+    public TaskWorkerPoolFactory withCapacity(int capacity, @Nonnull RejectionPolicy policy)
+    {
+        Verify.isTrue(capacity > 0, "capacity must be greater than 0");
+        Verify.notNull(policy, "policy cannot be null");
+
+        this.capacity        = capacity;
+        this.rejectionPolicy = policy;
+
+        return this;
+    }
+
+    /**
+     * @param offerTimeout how long a put waits for room with {@link
+     *                     RejectionPolicy#BLOCK_TIMEOUT}
+     * @return this instance of TaskWorkerPoolFactory
+     */
+    public TaskWorkerPoolFactory withOfferTimeout(@Nonnull Duration offerTimeout)
+    {
+        Verify.notNull(offerTimeout, "offerTimeout cannot be null");
+        Verify.notTrue(offerTimeout.isNegative(), "offerTimeout cannot be negative");
+
+        this.offerTimeout = offerTimeout;
+
+        return this;
+    }
+
+    /**
+     * Notifies the listener once the queue size reaches the high watermark
+     * and again once it falls back to the low watermark.
+     *
+     * @param highWatermark queue size signalling producers to slow down
+     * @param lowWatermark  queue size signalling producers to resume
+     * @param listener      listener notified on each crossing
+     * @return this instance of TaskWorkerPoolFactory
+     */
+    public TaskWorkerPoolFactory withWatermarks(int highWatermark, int lowWatermark, @Nonnull WatermarkListener listener)
+    {
+        Verify.isTrue(highWatermark > 0, "highWatermark must be greater than 0");
+        Verify.isTrue(lowWatermark >= 0 && lowWatermark < highWatermark, "lowWatermark must be between 0 and highWatermark");
+        Verify.notNull(listener, "listener cannot be null");
+
+        this.highWatermark     = highWatermark;
+        this.lowWatermark      = lowWatermark;
+        this.watermarkListener = listener;
+
+        return this;
+    }
+
+    /**
+     * Journals every {@link java.io.Serializable} task put into the pool to
+     * memory mapped segment files in the given directory, a task being acked
+     * once it ran or expired. Tasks never acked, including those handed back
+     * by {@link TaskWorkerPool#shutdownNow()}, are queued again by the next
+     * pool built on the directory, giving at least once execution across
+     * crashes and restarts. Puts return once their task is on disk, the
+     * tasks of concurrent puts being forced together.
+     * <p>
+     * Tasks that are not Serializable are queued without being journaled.
+     * The journal is closed by shutdownNow, or once {@link
+     * TaskWorkerPool#awaitTermination(Duration)} sees the pool terminated.
+     *
+     * @param directory directory holding the journal, created if missing
+     * @return this instance of TaskWorkerPoolFactory
+     */
+    public TaskWorkerPoolFactory withJournal(@Nonnull Path directory)
+    {
+        return withJournal(directory, TaskJournal.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param directory   directory holding the journal, created if missing
+     * @param segmentSize size in bytes of each segment file, bounding the
+     *                    size of a serialized task
+     * @return this instance of TaskWorkerPoolFactory
+     * @see #withJournal(Path)
+     */
+    public TaskWorkerPoolFactory withJournal(@Nonnull Path directory, int segmentSize)
+    {
+        Verify.notNull(directory, "directory cannot be null");
+        Verify.isTrue(segmentSize > 0, "segmentSize must be greater than 0");
+
+        this.journalDirectory   = directory;
+        this.journalSegmentSize = segmentSize;
+
+        return this;
+    }
+
+    /**
+     * Limits how often tasks of a rate key start, across every worker. The
+     * rate key of a task is the one of a {@link
+     * com.skanders.jbel.worker.def.RateLimitedTask}, otherwise its class. A
+     * task coming up over the limit is not rejected but deferred until a
+     * token is due for it, outside the queue, leaving its worker free for
+     * other tasks meanwhile.
+     *
+     * @param rateKey          rate key, a task class or the key returned by
+     *                         RateLimitedTask.getRateKey()
+     * @param permitsPerSecond steady rate tasks of the key may start at
+     * @param burst            tasks of the key that may start at once after
+     *                         an idle period
+     * @return this instance of TaskWorkerPoolFactory
+     * @see TaskWorkerPool#getRateLimits()
+     */
+    public TaskWorkerPoolFactory withRateLimit(@Nonnull Object rateKey, double permitsPerSecond, int burst)
+    {
+        Verify.notNull(rateKey, "rateKey cannot be null");
+        Verify.isTrue(permitsPerSecond > 0, "permitsPerSecond must be greater than 0");
+        Verify.isTrue(burst > 0, "burst must be greater than 0");
+
+        rateLimits.put(rateKey, new TokenBucket(permitsPerSecond, burst));
+
+        return this;
+    }
+
+    /**
+     * Runs failed tasks again according to the policy, each retry waiting out
+     * its backoff outside the queue rather than on a worker. Tasks failing
+     * their last attempt, or failing with a Result the policy does not retry,
+     * become dead letters.
+     *
+     * @param retryPolicy when and how soon to retry failed tasks
+     * @return this instance of TaskWorkerPoolFactory
+     * @see #withDeadLetters(int)
+     */
+    public TaskWorkerPoolFactory withRetry(@Nonnull RetryPolicy retryPolicy)
+    {
+        Verify.notNull(retryPolicy, "retryPolicy cannot be null");
+
+        this.retryPolicy = retryPolicy;
+
+        return this;
+    }
+
+    /**
+     * Keeps the last tasks given up on for inspection, a task failing being
+     * given up on right away unless the pool retries it.
+     *
+     * @param capacity most dead letters kept, the oldest being dropped first
+     * @return this instance of TaskWorkerPoolFactory
+     * @see TaskWorkerPool#getDeadLetterQueue()
+     */
+    public TaskWorkerPoolFactory withDeadLetters(int capacity)
+    {
+        Verify.isTrue(capacity > 0, "capacity must be greater than 0");
+
+        this.deadLetterCapacity = capacity;
+
+        return this;
+    }
+
+    public TaskWorkerPool build()
+    {
+        return new TaskWorkerPool(this);
+    }
+
+    String getName()
+    {
+        return name;
+    }
+
+    int getWorkerCount()
+    {
+        return workerCount;
+    }
+
+    boolean isVirtualThreads()
+    {
+        return virtualThreads;
+    }
+
+    int getMaxBatchSize()
+    {
+        Verify.notTrue(virtualThreads && maxBatchSize > 1, "Batching cannot be used with virtual threads");
+
+        return maxBatchSize;
+    }
+
+    Duration getMaxBatchWait()
+    {
+        return maxBatchWait;
+    }
+
+    RetryPolicy getRetryPolicy()
+    {
+        return retryPolicy;
+    }
+
+    DeadLetterQueue newDeadLetterQueue()
+    {
+        return new DeadLetterQueue(deadLetterCapacity);
+    }
+
+    /**
+     * @return a fresh bucket for each rate limit, so pools built from the same
+     * factory do not share tokens
+     */
+    Map<Object, TokenBucket> newRateLimits()
+    {
+        Map<Object, TokenBucket> buckets = new LinkedHashMap<>();
+
+        for (Map.Entry<Object, TokenBucket> entry : rateLimits.entrySet())
+            buckets.put(entry.getKey(),
+                    new TokenBucket(entry.getValue().getPermitsPerSecond(), entry.getValue().getBurst()));
+
+        return Collections.unmodifiableMap(buckets);
+    }
+
+    TaskAdmission newTaskAdmission(int restored, Consumer<Task> callerRuns)
+    {
+        Verify.notTrue(rejectionPolicy == RejectionPolicy.BLOCK_TIMEOUT && offerTimeout == null,
+                "offerTimeout is required with " + RejectionPolicy.BLOCK_TIMEOUT);
+
+        long offerTimeoutNanos = offerTimeout == null ? 0 : offerTimeout.toNanos();
+
+        return new TaskAdmission(capacity, rejectionPolicy, offerTimeoutNanos,
+                highWatermark, lowWatermark, watermarkListener, restored, callerRuns);
+    }
+
+    TaskQueue newTaskQueue(LongConsumer waitRecorder)
+    {
+        Verify.notTrue(workStealing && virtualThreads, "Work stealing cannot be used with virtual threads");
+        Verify.notTrue(workStealing && agingInterval != null, "Work stealing cannot be used with priorities");
+        Verify.notTrue(ringSize > 0 && (workStealing || agingInterval != null),
+                "A ring buffer cannot be used with work stealing or priorities");
+        Verify.notTrue(ringSize > 0 && journalDirectory != null,
+                "A ring buffer cannot be used with a journal, replayed tasks could overflow it");
+
+        TaskQueue engine = newEngine(waitRecorder);
+
+        if (journalDirectory == null)
+            return engine;
+
+        return new JournalTaskQueue(engine, new TaskJournal(name, journalDirectory, journalSegmentSize));
+    }
+
+    private TaskQueue newEngine(LongConsumer waitRecorder)
+    {
+        if (ringSize > 0)
+            return new RingBufferTaskQueue(ringSize, waitStrategy, waitRecorder);
+
+        if (agingInterval != null)
+            return new PriorityTaskQueue(agingInterval.toNanos());
+
+        if (workStealing)
+            return new StealingTaskQueue(workerCount);
+
+        return new BlockingTaskQueue();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.skanders.jbel.convert.Mapper;
+import com.skanders.jbel.result.Result;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a {@link TaskWorkerPool}: queue depth, queue wait and execution
+ * time histograms, throughput, results by code and per worker utilization.
+ * Recording only touches striped counters, {@link #toJson()} takes a snapshot.
+ */
+public class TaskWorkerPoolMetrics
+{
+    private final TaskWorkerPool                        pool;
+    private final long                                  startNanos;
+    private final LongAdder                             submitted;
+    private final LongAdder                             rejected;
+    private final LongAdder                             completed;
+    private final LatencyHistogram                      waitTime;
+    private final LatencyHistogram                      executionTime;
+    private final ConcurrentHashMap<Integer, LongAdder> resultCounts;
+    private final ConcurrentHashMap<String, LongAdder>  busyNanos;
+
+    TaskWorkerPoolMetrics(TaskWorkerPool pool)
+    {
+        this.pool          = pool;
+        this.startNanos    = System.nanoTime();
+        this.submitted     = new LongAdder();
+        this.rejected      = new LongAdder();
+        this.completed     = new LongAdder();
+        this.waitTime      = new LatencyHistogram();
+        this.executionTime = new LatencyHistogram();
+        this.resultCounts  = new ConcurrentHashMap<>();
+        this.busyNanos     = new ConcurrentHashMap<>();
+    }
+
+    void recordOffer(Result result)
+    {
+        if (result == Result.VALID)
+            submitted.increment();
+        else
+            rejected.increment();
+    }
+
+    void recordSubmitted(int count)
+    {
+        submitted.add(count);
+    }
+
+    void recordRejected(int count)
+    {
+        rejected.add(count);
+    }
+
+    void recordWait(long nanos)
+    {
+        waitTime.record(nanos);
+    }
+
+    /**
+     * @param taskCount number of tasks executed together, more than one for
+     *                  a batch
+     */
+    void recordExecution(String workerName, Result result, long nanos, int taskCount)
+    {
+        completed.add(taskCount);
+        executionTime.record(nanos);
+
+        busyNanos.computeIfAbsent(workerName, name -> new LongAdder()).add(nanos);
+
+        if (result != null)
+            resultCounts.computeIfAbsent(result.code(), code -> new LongAdder()).add(taskCount);
+    }
+
+    public long getSubmittedCount()
+    {
+        return submitted.sum();
+    }
+
+    public long getRejectedCount()
+    {
+        return rejected.sum();
+    }
+
+    public long getCompletedCount()
+    {
+        return completed.sum();
+    }
+
+    public LatencyHistogram getWaitTime()
+    {
+        return waitTime;
+    }
+
+    public LatencyHistogram getExecutionTime()
+    {
+        return executionTime;
+    }
+
+    /**
+     * @return tasks completed per second since the pool was created
+     */
+    public double getThroughput()
+    {
+        double seconds = (System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+
+        return seconds <= 0 ? 0 : completed.sum() / seconds;
+    }
+
+    /**
+     * @return share of the time since the pool was created each worker spent
+     * running tasks. The virtual thread dispatcher reports the mean number of
+     * tasks running at once instead, which can exceed 1.
+     */
+    public Map<String, Double> getUtilization()
+    {
+        double uptime = System.nanoTime() - startNanos;
+
+        Map<String, Double> utilization = new ConcurrentHashMap<>();
+
+        for (Map.Entry<String, LongAdder> entry : busyNanos.entrySet())
+            utilization.put(entry.getKey().trim(), uptime <= 0 ? 0 : entry.getValue().sum() / uptime);
+
+        return utilization;
+    }
+
+    public ObjectNode toJson()
+    {
+        ObjectNode node = Mapper.newNode();
+
+        node.put("queueDepth", pool.getQueueSize());
+        node.put("active", pool.getActiveCount());
+        node.put("submitted", getSubmittedCount());
+        node.put("rejected", getRejectedCount());
+        node.put("completed", getCompletedCount());
+        node.put("expired", pool.getExpiredCount());
+        node.put("throughputPerSecond", getThroughput());
+
+        node.set("waitTime", waitTime.toJson());
+        node.set("executionTime", executionTime.toJson());
+
+        ObjectNode results = node.putObject("results");
+        for (Map.Entry<Integer, LongAdder> entry : resultCounts.entrySet())
+            results.put(String.valueOf(entry.getKey()), entry.getValue().sum());
+
+        ObjectNode utilization = node.putObject("utilization");
+        for (Map.Entry<String, Double> entry : getUtilization().entrySet())
+            utilization.put(entry.getKey(), entry.getValue());
+
+        Map<Integer, QueueWaitStats> byPriority = pool.getQueueWaitByPriority();
+        if (!byPriority.isEmpty())
+            node.set("waitByPriority", Mapper.forJson().valueToTree(byPriority));
+
+        return node;
+    }
+}
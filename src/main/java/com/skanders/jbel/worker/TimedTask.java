@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.result.Result;
+import com.skanders.jbel.worker.def.PriorityTask;
+import com.skanders.jbel.worker.def.Task;
+
+import java.time.Instant;
+
+/**
+ * Wraps a queued task with the time it was queued, for the wait time metrics
+ * of a TaskWorkerPool. Priorities and deadlines are those of the wrapped
+ * task, so engines and expiry see through the wrapper.
+ */
+class TimedTask implements PriorityTask
+{
+    private final Task task;
+    private final long queuedNanos;
+
+    TimedTask(Task task)
+    {
+        this.task        = task;
+        this.queuedNanos = System.nanoTime();
+    }
+
+    static Task unwrap(Task task)
+    {
+        return task instanceof TimedTask ? ((TimedTask) task).task : task;
+    }
+
+    Task getTask()
+    {
+        return task;
+    }
+
+    long getQueuedNanos()
+    {
+        return queuedNanos;
+    }
+
+    @Override
+    public int getPriority()
+    {
+        return task instanceof PriorityTask ? ((PriorityTask) task).getPriority() : DEFAULT_PRIORITY;
+    }
+
+    @Override
+    public Instant getDeadline()
+    {
+        return task instanceof PriorityTask ? ((PriorityTask) task).getDeadline() : null;
+    }
+
+    @Override
+    public void onExpired()
+    {
+        if (task instanceof PriorityTask)
+            ((PriorityTask) task).onExpired();
+    }
+
+    @Override
+    public Result executeTask()
+    {
+        return task.executeTask();
+    }
+
+    @Override
+    public String toString()
+    {
+        return task.toString();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.worker;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate limit of one rate key of a TaskWorkerPool, refilled at a steady rate up
+ * to its burst. Shared by every worker, so the rate is spread across them in
+ * the order tasks come up.
+ * <p>
+ * A task coming up with no token left borrows one from the future and is
+ * deferred until that token is due, so deferred tasks are granted tokens in
+ * the order they came up and never all wake at once.
+ */
+public class TokenBucket
+{
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double    permitsPerSecond;
+    private final int       burst;
+    private final double    nanosPerToken;
+    private final LongAdder runCount;
+    private final LongAdder deferredCount;
+
+    private double tokens;
+    private long   refilledNanos;
+    private long   windowStartNanos;
+    private int    windowRuns;
+    private double effectiveRate;
+
+    TokenBucket(double permitsPerSecond, int burst)
+    {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst            = burst;
+        this.nanosPerToken    = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+        this.runCount         = new LongAdder();
+        this.deferredCount    = new LongAdder();
+        this.tokens           = burst;
+        this.refilledNanos    = System.nanoTime();
+        this.windowStartNanos = refilledNanos;
+        this.windowRuns       = 0;
+        this.effectiveRate    = 0;
+    }
+
+    /**
+     * Takes a token, borrowing it from the future if none is left.
+     *
+     * @return nanos until the token taken is due, 0 if one was available
+     */
+    synchronized long reserve()
+    {
+        long now = System.nanoTime();
+
+        tokens        = Math.min(burst, tokens + (now - refilledNanos) / nanosPerToken) - 1;
+        refilledNanos = now;
+
+        if (tokens >= 0)
+            return 0;
+
+        deferredCount.increment();
+        return (long) Math.ceil(-tokens * nanosPerToken);
+    }
+
+    /**
+     * Counts a task of this key starting, for the effective rate.
+     */
+    synchronized void recordRun()
+    {
+        long now = System.nanoTime();
+
+        if (now - windowStartNanos >= WINDOW_NANOS) {
+            effectiveRate    = windowRuns * (double) WINDOW_NANOS / (now - windowStartNanos);
+            windowStartNanos = now;
+            windowRuns       = 0;
+        }
+
+        windowRuns++;
+        runCount.increment();
+    }
+
+    @JsonProperty("permitsPerSecond")
+    public double getPermitsPerSecond()
+    {
+        return permitsPerSecond;
+    }
+
+    @JsonProperty("burst")
+    public int getBurst()
+    {
+        return burst;
+    }
+
+    /**
+     * @return number of tasks started under this limit
+     */
+    @JsonProperty("runCount")
+    public long getRunCount()
+    {
+        return runCount.sum();
+    }
+
+    /**
+     * @return number of tasks deferred for having come up with no token left
+     */
+    @JsonProperty("deferredCount")
+    public long getDeferredCount()
+    {
+        return deferredCount.sum();
+    }
+
+    /**
+     * @return tasks started per second over the last second measured, 0 once
+     * no task started for a whole second
+     */
+    @JsonProperty("effectiveRate")
+    public synchronized double getEffectiveRate()
+    {
+        return System.nanoTime() - windowStartNanos >= 2 * WINDOW_NANOS ? 0 : effectiveRate;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.worker.def.Task;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatches the tasks of a TaskWorkerPool onto a new virtual thread each,
+ * at most maxConcurrency of them running at once.
+ */
+class VirtualTaskWorker extends Worker
+{
+    private TaskWorkerPool  workerPool;
+    private ExecutorService executor;
+    private Semaphore       running;
+
+    VirtualTaskWorker(String name, TaskWorkerPool workerPool, int maxConcurrency)
+    {
+        super(name);
+        this.workerPool = workerPool;
+        this.executor   = VirtualThreads.newExecutor(name);
+        this.running    = new Semaphore(maxConcurrency);
+    }
+
+    @Override
+    protected void runTask()
+    {
+        try {
+            running.acquire();
+        } catch (InterruptedException e) {
+            return;
+        }
+
+        Task task = workerPool.takeTask(0);
+        if (task == null) {
+            running.release();
+
+            if (workerPool.isDrained())
+                finish();
+
+            return;
+        }
+
+        executor.execute(() -> {
+            try {
+                workerPool.execute(name, task);
+            } finally {
+                running.release();
+            }
+        });
+    }
+
+    /**
+     * Dispatches until finished, then waits for the tasks still running so
+     * joining this worker also waits for them.
+     */
+    @Override
+    public void run()
+    {
+        super.run();
+
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    void abort()
+    {
+        super.abort();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors running every task on its own virtual thread when the
+ * running JDK has them (21+). The library targets Java 8, so they are looked
+ * up reflectively, older JDKs falling back to a cached pool of daemon platform
+ * threads.
+ */
+final class VirtualThreads
+{
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualThreads.class);
+
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+    private static final Method PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual       = null;
+        Method builderName     = null;
+        Method builderFactory  = null;
+        Method perTaskExecutor = null;
+
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+
+            ofVirtual       = Thread.class.getMethod("ofVirtual");
+            builderName     = builder.getMethod("name", String.class, long.class);
+            builderFactory  = builder.getMethod("factory");
+            perTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+
+        } catch (ReflectiveOperationException e) {
+            LOG.debug("Virtual threads unavailable, falling back to platform threads");
+
+        }
+
+        OF_VIRTUAL        = ofVirtual;
+        BUILDER_NAME      = builderName;
+        BUILDER_FACTORY   = builderFactory;
+        PER_TASK_EXECUTOR = perTaskExecutor;
+    }
+
+    private VirtualThreads()
+    {
+    }
+
+    /**
+     * @return true if the running JDK supports virtual threads
+     */
+    static boolean isAvailable()
+    {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @param name prefix of the name of each thread
+     * @return an executor starting a new thread per task
+     */
+    static ExecutorService newExecutor(String name)
+    {
+        if (isAvailable()) {
+            try {
+                Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name + " ", 0L);
+
+                return (ExecutorService) PER_TASK_EXECUTOR.invoke(null, BUILDER_FACTORY.invoke(builder));
+
+            } catch (ReflectiveOperationException e) {
+                LOG.warn("Failed to create virtual thread executor, falling back to platform threads: {}", e.getMessage());
+
+            }
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, name + " " + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
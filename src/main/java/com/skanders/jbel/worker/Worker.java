@@ -49,6 +49,15 @@ abstract class Worker extends Thread
         LOG.info(name + "Has been requested to finish");
     }
 
+    /**
+     * Finishes this worker, interrupting whatever it is running.
+     */
+    void abort()
+    {
+        finish();
+        interrupt();
+    }
+
     WorkerState getWorkerState()
     {
         return state;
@@ -57,11 +66,19 @@ abstract class Worker extends Thread
     @Override
     public void run()
     {
+        if (state == WorkerState.STOPPED)
+            return;
+
         state = WorkerState.WORKING;
         LOG.info(name + "Has started");
 
-        while (state == WorkerState.WORKING)
-            runTask();
+        while (state == WorkerState.WORKING) {
+            try {
+                runTask();
+            } catch (RuntimeException e) {
+                LOG.error(name + "Has survived a failure, caused by {}: {}", e.getClass(), e.getMessage());
+            }
+        }
 
         state = WorkerState.STOPPED;
         LOG.info(name + "Has finished");
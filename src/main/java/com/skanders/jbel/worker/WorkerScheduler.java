@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.def.LogPattern;
+import com.skanders.jbel.def.Verify;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A scheduler shared by many periodic workers.
+ * <p>
+ * Timing is kept by a hashed timing wheel driven by a single timer thread:
+ * scheduling and cancelling are constant time however many tasks are pending,
+ * at the cost of firing up to one tick late. Expired tasks are handed to a
+ * fixed pool of work threads, or run on the timer thread itself when the
+ * scheduler has no work threads, which suits a scheduler owned by a single
+ * worker.
+ * <p>
+ * The timer thread starts along with the first scheduled task. From then on
+ * its threads keep the JVM alive until it is shut down, unless created
+ * through {@link #createDaemon(String, int)}.
+ */
+public class WorkerScheduler
+{
+    private static final Logger LOG = LoggerFactory.getLogger(WorkerScheduler.class);
+
+    private static final Duration DEFAULT_TICK       = Duration.ofMillis(10);
+    private static final int      DEFAULT_WHEEL_SIZE = 512;
+    private static final int      MAX_TRANSFER       = 100_000;
+
+    private final String                     name;
+    private final long                       tickNanos;
+    private final ArrayList<WorkerTimeout>[] wheel;
+    private final int                        mask;
+    private final Queue<WorkerTimeout>       pending;
+    private final ExecutorService            workers;
+    private final Thread                     timer;
+    private final AtomicBoolean              started;
+    private final long                       startNanos;
+
+    private volatile boolean shutdown;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private WorkerScheduler(
+            @Nonnull String name, int workThreads, @Nonnull Duration tick, int wheelSize, boolean daemon)
+    {
+        Verify.notNull(name, "name cannot be null");
+        Verify.notNull(tick, "tick cannot be null");
+        Verify.isTrue(workThreads >= 0, "workThreads cannot be negative");
+        Verify.isTrue(!tick.isNegative() && !tick.isZero(), "tick must be positive");
+
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+
+        this.name      = name;
+        this.tickNanos = tick.toNanos();
+        this.wheel     = new ArrayList[size];
+        this.mask      = size - 1;
+        this.pending   = new ConcurrentLinkedQueue<>();
+        this.shutdown  = false;
+
+        for (int i = 0; i < size; i++)
+            wheel[i] = new ArrayList<>();
+
+        AtomicInteger threadCount = new AtomicInteger();
+
+        this.workers = workThreads == 0 ? null : Executors.newFixedThreadPool(workThreads, runnable -> {
+            Thread thread = new Thread(runnable, name + " [" + threadCount.getAndIncrement() + "]");
+            thread.setDaemon(daemon);
+            return thread;
+        });
+
+        this.startNanos = System.nanoTime();
+        this.timer      = new Thread(this::runTimer, name + " Timer");
+        this.started    = new AtomicBoolean();
+        this.timer.setDaemon(daemon);
+    }
+
+    /**
+     * @param name        name of the scheduler threads
+     * @param workThreads number of threads running expired tasks, or 0 to run
+     *                    them on the timer thread
+     * @return an instance of WorkerScheduler
+     */
+    public static WorkerScheduler create(@Nonnull String name, int workThreads)
+    {
+        return new WorkerScheduler(name, workThreads, DEFAULT_TICK, DEFAULT_WHEEL_SIZE, false);
+    }
+
+    /**
+     * Creates a scheduler running on daemon threads, which do not keep the
+     * JVM alive while tasks are still pending.
+     *
+     * @see #create(String, int)
+     */
+    public static WorkerScheduler createDaemon(@Nonnull String name, int workThreads)
+    {
+        return new WorkerScheduler(name, workThreads, DEFAULT_TICK, DEFAULT_WHEEL_SIZE, true);
+    }
+
+    /**
+     * @param name        name of the scheduler threads
+     * @param workThreads number of threads running expired tasks, or 0 to run
+     *                    them on the timer thread
+     * @param tick        resolution of the timing wheel
+     * @param wheelSize   number of buckets of the timing wheel, rounded up to
+     *                    a power of two
+     * @return an instance of WorkerScheduler
+     */
+    public static WorkerScheduler create(@Nonnull String name, int workThreads, @Nonnull Duration tick, int wheelSize)
+    {
+        return new WorkerScheduler(name, workThreads, tick, wheelSize, false);
+    }
+
+    /**
+     * Runs the task once the delay has elapsed.
+     *
+     * @return a handle which can cancel the task
+     */
+    public WorkerTimeout schedule(@Nonnull Runnable task, long delay, @Nonnull TimeUnit unit)
+    {
+        return schedule(task, delay, unit, null);
+    }
+
+    /**
+     * Runs the task on the given executor once the delay has elapsed, allowing
+     * a worker to be isolated from the shared work threads.
+     *
+     * @return a handle which can cancel the task
+     */
+    public WorkerTimeout schedule(@Nonnull Runnable task, long delay, @Nonnull TimeUnit unit, Executor executor)
+    {
+        Verify.notNull(task, "task cannot be null");
+        Verify.notTrue(shutdown, "WorkerScheduler cannot schedule after shutdown");
+
+        long deadline = System.nanoTime() - startNanos + Math.max(0, unit.toNanos(delay));
+
+        WorkerTimeout timeout = new WorkerTimeout(task, executor, deadline);
+        pending.add(timeout);
+
+        if (!started.get() && started.compareAndSet(false, true))
+            timer.start();
+
+        return timeout;
+    }
+
+    /**
+     * Runs the task as soon as a work thread is available.
+     */
+    public void execute(@Nonnull Runnable task)
+    {
+        Verify.notNull(task, "task cannot be null");
+
+        if (workers == null)
+            schedule(task, 0, TimeUnit.NANOSECONDS);
+        else
+            workers.execute(task);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public boolean isShutdown()
+    {
+        return shutdown;
+    }
+
+    /**
+     * Stops the timer and work threads, pending tasks are dropped while running
+     * tasks are left to finish.
+     */
+    public void shutdown()
+    {
+        shutdown = true;
+        LockSupport.unpark(timer);
+
+        if (workers != null)
+            workers.shutdown();
+    }
+
+    private void runTimer()
+    {
+        LOG.info(LogPattern.INIT_DONE, name + " Timer");
+
+        // started late, the wheel picks up at the current tick
+        long tick = (System.nanoTime() - startNanos) / tickNanos;
+
+        while (!shutdown) {
+            long sleep = tickNanos * (tick + 1) - (System.nanoTime() - startNanos);
+
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+                continue;
+            }
+
+            transferPending(tick);
+            expireBucket(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+
+        pending.clear();
+    }
+
+    private void transferPending(long tick)
+    {
+        for (int i = 0; i < MAX_TRANSFER; i++) {
+            WorkerTimeout timeout = pending.poll();
+            if (timeout == null)
+                return;
+
+            if (timeout.isCancelled())
+                continue;
+
+            long expiryTick = Math.max(timeout.deadline / tickNanos, tick);
+
+            timeout.remainingRounds = (expiryTick - tick) / wheel.length;
+            wheel[(int) (expiryTick & mask)].add(timeout);
+        }
+    }
+
+    private void expireBucket(ArrayList<WorkerTimeout> bucket)
+    {
+        int i = 0;
+
+        while (i < bucket.size()) {
+            WorkerTimeout timeout = bucket.get(i);
+
+            if (!timeout.isCancelled() && timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                i++;
+                continue;
+            }
+
+            int last = bucket.size() - 1;
+            bucket.set(i, bucket.get(last));
+            bucket.remove(last);
+
+            if (timeout.expire())
+                dispatch(timeout);
+        }
+    }
+
+    private void dispatch(WorkerTimeout timeout)
+    {
+        Executor executor = timeout.executor != null ? timeout.executor : workers;
+
+        try {
+            if (executor != null) {
+                executor.execute(timeout.task);
+                return;
+            }
+
+            timeout.task.run();
+
+        } catch (RejectedExecutionException e) {
+            LOG.error(LogPattern.EXIT_FAIL, name + " Dispatch", e.getClass(), e.getMessage());
+
+        } catch (RuntimeException e) {
+            LOG.error(LogPattern.EXIT_FAIL, name + " Timer Task", e.getClass(), e.getMessage());
+
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handle of a task scheduled on a {@link WorkerScheduler}.
+ */
+public class WorkerTimeout
+{
+    private static final int INIT      = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED   = 2;
+
+    final Runnable task;
+    final Executor executor;
+    final long     deadline;
+
+    long remainingRounds;
+
+    private final AtomicInteger state;
+
+    WorkerTimeout(Runnable task, Executor executor, long deadline)
+    {
+        this.task     = task;
+        this.executor = executor;
+        this.deadline = deadline;
+        this.state    = new AtomicInteger(INIT);
+    }
+
+    /**
+     * @return true if the task was cancelled before it expired
+     */
+    public boolean cancel()
+    {
+        return state.compareAndSet(INIT, CANCELLED);
+    }
+
+    public boolean isCancelled()
+    {
+        return state.get() == CANCELLED;
+    }
+
+    public boolean isExpired()
+    {
+        return state.get() == EXPIRED;
+    }
+
+    boolean expire()
+    {
+        return state.compareAndSet(INIT, EXPIRED);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker.def;
+
+import com.skanders.jbel.result.Result;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Task that can be executed together with other tasks of its batch group,
+ * letting the handler amortize I/O such as writing one AtSQLBatch for every
+ * task of the batch. A TaskWorkerPool built with batching hands every task of
+ * the same group taken in one wake up to a single {@link #executeBatch(List)}.
+ *
+ * @param <T> the implementing class
+ */
+public interface BatchTask<T extends BatchTask<T>> extends Task
+{
+    /**
+     * @param batch tasks of this task's batch group, this task included
+     * @return Result of the whole batch
+     */
+    Result executeBatch(@Nonnull List<T> batch);
+
+    /**
+     * @return key of the group this task is batched with, its class by default
+     */
+    default Object getBatchGroup()
+    {
+        return getClass();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    default Result executeTask()
+    {
+        return executeBatch(Collections.singletonList((T) this));
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker.def;
+
+/**
+ * How a CycleWorker schedules its next run once a run has finished,
+ * particularly when the run took longer than the period.
+ */
+public enum CycleMode
+{
+    /** Next run a period after the previous schedule, late runs catching up back to back. */
+    FIXED_RATE("Fixed Rate"),
+    /** Next run a period after the previous run finished. */
+    FIXED_DELAY("Fixed Delay"),
+    /** Runs whose schedule passed while the previous run was running are skipped. */
+    SKIP_IF_RUNNING("Skip If Running"),
+    /** Runs whose schedule passed while the previous run was running are coalesced into one immediate run. */
+    COALESCE_MISSED("Coalesce Missed");
+
+    private String name;
+
+    CycleMode(String name)
+    {
+        this.name = name;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.worker.def;
+
+/**
+ * State of one task of a TaskGraph run.
+ */
+public enum GraphNodeState
+{
+    /** Waiting on its dependencies. */
+    PENDING("Pending"),
+    /** Put into the pool, waiting for a worker. */
+    QUEUED("Queued"),
+    RUNNING("Running"),
+    /** Ran and returned Result.VALID. */
+    SUCCEEDED("Succeeded"),
+    /** Ran and returned any other Result, or was rejected by the pool. */
+    FAILED("Failed"),
+    /** Never ran as one of its dependencies failed or was skipped. */
+    SKIPPED("Skipped"),
+    /** Never ran as the run was cancelled. */
+    CANCELLED("Cancelled");
+
+    private String name;
+
+    GraphNodeState(String name)
+    {
+        this.name = name;
+    }
+
+    public boolean isDone()
+    {
+        return this != PENDING && this != QUEUED && this != RUNNING;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker.def;
+
+import com.skanders.jbel.def.Verify;
+import com.skanders.jbel.result.Result;
+
+import javax.annotation.Nonnull;
+import java.time.Instant;
+
+/**
+ * Task carrying a priority and an optional deadline. Tasks with a higher
+ * priority are dispatched first by a TaskWorkerPool built with priorities,
+ * and a task whose deadline has passed before it starts is dropped.
+ */
+public interface PriorityTask extends Task
+{
+    int DEFAULT_PRIORITY = 0;
+
+    /**
+     * @return priority of the task, higher values being dispatched first
+     */
+    int getPriority();
+
+    /**
+     * @return instant after which the task is no longer worth starting, or
+     * null if it never expires
+     */
+    default Instant getDeadline()
+    {
+        return null;
+    }
+
+    /**
+     * Called instead of {@link #executeTask()} when the task is dropped for
+     * having expired in the queue.
+     */
+    default void onExpired()
+    {
+    }
+
+    static PriorityTask of(int priority, @Nonnull Task task)
+    {
+        return of(priority, null, task);
+    }
+
+    static PriorityTask of(int priority, Instant deadline, @Nonnull Task task)
+    {
+        Verify.notNull(task, "task cannot be null");
+
+        return new PriorityTask()
+        {
+            @Override
+            public int getPriority()
+            {
+                return priority;
+            }
+
+            @Override
+            public Instant getDeadline()
+            {
+                return deadline;
+            }
+
+            @Override
+            public Result executeTask()
+            {
+                return task.executeTask();
+            }
+        };
+    }
+}
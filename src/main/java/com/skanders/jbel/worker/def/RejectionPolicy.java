@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker.def;
+
+/**
+ * What a bounded TaskWorkerPool does with a task put while its queue is full.
+ */
+public enum RejectionPolicy
+{
+    /** Blocks the caller until there is room in the queue. */
+    BLOCK("Block"),
+    /** Blocks the caller until there is room or the offer timeout elapses. */
+    BLOCK_TIMEOUT("Block With Timeout"),
+    /** Rejects the task right away. */
+    REJECT("Reject"),
+    /** Drops the oldest queued task to make room for the new one. */
+    DROP_OLDEST("Drop Oldest"),
+    /** Runs the task on the calling thread. */
+    CALLER_RUNS("Caller Runs");
+
+    private String name;
+
+    RejectionPolicy(String name)
+    {
+        this.name = name;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker.def;
+
+/**
+ * How threads of a ring buffer TaskWorkerPool wait for tasks, or for room
+ * when the ring is full, trading CPU for handoff latency.
+ */
+public enum WaitStrategy
+{
+    /** Spins on the ring, lowest latency while burning a core per waiting thread. */
+    BUSY_SPIN("Busy Spin"),
+    /** Yields the CPU between checks of the ring. */
+    YIELD("Yield"),
+    /** Parks for a few microseconds between checks of the ring. */
+    PARK("Park");
+
+    private String name;
+
+    WaitStrategy(String name)
+    {
+        this.name = name;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker.def;
+
+/**
+ * Notified when the queue of a TaskWorkerPool crosses its watermarks, letting
+ * producers throttle before the queue fills up. Called on the thread that
+ * crossed the watermark, so implementations should return quickly.
+ */
+public interface WatermarkListener
+{
+    /**
+     * Called once the queue size reaches the high watermark.
+     */
+    void onHighWatermark(int queueSize);
+
+    /**
+     * Called once the queue size falls back to the low watermark after having
+     * reached the high watermark.
+     */
+    void onLowWatermark(int queueSize);
+}
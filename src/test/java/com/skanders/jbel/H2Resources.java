@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel;
+
+import com.skanders.jbel.atsql.AtSQL;
+import com.skanders.jbel.atsql.AtSQLFactory;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class H2Resources
+{
+    /**
+     * Builds an AtSQL over a private in-memory H2 database kept open until
+     * the JVM exits.
+     */
+    public static AtSQL create(String database)
+    {
+        return factory(database).build();
+    }
+
+    public static AtSQLFactory factory(String database)
+    {
+        return AtSQLFactory.newInstance("sa", "", 60000, 4)
+                .withJdbcUrl("jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1");
+    }
+
+    public static void update(AtSQL atSQL, String... queries)
+    {
+        for (String query : queries)
+            assertFalse(atSQL.createQuery(query).executeUpdate().notValid(), query);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.atsql;
+
+import com.skanders.jbel.H2Resources;
+import com.skanders.jbel.result.Resulted;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class AtSQLLeakTrackerTest
+{
+    @Test
+    public void reclaimTest() throws InterruptedException
+    {
+        AtSQL atSQL = H2Resources.factory("leak_tracker_test")
+                .withLeakDetection(Duration.ofMillis(100))
+                .build();
+
+        AtSQLLeakTracker tracker = atSQL.getLeakTracker();
+
+        try (Resulted<AtSQLResult> closed = atSQL.createQuery("SELECT 1").executeQuery()) {
+            assertFalse(closed.notValid());
+            assertEquals(1, tracker.getHolders().size());
+        }
+
+        assertEquals(0, tracker.getHolders().size());
+
+        leakResult(atSQL);
+        assertEquals(1, tracker.getHolders().size());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (tracker.getReclaimedCount() == 0 && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(50);
+        }
+
+        assertEquals(1, tracker.getReclaimedCount());
+        assertEquals(0, tracker.getHolders().size());
+
+        atSQL.close();
+    }
+
+    private static void leakResult(AtSQL atSQL)
+    {
+        assertFalse(atSQL.createQuery("SELECT 1").executeQuery().notValid());
+    }
+}
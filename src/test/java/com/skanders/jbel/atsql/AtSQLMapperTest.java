@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.atsql;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.skanders.jbel.H2Resources;
+import com.skanders.jbel.result.Resulted;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AtSQLMapperTest
+{
+    private static final String SELECT = "SELECT id, user_name, score, rank, level, extra FROM player ORDER BY id";
+
+    private static AtSQL atSQL;
+
+    @BeforeAll
+    public static void createTable()
+    {
+        atSQL = H2Resources.create("mapper_test");
+
+        H2Resources.update(atSQL,
+                "CREATE TABLE player (id INT NOT NULL PRIMARY KEY, user_name VARCHAR(64) NOT NULL," +
+                        " score INT NULL, rank INT NULL, level VARCHAR(16) NULL, extra VARCHAR(16) NULL)",
+                "INSERT INTO player VALUES (1, 'first', 10, 1, 'HIGH', 'x'), (2, 'second', NULL, NULL, NULL, 'y')");
+    }
+
+    @Test
+    public void creatorTest()
+    {
+        Resulted<List<CreatorPlayer>> resulted = atSQL.createQuery(SELECT).executeQuery(CreatorPlayer.class);
+        assertFalse(resulted.notValid());
+
+        List<CreatorPlayer> players = resulted.value();
+        assertEquals(2, players.size());
+
+        assertEquals(1, players.get(0).id);
+        assertEquals("first", players.get(0).userName);
+        assertEquals(Level.HIGH, players.get(0).level);
+        assertEquals(0, players.get(1).score);
+        assertNull(players.get(1).level);
+    }
+
+    @Test
+    public void setterTest()
+    {
+        Resulted<List<SetterPlayer>> resulted = atSQL.createQuery(SELECT).executeQuery(SetterPlayer.class);
+        assertFalse(resulted.notValid());
+
+        List<SetterPlayer> players = resulted.value();
+
+        assertEquals(1, players.get(0).id);
+        assertEquals("first", players.get(0).name);
+        assertEquals(10, players.get(0).score);
+        assertEquals(Level.HIGH, players.get(0).level);
+        assertEquals(0, players.get(1).score);
+        assertNull(players.get(1).level);
+        assertNull(players.get(0).ignored);
+    }
+
+    @Test
+    public void fieldTest()
+    {
+        try (Resulted<AtSQLResult> resulted = atSQL.createQuery(SELECT).executeQuery()) {
+            assertFalse(resulted.notValid());
+
+            List<FieldPlayer> players = resulted.value().stream(FieldPlayer.class).collect(Collectors.toList());
+
+            assertEquals(2, players.size());
+            assertEquals("first", players.get(0).userName);
+            assertEquals(Integer.valueOf(1), players.get(0).rank);
+            assertNull(players.get(1).rank);
+            assertEquals(0, players.get(1).score);
+            assertEquals(Level.HIGH, players.get(0).level);
+            assertEquals("unmapped", players.get(0).missing);
+        }
+    }
+
+    @Test
+    public void mapperCacheTest()
+    {
+        AtSQLRowMapper<FieldPlayer> mapper = AtSQLMapper.forColumns(FieldPlayer.class, "ID", "USER_NAME");
+
+        assertTrue(mapper == AtSQLMapper.forColumns(FieldPlayer.class, "ID", "USER_NAME"));
+        assertFalse(mapper == AtSQLMapper.forColumns(FieldPlayer.class, "USER_NAME", "ID"));
+    }
+
+    enum Level
+    {
+        LOW, HIGH
+    }
+
+    static class CreatorPlayer
+    {
+        private final int    id;
+        private final String userName;
+        private final int    score;
+        private final Level  level;
+
+        @JsonCreator
+        CreatorPlayer(
+                @JsonProperty("id") int id, @JsonProperty("user_name") String userName,
+                @JsonProperty("score") int score, @JsonProperty("level") Level level)
+        {
+            this.id       = id;
+            this.userName = userName;
+            this.score    = score;
+            this.level    = level;
+        }
+    }
+
+    static class SetterPlayer
+    {
+        private int    id;
+        private String name;
+        private int    score;
+        private Level  level;
+        private String ignored;
+
+        public void setId(int id)
+        {
+            this.id = id;
+        }
+
+        @JsonProperty("userName")
+        public void setName(String name)
+        {
+            this.name = name;
+        }
+
+        public void setScore(int score)
+        {
+            this.score = score;
+        }
+
+        public void setLevel(Level level)
+        {
+            this.level = level;
+        }
+
+        @JsonIgnore
+        public void setExtra(String extra)
+        {
+            this.ignored = extra;
+        }
+    }
+
+    static class FieldPlayer
+    {
+        private int     id;
+        private String  userName;
+        private int     score;
+        private Integer rank;
+        private Level   level;
+        private String  missing = "unmapped";
+    }
+}
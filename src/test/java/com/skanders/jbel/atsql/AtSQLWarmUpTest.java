@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.atsql;
+
+import com.skanders.jbel.H2Resources;
+import com.skanders.jbel.result.Resulted;
+import org.junit.jupiter.api.Test;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AtSQLWarmUpTest
+{
+    @Test
+    public void warmUpTest()
+    {
+        AtSQL atSQL = H2Resources.factory("warm_up_test")
+                .withWarmUp("SELECT 1")
+                .withWarmUpPreparedStatements("SELECT ? FROM DUAL")
+                .build();
+
+        assertTrue(atSQL.getWarmUp().awaitReady(Duration.ofSeconds(5)));
+        assertTrue(atSQL.isReady());
+        assertFalse(atSQL.getWarmUp().getResult().notValid());
+
+        // minimum idle defaults to the pool size of 4, one connection is left to the application
+        assertEquals(3, atSQL.getWarmUp().getConnectionCount());
+
+        try (Resulted<AtSQLResult> resulted = atSQL.createQuery("SELECT 1").executeQuery()) {
+            assertFalse(resulted.notValid());
+        }
+    }
+
+    @Test
+    public void distinctConnectionsTest() throws SQLException
+    {
+        H2Resources.update(H2Resources.create("warm_up_sessions_test"),
+                "CREATE TABLE warm_session (id INT)");
+
+        // more connections than opener threads, each has to be warmed on its own
+        AtSQL atSQL = AtSQLFactory.newInstance("sa", "", 60000, 12)
+                .withJdbcUrl("jdbc:h2:mem:warm_up_sessions_test;DB_CLOSE_DELAY=-1")
+                .withMinimumIdle(10)
+                .withWarmUp("INSERT INTO warm_session SELECT SESSION_ID()")
+                .build();
+
+        assertTrue(atSQL.getWarmUp().awaitReady(Duration.ofSeconds(5)));
+        assertFalse(atSQL.getWarmUp().getResult().notValid());
+        assertEquals(10, atSQL.getWarmUp().getConnectionCount());
+
+        try (Resulted<AtSQLResult> resulted = atSQL
+                .createQuery("SELECT COUNT(*), COUNT(DISTINCT id) FROM warm_session")
+                .executeQuery()) {
+            assertFalse(resulted.notValid());
+            ResultSet resultSet = resulted.value().getResultSet();
+
+            assertTrue(resultSet.next());
+            assertEquals(10, resultSet.getInt(1));
+            assertEquals(10, resultSet.getInt(2));
+        }
+    }
+
+    @Test
+    public void warmUpFailureTest()
+    {
+        AtSQL atSQL = H2Resources.factory("warm_up_failure_test")
+                .withMinimumIdle(2)
+                .withWarmUp("SELECT * FROM missing_table")
+                .build();
+
+        assertTrue(atSQL.getWarmUp().awaitReady(Duration.ofSeconds(5)));
+        assertTrue(atSQL.isReady());
+        assertTrue(atSQL.getWarmUp().getResult().notValid());
+        assertEquals(2, atSQL.getWarmUp().getConnectionCount());
+
+        AtSQL noWarmUp = H2Resources.create("no_warm_up_test");
+
+        assertNull(noWarmUp.getWarmUp());
+        assertTrue(noWarmUp.isReady());
+    }
+}
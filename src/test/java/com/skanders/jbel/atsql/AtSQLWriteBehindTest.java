@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.atsql;
+
+import com.skanders.jbel.H2Resources;
+import com.skanders.jbel.def.SkandersException;
+import com.skanders.jbel.result.Result;
+import com.skanders.jbel.result.Resulted;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AtSQLWriteBehindTest
+{
+    private static final Duration NEVER = Duration.ofHours(1);
+
+    private static AtSQL atSQL;
+
+    @BeforeAll
+    public static void createTables()
+    {
+        atSQL = H2Resources.create("write_behind_test");
+
+        H2Resources.update(atSQL,
+                "CREATE TABLE setting (id INT NOT NULL PRIMARY KEY, val VARCHAR(64) NOT NULL)",
+                "CREATE TABLE counter (id INT NOT NULL PRIMARY KEY, hits INT NOT NULL)",
+                "INSERT INTO counter VALUES (1, 0), (2, 0)");
+    }
+
+    @Test
+    public void coalesceTest() throws Exception
+    {
+        try (AtSQLWriteBehind writeBehind =
+                     atSQL.createWriteBehind("INSERT INTO setting (id, val) VALUES (?,?)", 10, NEVER)) {
+
+            CompletableFuture<Result> first  = writeBehind.write(1, 1, "old");
+            CompletableFuture<Result> second = writeBehind.write(1, 1, "new");
+
+            assertSame(first, second);
+            assertEquals(1, writeBehind.getPendingCount());
+
+            writeBehind.flush();
+
+            assertFalse(first.get(1, TimeUnit.SECONDS).notValid());
+            assertEquals(0, writeBehind.getPendingCount());
+            assertEquals("new", values("SELECT val FROM setting WHERE id = 1").get(0).val);
+        }
+    }
+
+    @Test
+    public void sizeFlushTest() throws Exception
+    {
+        try (AtSQLWriteBehind writeBehind =
+                     atSQL.createWriteBehind("INSERT INTO setting (id, val) VALUES (?,?)", 2, NEVER)) {
+
+            CompletableFuture<Result> first  = writeBehind.write(10, 10, "a");
+            CompletableFuture<Result> second = writeBehind.write(11, 11, "b");
+
+            assertFalse(first.get(5, TimeUnit.SECONDS).notValid());
+            assertFalse(second.get(5, TimeUnit.SECONDS).notValid());
+            assertEquals(2, values("SELECT val FROM setting WHERE id BETWEEN 10 AND 11").size());
+        }
+    }
+
+    @Test
+    public void mergeTest() throws Exception
+    {
+        try (AtSQLWriteBehind writeBehind =
+                     atSQL.createWriteBehind("UPDATE counter SET hits = hits + ? WHERE id = ?", 10, NEVER)
+                             .withMerge((previous, latest) ->
+                                     new Object[]{(int) previous[0] + (int) latest[0], latest[1]})) {
+
+            for (int i = 0; i < 5; i++)
+                writeBehind.write(1, 2, 1);
+
+            CompletableFuture<Result> other = writeBehind.write(2, 7, 2);
+
+            writeBehind.flush();
+
+            assertFalse(other.get(1, TimeUnit.SECONDS).notValid());
+            assertEquals("10", values("SELECT hits AS val FROM counter WHERE id = 1").get(0).val);
+            assertEquals("7", values("SELECT hits AS val FROM counter WHERE id = 2").get(0).val);
+        }
+    }
+
+    @Test
+    public void closeTest() throws Exception
+    {
+        AtSQLWriteBehind writeBehind =
+                atSQL.createWriteBehind("INSERT INTO setting (id, val) VALUES (?,?)", 10, NEVER);
+
+        CompletableFuture<Result> pending = writeBehind.write(20, 20, "closing");
+
+        writeBehind.close();
+
+        assertFalse(pending.get(1, TimeUnit.SECONDS).notValid());
+        assertEquals(0, writeBehind.getPendingCount());
+        assertEquals(1, values("SELECT val FROM setting WHERE id = 20").size());
+        assertThrows(SkandersException.class, () -> writeBehind.write(21, 21, "late"));
+    }
+
+    @Test
+    public void flushIntervalTest()
+    {
+        // would round down to a zero millisecond flush delay
+        assertThrows(SkandersException.class, () -> atSQL.createWriteBehind(
+                "INSERT INTO setting (id, val) VALUES (?,?)", 10, Duration.ofNanos(500_000)));
+    }
+
+    private static List<Value> values(String query)
+    {
+        Resulted<List<Value>> resulted = atSQL.createQuery(query).executeQuery(Value.class);
+        assertFalse(resulted.notValid());
+
+        return resulted.value();
+    }
+
+    static class Value
+    {
+        private String val;
+    }
+}
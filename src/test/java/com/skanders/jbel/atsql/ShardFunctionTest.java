@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.atsql;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ShardFunctionTest
+{
+    @Test
+    public void hashTest()
+    {
+        ShardFunction hash = ShardFunction.hash();
+
+        for (int i = 0; i < 1000; i++) {
+            int shard = hash.shardOf(i, 16);
+
+            assertTrue(shard >= 0 && shard < 16);
+            assertEquals(shard, hash.shardOf(i, 16));
+        }
+    }
+
+    @Test
+    public void rangeTest()
+    {
+        ShardFunction range = ShardFunction.range(100, 200, 300);
+
+        assertEquals(0, range.shardOf(-5, 4));
+        assertEquals(0, range.shardOf(99, 4));
+        assertEquals(1, range.shardOf(100, 4));
+        assertEquals(2, range.shardOf(250L, 4));
+        assertEquals(3, range.shardOf(300, 4));
+        assertEquals(3, range.shardOf(Long.MAX_VALUE, 4));
+    }
+
+    @Test
+    public void lookupTest()
+    {
+        Map<String, Integer> table = new HashMap<>();
+        table.put("tenantA", 3);
+
+        ShardFunction lookup = ShardFunction.lookup(table, (key, count) -> 0);
+
+        assertEquals(3, lookup.shardOf("tenantA", 4));
+        assertEquals(0, lookup.shardOf("tenantB", 4));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.atsql;
+
+import com.skanders.jbel.H2Resources;
+import com.skanders.jbel.result.Resulted;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ShardedAtSQLTest
+{
+    @Test
+    public void scatterTest()
+    {
+        List<AtSQL> shards = Arrays.asList(
+                H2Resources.create("shard_0"), H2Resources.create("shard_1"), H2Resources.create("shard_2"));
+
+        for (AtSQL shard : shards.subList(0, 2))
+            H2Resources.update(shard, "CREATE TABLE account (id INT NOT NULL PRIMARY KEY, name VARCHAR(64) NOT NULL)");
+
+        ShardedAtSQL shardedAtSQL = ShardedAtSQL.of(ShardFunction.range(100, 200), shards);
+
+        for (int id : new int[]{1, 2, 150})
+            assertFalse(shardedAtSQL.createQuery(id, "INSERT INTO account (id, name) VALUES (?,?)")
+                    .setList(id, "account" + id)
+                    .executeUpdate()
+                    .notValid());
+
+        try (ShardedAtSQLResult result = shardedAtSQL.scatterQuery("SELECT id, name FROM account ORDER BY id")) {
+            assertFalse(result.notValid());
+            assertTrue(result.hasFailures());
+            assertEquals(2, result.getResults().size());
+            assertEquals(1, result.getFailures().size());
+            assertTrue(result.getFailures().containsKey(2));
+
+            Resulted<List<Account>> accounts = result.toList(Account.class);
+            assertFalse(accounts.notValid());
+            assertEquals(Arrays.asList(1, 2, 150),
+                    accounts.value().stream().map(account -> account.id).collect(Collectors.toList()));
+        }
+
+        try (ShardedAtSQLResult result = shardedAtSQL.scatterQuery("SELECT id, name FROM account WHERE id > ?", 1)) {
+            assertEquals(Arrays.asList("account2", "account150"),
+                    result.stream(Account.class).map(account -> account.name).collect(Collectors.toList()));
+        }
+
+        List<Resulted<Integer>> updated = shardedAtSQL.scatterUpdate("DELETE FROM account WHERE id < ?", 100);
+        assertEquals(2, (int) updated.get(0).value());
+        assertEquals(0, (int) updated.get(1).value());
+        assertTrue(updated.get(2).notValid());
+
+        shardedAtSQL.close();
+
+        assertTrue(shards.get(0).createQuery("DELETE FROM account").executeUpdate().notValid());
+    }
+
+    static class Account
+    {
+        private int    id;
+        private String name;
+    }
+}
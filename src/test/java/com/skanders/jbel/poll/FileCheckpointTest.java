@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.poll;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Timestamp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class FileCheckpointTest
+{
+    @Test
+    public void saveAndLoadTest(@TempDir Path dir)
+    {
+        Path      path      = dir.resolve("checkpoint.json");
+        Timestamp updatedAt = Timestamp.valueOf("2020-03-01 10:15:30.5");
+
+        FileCheckpoint checkpoint = FileCheckpoint.at(path);
+
+        assertNull(checkpoint.load("events").value());
+        assertFalse(checkpoint.save("events", PollMark.of(updatedAt, 42)).notValid());
+        assertFalse(checkpoint.save("orders", PollMark.of(7L, null)).notValid());
+
+        FileCheckpoint reloaded = FileCheckpoint.at(path);
+        PollMark       events   = reloaded.load("events").value();
+
+        assertEquals(updatedAt, events.getMark());
+        assertEquals(42L, events.getTie());
+        assertEquals(7L, reloaded.load("orders").value().getMark());
+    }
+}
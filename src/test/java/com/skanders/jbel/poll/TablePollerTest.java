@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.skanders.jbel.poll;
+
+import com.skanders.jbel.H2Resources;
+import com.skanders.jbel.atsql.AtSQL;
+import com.skanders.jbel.result.Result;
+import com.skanders.jbel.result.Resulted;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TablePollerTest
+{
+    private static final String CREATE_EVENT =
+            "CREATE TABLE event (id INT NOT NULL PRIMARY KEY, updated INT NOT NULL)";
+
+    private static final String CREATE_CHECKPOINT =
+            "CREATE TABLE poll_checkpoint (name VARCHAR(128) NOT NULL PRIMARY KEY, mark VARCHAR(64) NOT NULL," +
+                    " mark_type VARCHAR(16) NOT NULL, tie VARCHAR(64) NULL, tie_type VARCHAR(16) NULL)";
+
+    @Test
+    public void tiePagingTest()
+    {
+        AtSQL atSQL = H2Resources.create("poller_tie_test");
+        H2Resources.update(atSQL, CREATE_EVENT, CREATE_CHECKPOINT,
+                "INSERT INTO event VALUES (1, 10), (2, 10), (3, 10), (4, 20), (5, 20)");
+
+        List<Integer>      handled = new ArrayList<>();
+        TablePoller<Event> poller  = poller(atSQL, handled);
+
+        Resulted<Integer> polled = poller.poll();
+
+        assertFalse(polled.notValid());
+        assertEquals(5, (int) polled.value());
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), handled);
+        assertEquals(20L, poller.getMark().getMark());
+        assertEquals(5L, poller.getMark().getTie());
+
+        // a row sharing the last mark with a higher tie breaker is still picked up
+        H2Resources.update(atSQL, "INSERT INTO event VALUES (6, 20), (7, 30)");
+
+        assertEquals(2, (int) poller.poll().value());
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7), handled);
+        assertEquals(0, (int) poller.poll().value());
+    }
+
+    @Test
+    public void checkpointResumeTest()
+    {
+        AtSQL atSQL = H2Resources.create("poller_resume_test");
+        H2Resources.update(atSQL, CREATE_EVENT, CREATE_CHECKPOINT,
+                "INSERT INTO event VALUES (1, 10), (2, 10), (3, 11)");
+
+        List<Integer> handled = new ArrayList<>();
+
+        assertEquals(3, (int) poller(atSQL, handled).poll().value());
+
+        H2Resources.update(atSQL, "INSERT INTO event VALUES (4, 11), (5, 12)");
+
+        // a new poller, as after a restart, resumes from the checkpointed mark
+        List<Integer> resumed = new ArrayList<>();
+
+        assertEquals(2, (int) poller(atSQL, resumed).poll().value());
+        assertEquals(Arrays.asList(4, 5), resumed);
+    }
+
+    @Test
+    public void handlerFailureTest()
+    {
+        AtSQL atSQL = H2Resources.create("poller_failure_test");
+        H2Resources.update(atSQL, CREATE_EVENT, "INSERT INTO event VALUES (1, 10), (2, 11), (3, 12)");
+
+        List<Integer> handled = new ArrayList<>();
+        boolean[]     failing = {true};
+
+        TablePoller<Event> poller = TablePoller.create(atSQL, "event", Event.class, event -> {
+            if (failing[0] && event.id == 3)
+                return Result.exception("handler failure");
+
+            handled.add(event.id);
+            return Result.VALID;
+
+        }).withMarkColumn("updated").withTieBreaker("id").withPageSize(2);
+
+        Resulted<Integer> failed = poller.poll();
+
+        assertTrue(failed.notValid());
+        assertEquals(Arrays.asList(1, 2), handled);
+        assertEquals(11L, poller.getMark().getMark());
+
+        failing[0] = false;
+
+        assertEquals(1, (int) poller.poll().value());
+        assertEquals(Arrays.asList(1, 2, 3), handled);
+        assertEquals(12L, poller.getMark().getMark());
+    }
+
+    @Test
+    public void microsecondMarkTest()
+    {
+        AtSQL atSQL = H2Resources.create("poller_micros_test");
+        H2Resources.update(atSQL,
+                "CREATE TABLE event (id INT NOT NULL PRIMARY KEY, updated TIMESTAMP(6) NOT NULL)",
+                "INSERT INTO event VALUES (1, '2020-01-01 00:00:00.000100'), (2, '2020-01-01 00:00:00.000200')," +
+                        " (3, '2020-01-01 00:00:00.000300'), (4, '2020-01-01 00:00:00.000400')");
+
+        List<Integer> handled = new ArrayList<>();
+
+        // every row shares one millisecond, a mark cut to it would poll the same page forever
+        TablePoller<TimedEvent> poller = TablePoller.create(atSQL, "event", TimedEvent.class, event -> {
+            handled.add(event.id);
+            return Result.VALID;
+
+        }).withMarkColumn("updated").withPageSize(2);
+
+        assertEquals(4, (int) assertTimeoutPreemptively(Duration.ofSeconds(10), () -> poller.poll().value()));
+        assertEquals(Arrays.asList(1, 2, 3, 4), handled);
+        assertEquals(Timestamp.valueOf("2020-01-01 00:00:00.0004"), poller.getMark().getMark());
+        assertEquals(0, (int) poller.poll().value());
+    }
+
+    @Test
+    public void emptyTableTest()
+    {
+        AtSQL atSQL = H2Resources.create("poller_empty_test");
+        H2Resources.update(atSQL, CREATE_EVENT, CREATE_CHECKPOINT);
+
+        TablePoller<Event> poller = poller(atSQL, new ArrayList<>());
+
+        assertEquals(0, (int) poller.poll().value());
+        assertNull(poller.getMark());
+    }
+
+    private static TablePoller<Event> poller(AtSQL atSQL, List<Integer> handled)
+    {
+        return TablePoller.create(atSQL, "event", Event.class, event -> {
+            handled.add(event.id);
+            return Result.VALID;
+
+        }).withMarkColumn("updated")
+                .withTieBreaker("id")
+                .withPageSize(2)
+                .withCheckpoint(TableCheckpoint.create(atSQL, "poll_checkpoint"));
+    }
+
+    static class Event
+    {
+        private int id;
+        private int updated;
+    }
+
+    static class TimedEvent
+    {
+        private int       id;
+        private Timestamp updated;
+    }
+}
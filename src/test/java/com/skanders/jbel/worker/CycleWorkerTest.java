@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.atsql.AtSQL;
+import com.skanders.jbel.atsql.AtSQLFactory;
+import com.skanders.jbel.def.SkandersResult;
+import com.skanders.jbel.worker.def.CycleMode;
+import com.skanders.jbel.worker.def.WorkerState;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CycleWorkerTest
+{
+    @Test
+    public void schedulerTimeoutTest() throws InterruptedException
+    {
+        WorkerScheduler scheduler = WorkerScheduler.create("Scheduler Test", 1);
+        CountDownLatch  fired     = new CountDownLatch(1);
+        AtomicInteger   cancelled = new AtomicInteger();
+
+        scheduler.schedule(fired::countDown, 50, TimeUnit.MILLISECONDS);
+        WorkerTimeout timeout = scheduler.schedule(cancelled::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+
+        assertTrue(timeout.cancel());
+        assertTrue(fired.await(1, TimeUnit.SECONDS));
+
+        Thread.sleep(50);
+        assertEquals(0, cancelled.get());
+
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void lazyTimerTest() throws InterruptedException
+    {
+        CountDownLatch ran    = new CountDownLatch(1);
+        CycleWorker    worker = CycleWorker.create(Duration.ofMillis(10), ran::countDown, "Lazy Timer Test");
+
+        // a worker never started holds no thread which would keep the JVM alive
+        assertFalse(isAlive("Lazy Timer Test Timer"));
+
+        worker.start();
+
+        assertTrue(ran.await(1, TimeUnit.SECONDS));
+        assertTrue(isAlive("Lazy Timer Test Timer"));
+
+        worker.shutdown();
+    }
+
+    private static boolean isAlive(String threadName)
+    {
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+            if (thread.getName().equals(threadName) && thread.isAlive())
+                return true;
+
+        return false;
+    }
+
+    @Test
+    public void sharedPoolTest() throws InterruptedException
+    {
+        CycleWorkerPool pool  = CycleWorkerPool.create("Cycle Pool Test", 2);
+        CountDownLatch  first = new CountDownLatch(4);
+        CountDownLatch  other = new CountDownLatch(3);
+
+        CycleWorker firstWorker = CycleWorker.create(pool, Duration.ofMillis(20), first::countDown, "First");
+        CycleWorker otherWorker = CycleWorker.create(pool, Duration.ofMillis(20), other::countDown, "Other")
+                .withIsolation();
+
+        assertEquals(SkandersResult.WORKER_STARTED, firstWorker.start());
+        assertEquals(SkandersResult.WORKER_STARTED, otherWorker.start());
+
+        assertTrue(first.await(1, TimeUnit.SECONDS));
+        assertTrue(other.await(1, TimeUnit.SECONDS));
+        // runs are recorded before the next one starts, the fourth run implies three recorded
+        assertTrue(firstWorker.getMetrics().getRunCount() >= 3);
+        assertEquals(2, pool.getStatuses().length);
+
+        assertEquals(SkandersResult.WORKER_STOPPED, firstWorker.stop());
+        assertEquals(WorkerState.STOPPED, firstWorker.getState());
+
+        pool.shutdown();
+        assertFalse(otherWorker.getState() == WorkerState.WORKING);
+        assertTrue(pool.getScheduler().isShutdown());
+    }
+
+    @Test
+    public void skipIfRunningTest() throws InterruptedException
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch runs    = new CountDownLatch(3);
+
+        CycleWorker cycleWorker = CycleWorker.create(Duration.ofMillis(20), () -> {
+            started.countDown();
+            runs.countDown();
+
+            try {
+                Thread.sleep(70);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Skip Test")
+                .withMode(CycleMode.SKIP_IF_RUNNING)
+                .withJitter(Duration.ofMillis(5))
+                .withInvokeGuard();
+
+        cycleWorker.start();
+
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        assertEquals(SkandersResult.WORKER_ALREADY_RUNNING, cycleWorker.invoke());
+
+        assertTrue(runs.await(2, TimeUnit.SECONDS));
+        cycleWorker.shutdown();
+
+        assertTrue(cycleWorker.getMetrics().getSkippedCount() >= 4);
+        assertEquals(0, cycleWorker.getMetrics().getOverlapCount());
+    }
+
+    @Test
+    public void adaptivePeriodTest() throws InterruptedException
+    {
+        AtomicInteger  work   = new AtomicInteger();
+        CountDownLatch idle   = new CountDownLatch(5);
+        CountDownLatch active = new CountDownLatch(1);
+
+        CycleWorker cycleWorker = CycleWorker.createAdaptive(Duration.ofMillis(5), Duration.ofMillis(40), () -> {
+            int found = work.getAndSet(0);
+
+            if (found > 0)
+                active.countDown();
+            else
+                idle.countDown();
+
+            return found;
+        }, "Adaptive Test");
+
+        cycleWorker.start();
+
+        assertTrue(idle.await(2, TimeUnit.SECONDS));
+        assertEquals(Duration.ofMillis(40), cycleWorker.getPeriod());
+
+        work.set(10);
+
+        assertTrue(active.await(2, TimeUnit.SECONDS));
+        Thread.sleep(20);
+        assertTrue(cycleWorker.getPeriod().compareTo(Duration.ofMillis(40)) < 0);
+
+        cycleWorker.shutdown();
+    }
+
+    @Test
+    public void cronScheduleTest() throws InterruptedException
+    {
+        ZoneId       zone     = ZoneId.of("America/New_York");
+        CronSchedule weekdays = CronSchedule.parse("30 2 * * MON-FRI", zone);
+        CronSchedule quarters = CronSchedule.parse("*/15 9-17 1,15 * *", zone);
+
+        Instant friday = ZonedDateTime.of(2026, 10, 16, 3, 0, 0, 0, zone).toInstant();
+        assertEquals(ZonedDateTime.of(2026, 10, 19, 2, 30, 0, 0, zone).toInstant(), weekdays.next(friday));
+        assertEquals(ZonedDateTime.of(2026, 11, 1, 9, 0, 0, 0, zone).toInstant(), quarters.next(friday));
+
+        CronSchedule nightly       = CronSchedule.parse("30 2 * * *", zone);
+        Instant      springForward = ZonedDateTime.of(2026, 3, 8, 0, 0, 0, 0, zone).toInstant();
+        assertEquals(ZonedDateTime.of(2026, 3, 8, 3, 30, 0, 0, zone).toInstant(), nightly.next(springForward));
+
+        CronSchedule daily    = CronSchedule.parse("@daily", zone);
+        Instant      fallBack = ZonedDateTime.of(2026, 11, 1, 0, 0, 0, 0, zone).toInstant();
+        assertEquals(Duration.ofHours(25), Duration.between(fallBack, daily.next(fallBack)));
+
+        assertThrows(RuntimeException.class, () -> CronSchedule.parse("0 0 31 2 *", zone));
+        assertThrows(RuntimeException.class, () -> CronSchedule.parse("61 * * * *", zone));
+
+        CountDownLatch fired  = new CountDownLatch(2);
+        CycleWorker    worker = CycleWorker.create(CronSchedule.parse("* * * * * *", zone), fired::countDown, "Cron Test");
+
+        worker.start();
+        assertTrue(fired.await(3, TimeUnit.SECONDS));
+        worker.shutdown();
+    }
+
+    @Test
+    public void leaseCoordinatorTest() throws InterruptedException
+    {
+        AtSQL atSQL = AtSQLFactory.newInstance("sa", "", 60000, 4)
+                .withJdbcUrl("jdbc:h2:mem:lease_test;DB_CLOSE_DELAY=-1")
+                .build();
+
+        assertFalse(atSQL.createQuery("CREATE TABLE worker_lease (lease_name VARCHAR(191) NOT NULL PRIMARY KEY," +
+                " holder VARCHAR(128) NOT NULL, fencing_token BIGINT NOT NULL, expires_at BIGINT NOT NULL)")
+                .executeUpdate().notValid());
+
+        Duration         lease  = Duration.ofMillis(600);
+        LeaseCoordinator first  = LeaseCoordinator.create(atSQL, "worker_lease", "first").withLeaseDuration(lease);
+        LeaseCoordinator second = LeaseCoordinator.create(atSQL, "worker_lease", "second").withLeaseDuration(lease);
+
+        AtomicInteger runs   = new AtomicInteger();
+        CycleWorker   worker = CycleWorker.create(Duration.ofMillis(20), runs::incrementAndGet, "Leader Test")
+                .withLeader(second, "report");
+
+        first.withLease("report").withPartitions("ingest", 4).start();
+        second.withPartitions("ingest", 4).start();
+        worker.start();
+
+        assertTrue(first.isLeader("report"));
+        assertFalse(second.isLeader("report"));
+        assertEquals(1, first.getFencingToken("report"));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
+        while (second.getPartitions("ingest").size() < 2 && System.nanoTime() < deadline)
+            Thread.sleep(20);
+
+        List<Integer> partitions = new ArrayList<>(first.getPartitions("ingest"));
+        partitions.addAll(second.getPartitions("ingest"));
+        partitions.sort(null);
+
+        assertEquals(Arrays.asList(0, 1, 2, 3), partitions);
+        assertEquals(2, second.getPartitions("ingest").size());
+        assertEquals(0, runs.get());
+
+        first.close();
+
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
+        while ((runs.get() == 0 || second.getPartitions("ingest").size() < 4) && System.nanoTime() < deadline)
+            Thread.sleep(20);
+
+        assertTrue(second.isLeader("report"));
+        assertEquals(2, second.getFencingToken("report"));
+        assertEquals(4, second.getPartitions("ingest").size());
+        assertTrue(runs.get() > 0);
+
+        worker.shutdown();
+        second.close();
+    }
+}
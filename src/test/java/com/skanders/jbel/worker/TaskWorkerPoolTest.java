@@ -0,0 +1,858 @@
+/*
+ * Copyright (c) 2020 Alexander Iskander
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.skanders.jbel.worker;
+
+import com.skanders.jbel.def.SkandersResult;
+import com.skanders.jbel.result.Result;
+import com.skanders.jbel.worker.def.BatchTask;
+import com.skanders.jbel.worker.def.GraphNodeState;
+import com.skanders.jbel.worker.def.PriorityTask;
+import com.skanders.jbel.worker.def.RateLimitedTask;
+import com.skanders.jbel.worker.def.RejectionPolicy;
+import com.skanders.jbel.worker.def.Task;
+import com.skanders.jbel.worker.def.WaitStrategy;
+import com.skanders.jbel.worker.def.WatermarkListener;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TaskWorkerPoolTest
+{
+    @Test
+    public void workStealingTest() throws InterruptedException
+    {
+        TaskWorkerPool pool = TaskWorkerPoolFactory.newInstance("Stealing Test", 4)
+                .withWorkStealing()
+                .build();
+
+        CountDownLatch done  = new CountDownLatch(200);
+        List<Task>     tasks = new ArrayList<>();
+
+        // every task forks a subtask onto its worker's own deque
+        for (int i = 0; i < 100; i++)
+            tasks.add(() -> {
+                pool.forkTask(() -> {
+                    done.countDown();
+                    return Result.VALID;
+                });
+
+                done.countDown();
+                return Result.VALID;
+            });
+
+        assertTrue(pool.putTasks(tasks));
+        pool.startPool();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, pool.getQueueSize());
+    }
+
+    @Test
+    public void boundedQueueTest() throws InterruptedException
+    {
+        AtomicInteger high = new AtomicInteger();
+        AtomicInteger low  = new AtomicInteger();
+
+        TaskWorkerPool pool = TaskWorkerPoolFactory.newInstance("Bounded Test", 1)
+                .withCapacity(2, RejectionPolicy.REJECT)
+                .withWatermarks(2, 0, new WatermarkListener()
+                {
+                    @Override
+                    public void onHighWatermark(int queueSize)
+                    {
+                        high.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onLowWatermark(int queueSize)
+                    {
+                        low.incrementAndGet();
+                    }
+                })
+                .build();
+
+        CountDownLatch done = new CountDownLatch(2);
+        Task           task = () -> {
+            done.countDown();
+            return Result.VALID;
+        };
+
+        assertEquals(Result.VALID, pool.offerTask(task));
+        assertEquals(Result.VALID, pool.offerTask(task));
+        assertEquals(SkandersResult.TASK_REJECTED, pool.offerTask(task));
+        assertEquals(1, high.get());
+
+        pool.startPool();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(1, low.get());
+    }
+
+    @Test
+    public void dropOldestTest()
+    {
+        TaskWorkerPool pool = TaskWorkerPoolFactory.newInstance("Drop Oldest Test", 1)
+                .withCapacity(2, RejectionPolicy.DROP_OLDEST)
+                .build();
+
+        for (int i = 0; i < 5; i++)
+            assertEquals(Result.VALID, pool.offerTask(() -> Result.VALID));
+
+        assertEquals(2, pool.getQueueSize());
+    }
+
+    @Test
+    public void dropRequeuedTest() throws InterruptedException
+    {
+        TaskWorkerPool pool = TaskWorkerPoolFactory.newInstance("Drop Requeued Test", 1)
+                .withCapacity(1, RejectionPolicy.DROP_OLDEST)
+                .withRetry(RetryPolicy.create(3, Duration.ofMillis(10)).withJitter(0))
+                .build();
+
+        CountDownLatch failed  = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Result> retried = pool.submit(() -> {
+            failed.countDown();
+            throw new IllegalStateException("flaky");
+        });
+
+        pool.startPool();
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+
+        // keeps the only worker busy while the retry is queued again
+        assertTrue(pool.putTask(() -> {
+            started.countDown();
+
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                return Result.exception(e);
+            }
+
+            return Result.VALID;
+        }));
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 500 && pool.getQueueSize() == 0; i++)
+            Thread.sleep(10);
+
+        assertEquals(1, pool.getQueueSize());
+
+        // the queued retry holds no permit, so the new task fills the capacity
+        assertEquals(Result.VALID, pool.offerTask(() -> Result.VALID));
+        assertEquals(2, pool.getQueueSize());
+
+        // dropping the retry frees no permit, the first task is dropped too
+        assertEquals(Result.VALID, pool.offerTask(() -> Result.VALID));
+        assertEquals(1, pool.getQueueSize());
+        assertEquals(SkandersResult.TASK_REJECTED, retried.getNow(null));
+
+        release.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void virtualThreadsTest() throws InterruptedException
+    {
+        TaskWorkerPool pool = TaskWorkerPoolFactory.newInstance("Virtual Test", 3)
+                .withVirtualThreads()
+                .build();
+
+        CountDownLatch done    = new CountDownLatch(30);
+        AtomicInteger  running = new AtomicInteger();
+        AtomicInteger  peak    = new AtomicInteger();
+
+        for (int i = 0; i < 30; i++)
+            pool.putTask(() -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    return Result.exception(e);
+                }
+
+                running.decrementAndGet();
+                done.countDown();
+                return Result.VALID;
+            });
+
+        pool.startPool();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(peak.get() <= 3);
+    }
+
+    @Test
+    public void shutdownTest() throws InterruptedException
+    {
+        TaskWorkerPool pool = TaskWorkerPool.create("Shutdown Test", 2);
+        AtomicInteger  ran  = new AtomicInteger();
+
+        for (int i = 0; i < 20; i++)
+            pool.putTask(() -> {
+                ran.incrementAndGet();
+                return Result.VALID;
+            });
+
+        pool.startPool();
+        pool.shutdown();
+
+        assertEquals(SkandersResult.TASK_POOL_SHUTDOWN, pool.offerTask(() -> Result.VALID));
+        assertTrue(pool.awaitTermination(Duration.ofSeconds(5)));
+        assertEquals(20, ran.get());
+        assertEquals(0, pool.getActiveCount());
+
+        TaskWorkerPoolMetrics metrics = pool.getMetrics();
+
+        assertEquals(20, metrics.getSubmittedCount());
+        assertEquals(1, metrics.getRejectedCount());
+        assertEquals(20, metrics.getCompletedCount());
+        assertEquals(20, metrics.getWaitTime().getCount());
+        assertEquals(20, metrics.toJson().get("results").get("1").asLong());
+    }
+
+    @Test
+    public void shutdownNowTest() throws InterruptedException
+    {
+        TaskWorkerPool pool    = TaskWorkerPool.create("Shutdown Now Test", 1);
+        CountDownLatch started = new CountDownLatch(1);
+
+        pool.putTask(() -> {
+            started.countDown();
+
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                return Result.exception(e);
+            }
+
+            return Result.VALID;
+        });
+
+        for (int i = 0; i < 5; i++)
+            pool.putTask(() -> Result.VALID);
+
+        pool.startPool();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertEquals(5, pool.shutdownNow().size());
+        assertTrue(pool.awaitTermination(Duration.ofSeconds(5)));
+        assertFalse(pool.putTask(() -> Result.VALID));
+    }
+
+    @Test
+    public void priorityTest() throws InterruptedException
+    {
+        TaskWorkerPool pool = TaskWorkerPoolFactory.newInstance("Priority Test", 1)
+                .withPriorities(Duration.ofHours(1))
+                .build();
+
+        List<Integer> order = new CopyOnWriteArrayList<>();
+
+        for (int priority : new int[]{0, 1, 5, 0})
+            pool.putTask(PriorityTask.of(priority, () -> {
+                order.add(priority);
+                return Result.VALID;
+            }));
+
+        pool.putTask(PriorityTask.of(9, Instant.now().minusSeconds(1), () -> {
+            order.add(9);
+            return Result.VALID;
+        }));
+
+        pool.startPool();
+        pool.shutdown();
+
+        assertTrue(pool.awaitTermination(Duration.ofSeconds(5)));
+        assertEquals(Arrays.asList(5, 1, 0, 0), order);
+        assertEquals(1, pool.getExpiredCount());
+        assertEquals(2, pool.getQueueWaitByPriority().get(0).getCount());
+    }
+
+    @Test
+    public void latencyHistogramTest()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int i = 1; i <= 100; i++)
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMeanMillis(), 0.01);
+        assertEquals(100, histogram.getMaxMillis(), 0.01);
+        assertEquals(50, histogram.getPercentileMillis(50), 50 * 0.25);
+        assertEquals(99, histogram.getPercentileMillis(99), 99 * 0.25);
+    }
+
+    @Test
+    public void batchingTest() throws InterruptedException
+    {
+        TaskWorkerPool pool = TaskWorkerPoolFactory.newInstance("Batching Test", 1)
+                .withBatching(32, Duration.ofMillis(1))
+                .build();
+
+        List<Integer> batches = new CopyOnWriteArrayList<>();
+
+        for (int i = 0; i < 100; i++)
+            pool.putTask(new WriteTask(batches));
+
+        pool.startPool();
+        pool.shutdown();
+
+        assertTrue(pool.awaitTermination(Duration.ofSeconds(5)));
+        assertEquals(Arrays.asList(32, 32, 32, 4), batches);
+        assertEquals(100, pool.getMetrics().getCompletedCount());
+    }
+
+    private static class WriteTask implements BatchTask<WriteTask>
+    {
+        private final List<Integer> batches;
+
+        WriteTask(List<Integer> batches)
+        {
+            this.batches = batches;
+        }
+
+        @Override
+        public Result executeBatch(List<WriteTask> batch)
+        {
+            batches.add(batch.size());
+            return Result.VALID;
+        }
+    }
+
+    @Test
+    public void ringBufferTest() throws InterruptedException
+    {
+        TaskWorkerPool pool = TaskWorkerPoolFactory.newInstance("Ring Buffer Test", 2)
+                .withRingBuffer(8, WaitStrategy.YIELD)
+                .build();
+
+        CountDownLatch done = new CountDownLatch(1000);
+        pool.startPool();
+
+        // producers outpace the ring, waiting for room once it is full
+        Thread[] producers = new Thread[2];
+        for (int p = 0; p < producers.length; p++) {
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < 500; i++)
+                    pool.putTask(() -> {
+                        done.countDown();
+                        return Result.VALID;
+                    });
+            });
+            producers[p].start();
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (Thread producer : producers)
+            producer.join();
+
+        pool.shutdown();
+
+        assertTrue(pool.awaitTermination(Duration.ofSeconds(5)));
+        assertEquals(1000, pool.getMetrics().getWaitTime().getCount());
+    }
+
+    @Test
+    public void journalTest(@TempDir Path directory) throws InterruptedException
+    {
+        JournalTask.RUNS.set(0);
+
+        // small segments, so the tasks span several of them
+        TaskWorkerPool crashed = TaskWorkerPoolFactory.newInstance("Journal Test", 2)
+                .withJournal(directory, 256)
+                .build();
+
+        for (int i = 0; i < 20; i++)
+            assertTrue(crashed.putTask(new JournalTask(i)));
+
+        assertEquals(20, crashed.shutdownNow().size());
+        assertEquals(0, JournalTask.RUNS.get());
+
+        TaskWorkerPool restarted = TaskWorkerPoolFactory.newInstance("Journal Test", 2)
+                .withJournal(directory, 256)
+                .build();
+
+        assertEquals(20, restarted.getQueueSize());
+
+        restarted.startPool();
+        restarted.shutdown();
+
+        assertTrue(restarted.awaitTermination(Duration.ofSeconds(5)));
+        assertEquals(20, JournalTask.RUNS.get());
+
+        TaskWorkerPool replayed = TaskWorkerPoolFactory.newInstance("Journal Test", 2)
+                .withJournal(directory, 256)
+                .build();
+
+        assertEquals(0, replayed.getQueueSize());
+        replayed.shutdownNow();
+    }
+
+    @Test
+    public void journalBatchTest(@TempDir Path directory) throws InterruptedException
+    {
+        TaskWorkerPool crashed = TaskWorkerPoolFactory.newInstance("Journal Batch Test", 2)
+                .withJournal(directory, 256)
+                .build();
+
+        // the broken task cannot be journaled, so it alone is not queued
+        assertFalse(crashed.putTasks(Arrays.asList(
+                new JournalTask(0), new BrokenJournalTask(), new JournalTask(1), new JournalTask(2))));
+
+        assertEquals(3, crashed.getQueueSize());
+        assertEquals(3, crashed.getMetrics().getSubmittedCount());
+        assertEquals(1, crashed.getMetrics().getRejectedCount());
+        assertEquals(3, crashed.shutdownNow().size());
+
+        TaskWorkerPool restarted = TaskWorkerPoolFactory.newInstance("Journal Batch Test", 2)
+                .withJournal(directory, 256)
+                .build();
+
+        assertEquals(3, restarted.getQueueSize());
+        restarted.shutdownNow();
+    }
+
+    private static class JournalTask implements Task, Serializable
+    {
+        private static final AtomicInteger RUNS = new AtomicInteger();
+
+        private final int number;
+
+        JournalTask(int number)
+        {
+            this.number = number;
+        }
+
+        @Override
+        public Result executeTask()
+        {
+            RUNS.incrementAndGet();
+            return Result.VALID;
+        }
+    }
+
+    private static class BrokenJournalTask implements Task, Serializable
+    {
+        private final Object lock = new Object();
+
+        @Override
+        public Result executeTask()
+        {
+            return Result.VALID;
+        }
+    }
+
+    @Test
+    public void keyedTest() throws InterruptedException
+    {
+        TaskWorkerPool pool = TaskWorkerPoolFactory.newInstance("Keyed Test", 4).build();
+
+        List<List<Integer>> orders  = new ArrayList<>();
+        AtomicInteger[]     running = new AtomicInteger[10];
+        AtomicInteger       overlap = new AtomicInteger();
+
+        for (int key = 0; key < 10; key++) {
+            orders.add(new ArrayList<>());
+            running[key] = new AtomicInteger();
+        }
+
+        pool.startPool();
+
+        for (int i = 0; i < 100; i++) {
+            for (int key = 0; key < 10; key++) {
+                int           number  = i;
+                List<Integer> order   = orders.get(key);
+                AtomicInteger current = running[key];
+
+                assertTrue(pool.putTask(key, () -> {
+                    if (current.incrementAndGet() > 1)
+                        overlap.incrementAndGet();
+
+                    order.add(number);
+                    current.decrementAndGet();
+                    return Result.VALID;
+                }));
+            }
+        }
+
+        pool.shutdown();
+
+        assertTrue(pool.awaitTermination(Duration.ofSeconds(5)));
+        assertEquals(0, overlap.get());
+        assertEquals(0, pool.getKeyCount());
+
+        for (List<Integer> order : orders) {
+            assertEquals(100, order.size());
+
+            for (int i = 0; i < 100; i++)
+                assertEquals(i, order.get(i));
+        }
+    }
+
+    @Test
+    public void keyedRefusedTest() throws InterruptedException
+    {
+        TaskWorkerPool pool = TaskWorkerPoolFactory.newInstance("Keyed Refused Test", 1)
+                .withCapacity(1, RejectionPolicy.BLOCK_TIMEOUT)
+                .withOfferTimeout(Duration.ofMillis(300))
+                .build();
+
+        AtomicInteger ran = new AtomicInteger();
+
+        assertTrue(pool.putTask(() -> Result.VALID));
+
+        // the run of the key waits for room in the full queue until it times out
+        boolean[] started = new boolean[1];
+        Thread    starter = new Thread(() -> started[0] = pool.putTask("key", () -> {
+            ran.incrementAndGet();
+            return Result.VALID;
+        }));
+        starter.start();
+
+        for (int i = 0; i < 500 && pool.getKeyCount() == 0; i++)
+            Thread.sleep(1);
+
+        // joins the run meanwhile, and is refused along with it
+        assertFalse(pool.putTask("key", () -> {
+            ran.incrementAndGet();
+            return Result.VALID;
+        }));
+
+        starter.join();
+
+        assertFalse(started[0]);
+        assertEquals(0, pool.getKeyCount());
+
+        pool.startPool();
+
+        // the key is idle again, a new task starts a new run
+        assertTrue(pool.putTask("key", () -> {
+            ran.incrementAndGet();
+            return Result.VALID;
+        }));
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(Duration.ofSeconds(5)));
+        assertEquals(1, ran.get());
+    }
+
+    @Test
+    public void rateLimitTest() throws InterruptedException
+    {
+        TaskWorkerPool pool = TaskWorkerPoolFactory.newInstance("Rate Limit Test", 4)
+                .withRateLimit("api", 50, 5)
+                .build();
+
+        CountDownLatch done = new CountDownLatch(30);
+        pool.startPool();
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 30; i++)
+            assertTrue(pool.putTask(new RateLimitedTask()
+            {
+                @Override
+                public Object getRateKey()
+                {
+                    return "api";
+                }
+
+                @Override
+                public Result executeTask()
+                {
+                    done.countDown();
+                    return Result.VALID;
+                }
+            }));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        // the burst starts at once, the other 25 tasks one token apart
+        TokenBucket bucket = pool.getRateLimits().get("api");
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(450));
+        assertEquals(30, bucket.getRunCount());
+        assertTrue(bucket.getDeferredCount() >= 20);
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void retryTest() throws InterruptedException
+    {
+        TaskWorkerPool pool = TaskWorkerPoolFactory.newInstance("Retry Test", 1)
+                .withRetry(RetryPolicy.create(3, Duration.ofMillis(10)).withJitter(0))
+                .withDeadLetters(10)
+                .build();
+
+        AtomicInteger flaky  = new AtomicInteger();
+        AtomicInteger broken = new AtomicInteger();
+
+        pool.startPool();
+
+        // fails twice before succeeding on its last attempt
+        assertTrue(pool.putTask(() -> {
+            if (flaky.incrementAndGet() < 3)
+                throw new IllegalStateException("flaky");
+
+            return Result.VALID;
+        }));
+
+        assertTrue(pool.putTask(() -> {
+            broken.incrementAndGet();
+            throw new IllegalStateException("broken");
+        }));
+
+        // not retryable, given up on right away
+        assertTrue(pool.putTask(() -> SkandersResult.TASK_REJECTED));
+
+        pool.shutdown();
+
+        assertTrue(pool.awaitTermination(Duration.ofSeconds(5)));
+        assertEquals(3, flaky.get());
+        assertEquals(3, broken.get());
+        assertEquals(4, pool.getRetryCount());
+
+        List<DeadLetter> deadLetters = pool.getDeadLetterQueue().drain();
+
+        assertEquals(2, deadLetters.size());
+        assertEquals(SkandersResult.TASK_REJECTED, deadLetters.get(0).getResult());
+        assertEquals(3, deadLetters.get(1).getAttempts());
+        assertEquals(0, pool.getDeadLetterQueue().size());
+    }
+
+    @Test
+    public void submitDeadLetterTest() throws InterruptedException
+    {
+        TaskWorkerPool pool = TaskWorkerPoolFactory.newInstance("Submit Dead Letter Test", 1)
+                .withDeadLetters(10)
+                .build();
+
+        AtomicInteger failing = new AtomicInteger(1);
+        AtomicInteger ran     = new AtomicInteger();
+
+        Task task = () -> {
+            ran.incrementAndGet();
+            return failing.getAndSet(0) == 1 ? SkandersResult.TASK_REJECTED : Result.VALID;
+        };
+
+        pool.startPool();
+
+        assertEquals(SkandersResult.TASK_REJECTED, pool.submit(task).join());
+
+        // the dead letter holds the task as submitted, which runs again once put back
+        List<DeadLetter> deadLetters = pool.getDeadLetterQueue().drain();
+
+        assertEquals(1, deadLetters.size());
+        assertSame(task, deadLetters.get(0).getTask());
+        assertEquals(Result.VALID, pool.submit(deadLetters.get(0).getTask()).join());
+        assertEquals(2, ran.get());
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void taskGraphTest() throws InterruptedException
+    {
+        TaskWorkerPool pool = TaskWorkerPool.create("Graph Test", 4);
+        pool.startPool();
+
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        TaskGraph graph = TaskGraph.create("Nightly")
+                .addTask("extract", sleeping(order, "extract", 10))
+                .addTask("slow", sleeping(order, "slow", 100), "extract")
+                .addTask("fast", sleeping(order, "fast", 10), "extract")
+                .addTask("load", sleeping(order, "load", 10), "slow", "fast")
+                .addTask("broken", () -> SkandersResult.TASK_REJECTED)
+                .addTask("report", sleeping(order, "report", 10), "broken");
+
+        TaskGraphRun run = graph.run(pool);
+
+        assertTrue(run.await(Duration.ofSeconds(5)));
+        assertEquals(SkandersResult.TASK_REJECTED, run.getCompletion().join());
+
+        assertEquals("extract", order.get(0));
+        assertEquals("load", order.get(order.size() - 1));
+        assertFalse(order.contains("report"));
+
+        assertEquals(GraphNodeState.SUCCEEDED, run.getState("load"));
+        assertEquals(GraphNodeState.FAILED, run.getState("broken"));
+        assertEquals(GraphNodeState.SKIPPED, run.getState("report"));
+        assertEquals(SkandersResult.TASK_SKIPPED, run.getResult("report"));
+
+        assertEquals(Arrays.asList("extract", "slow", "load"), run.getCriticalPath());
+        assertTrue(run.getCriticalPathMillis() >= 120);
+
+        pool.shutdown();
+    }
+
+    private static Task sleeping(List<String> order, String id, long millis)
+    {
+        return () -> {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                return Result.exception(e);
+            }
+
+            order.add(id);
+            return Result.VALID;
+        };
+    }
+
+    @Test
+    public void submitTest() throws InterruptedException
+    {
+        TaskWorkerPool pool = TaskWorkerPool.create("Submit Test", 2);
+        pool.startPool();
+
+        assertEquals(SkandersResult.TASK_REJECTED, pool.submit(() -> SkandersResult.TASK_REJECTED).join());
+
+        List<Result> results = pool.invokeAll(Arrays.asList(
+                () -> Result.VALID,
+                () -> {
+                    throw new IllegalStateException("broken");
+                },
+                sleeping(new CopyOnWriteArrayList<>(), "slow", 1000)),
+                Duration.ofMillis(200));
+
+        assertEquals(Result.VALID, results.get(0));
+        assertEquals(Result.EXCEPTION.code(), results.get(1).code());
+        assertEquals(SkandersResult.TASK_TIMEOUT, results.get(2));
+
+        Result any = pool.invokeAny(Arrays.asList(
+                () -> SkandersResult.TASK_REJECTED,
+                sleeping(new CopyOnWriteArrayList<>(), "valid", 10)));
+
+        assertEquals(Result.VALID, any);
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(Duration.ofSeconds(5)));
+        assertEquals(SkandersResult.TASK_POOL_SHUTDOWN, pool.submit(() -> Result.VALID).join());
+    }
+
+    @Test
+    public void submitShutdownNowTest() throws InterruptedException
+    {
+        TaskWorkerPool pool    = TaskWorkerPool.create("Submit Shutdown Now Test", 1);
+        CountDownLatch started = new CountDownLatch(1);
+
+        pool.putTask(() -> {
+            started.countDown();
+
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                return Result.exception(e);
+            }
+
+            return Result.VALID;
+        });
+
+        Task                            task    = () -> Result.VALID;
+        List<CompletableFuture<Result>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 3; i++)
+            futures.add(pool.submit(task));
+
+        pool.startPool();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        List<Task> queued = pool.shutdownNow();
+
+        assertEquals(3, queued.size());
+        for (Task returned : queued)
+            assertSame(task, returned);
+
+        for (CompletableFuture<Result> future : futures)
+            assertEquals(SkandersResult.TASK_POOL_SHUTDOWN, future.getNow(null));
+
+        assertTrue(pool.awaitTermination(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void submitDropOldestTest()
+    {
+        TaskWorkerPool pool = TaskWorkerPoolFactory.newInstance("Submit Drop Oldest Test", 1)
+                .withCapacity(2, RejectionPolicy.DROP_OLDEST)
+                .build();
+
+        List<CompletableFuture<Result>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++)
+            futures.add(pool.submit(() -> Result.VALID));
+
+        assertEquals(2, pool.getQueueSize());
+
+        for (int i = 0; i < 3; i++)
+            assertEquals(SkandersResult.TASK_REJECTED, futures.get(i).getNow(null));
+
+        assertFalse(futures.get(3).isDone());
+        assertFalse(futures.get(4).isDone());
+    }
+
+    @Test
+    public void submitBatchingTest() throws InterruptedException
+    {
+        TaskWorkerPool pool = TaskWorkerPoolFactory.newInstance("Submit Batching Test", 1)
+                .withBatching(32, Duration.ofMillis(1))
+                .build();
+
+        List<Integer>                   batches = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<Result>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 40; i++)
+            futures.add(pool.submit(new WriteTask(batches)));
+
+        pool.startPool();
+        pool.shutdown();
+
+        assertTrue(pool.awaitTermination(Duration.ofSeconds(5)));
+        assertEquals(Arrays.asList(32, 8), batches);
+
+        for (CompletableFuture<Result> future : futures)
+            assertEquals(Result.VALID, future.getNow(null));
+    }
+}